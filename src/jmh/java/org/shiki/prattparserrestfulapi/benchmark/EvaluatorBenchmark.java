@@ -0,0 +1,48 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+import org.apfloat.Apfloat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.shiki.prattparserrestfulapi.parser.DoubleEvaluator;
+import org.shiki.prattparserrestfulapi.parser.LipsNotation;
+import org.shiki.prattparserrestfulapi.parser.Parser;
+
+import java.util.Map;
+
+/**
+ * LipsNotation.eval per operator family. The free variable x is bound at the given
+ * precision, which then bounds the precision of the whole computation.
+ */
+@State(Scope.Benchmark)
+public class EvaluatorBenchmark {
+
+    @Param({"arithmetic", "pow", "trig", "log"})
+    String family;
+
+    @Param({"20", "200", "1000"})
+    int precision;
+
+    LipsNotation tree;
+    Map<String, Apfloat> env;
+    Map<String, Double> doubleEnv;
+
+    @Setup
+    public void setup() {
+        tree = Parser.parse(Workloads.family(family)).tree();
+        env = Map.of("x", new Apfloat("1.2345678901234567890123456789", precision));
+        doubleEnv = Map.of("x", 1.2345678901234567890123456789);
+    }
+
+    @Benchmark
+    public Apfloat interpreter() {
+        return tree.eval(env);
+    }
+
+    @Benchmark
+    public DoubleEvaluator.Result doublePath() {
+        return DoubleEvaluator.evaluate(tree, doubleEnv);
+    }
+}
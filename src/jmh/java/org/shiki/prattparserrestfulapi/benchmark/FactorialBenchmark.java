@@ -0,0 +1,32 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+import org.apfloat.Apfloat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.shiki.prattparserrestfulapi.parser.LipsNotation;
+import org.shiki.prattparserrestfulapi.parser.Parser;
+
+/**
+ * The '!' operator across argument sizes: table hits, sequential and parallel splitting.
+ */
+@State(Scope.Benchmark)
+public class FactorialBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int n;
+
+    LipsNotation tree;
+
+    @Setup
+    public void setup() {
+        tree = Parser.parse(n + "!").tree();
+    }
+
+    @Benchmark
+    public Apfloat factorial() {
+        return tree.eval();
+    }
+}
@@ -0,0 +1,55 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.shiki.prattparserrestfulapi.PrattParserRestfulApiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * GET /api/v1/expression/evaluate through MockMvc against the real application context,
+ * including the security filter chain, the parse cache and JSON serialisation.
+ */
+@State(Scope.Benchmark)
+public class HttpBenchmark {
+
+    @Param({"2 + 3 * 4", "sin(1) + cos(2)", "20!"})
+    String expr;
+
+    @Param({"apfloat", "auto"})
+    String engine;
+
+    ConfigurableApplicationContext context;
+    MockMvc mockMvc;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(PrattParserRestfulApiApplication.class)
+                .properties("server.port=0", "logging.level.root=WARN", "logging.level.org.shiki.prattparserrestfulapi=WARN")
+                .run();
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MvcResult evaluate() throws Exception {
+        return mockMvc.perform(get("/api/v1/expression/evaluate").param("expr", expr).param("engine", engine)).andReturn();
+    }
+}
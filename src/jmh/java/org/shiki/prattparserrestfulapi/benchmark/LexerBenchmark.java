@@ -0,0 +1,36 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.shiki.prattparserrestfulapi.parser.ArrayLexer;
+import org.shiki.prattparserrestfulapi.parser.Lexer;
+
+/**
+ * Tokenising only: the original Vector-backed lexer against the array-backed one.
+ */
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+
+    @Param({"4", "64", "1024"})
+    int terms;
+
+    String input;
+
+    @Setup
+    public void setup() {
+        input = Workloads.mixed(terms);
+    }
+
+    @Benchmark
+    public Lexer vectorLexer() {
+        return new Lexer(input);
+    }
+
+    @Benchmark
+    public ArrayLexer arrayLexer() {
+        return new ArrayLexer(input);
+    }
+}
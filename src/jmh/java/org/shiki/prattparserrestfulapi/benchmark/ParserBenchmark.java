@@ -0,0 +1,34 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.shiki.prattparserrestfulapi.parser.Parser;
+
+/**
+ * Lexing plus Parser.exprBP; subtract LexerBenchmark.arrayLexer for the parser alone.
+ */
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({"4", "64", "1024"})
+    int terms;
+
+    @Param({"arithmetic", "mixed"})
+    String shape;
+
+    String input;
+
+    @Setup
+    public void setup() {
+        input = shape.equals("arithmetic") ? Workloads.arithmetic(terms) : Workloads.mixed(terms);
+    }
+
+    @Benchmark
+    public ParsedExpression parse() {
+        return Parser.parse(input);
+    }
+}
@@ -0,0 +1,53 @@
+package org.shiki.prattparserrestfulapi.benchmark;
+
+/**
+ * Generated expressions shared by the benchmarks.
+ */
+final class Workloads {
+
+    private static final String[] OPS = {" + ", " * ", " - ", " / "};
+
+    private Workloads() {}
+
+    /**
+     * Flat arithmetic with the given number of literals, e.g. "1 + 2 * 3 - 4 / 5".
+     */
+    static String arithmetic(int terms) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= terms; i++) {
+            if (i > 1) sb.append(OPS[i % OPS.length]);
+            sb.append(i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Arithmetic wrapped in function calls and parentheses, to exercise every parser branch.
+     */
+    static String mixed(int terms) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= terms; i++) {
+            if (i > 1) sb.append(OPS[i % OPS.length]);
+            switch (i % 4) {
+                case 0 -> sb.append("sin(").append(i).append(")");
+                case 1 -> sb.append("(").append(i).append(" ^ 2)");
+                case 2 -> sb.append("log_2(").append(i).append(")");
+                default -> sb.append(i % 10).append("!");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Expression of one free variable x for an operator family.
+     */
+    static String family(String family) {
+        return switch (family) {
+            case "arithmetic" -> "x * x + x / 3 - 7 * x";
+            case "pow" -> "x ^ 7 + 2 ^ x";
+            case "trig" -> "sin(x) + cos(x) * tan(x)";
+            case "log" -> "log(x) + log(3, x) + ln(x)";
+            default -> throw new IllegalArgumentException(family);
+        };
+    }
+}
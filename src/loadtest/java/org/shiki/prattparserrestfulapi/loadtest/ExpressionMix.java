@@ -0,0 +1,103 @@
+package org.shiki.prattparserrestfulapi.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Weighted mix of expression kinds, e.g. {@code trivial:40,trig:20,factorial:15,point:15,function:10}.
+ * Expressions are generated from a {@link Random}, so a given seed replays the same sequence.
+ */
+final class ExpressionMix {
+
+    static final String DEFAULT = "trivial:40,trig:20,factorial:15,point:15,function:10";
+
+    enum Kind {
+        TRIVIAL(r -> r.nextInt(1000) + " + " + r.nextInt(1000) + " * " + (1 + r.nextInt(99)) + " - " + r.nextInt(100)),
+        TRIG(r -> "sin(" + fraction(r) + ") ^ 2 + cos(" + fraction(r) + ") * tan(" + fraction(r) + ")"),
+        FACTORIAL(r -> (50 + r.nextInt(450)) + "!"),
+        POINT(r -> "(" + fraction(r) + ", " + fraction(r) + ")"),
+        FUNCTION(r -> "f(x) = x ^ " + (2 + r.nextInt(4)) + " + " + (1 + r.nextInt(9)) + " * x");
+
+        private final Function<Random, String> generator;
+
+        Kind(Function<Random, String> generator) {
+            this.generator = generator;
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        // The parser has no decimal literals
+        private static String fraction(Random r) {
+            return (1 + r.nextInt(99)) + " / " + (1 + r.nextInt(99));
+        }
+    }
+
+    record Request(Kind kind, String expression) {}
+
+    private final Kind[] kinds;
+    private final int[] cumulative;
+    private final Map<String, Integer> weights;
+
+    private ExpressionMix(Map<Kind, Integer> weights) {
+        this.kinds = weights.keySet().toArray(new Kind[0]);
+        this.cumulative = new int[kinds.length];
+        this.weights = new LinkedHashMap<>();
+        int total = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            total += weights.get(kinds[i]);
+            cumulative[i] = total;
+            this.weights.put(kinds[i].label(), weights.get(kinds[i]));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException for an unknown kind, a negative weight or no weight at all
+     */
+    static ExpressionMix parse(String spec) {
+        Map<Kind, Integer> weights = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            Kind kind;
+            try {
+                kind = Kind.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown expression kind: " + kv[0]);
+            }
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + kv[0]);
+            }
+            if (weight > 0) {
+                weights.put(kind, weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Empty expression mix: " + spec);
+        }
+        return new ExpressionMix(weights);
+    }
+
+    Request next(Random random) {
+        int pick = random.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; ; i++) {
+            if (pick < cumulative[i]) {
+                return new Request(kinds[i], kinds[i].generator.apply(random));
+            }
+        }
+    }
+
+    List<Kind> kinds() {
+        return new ArrayList<>(List.of(kinds));
+    }
+
+    Map<String, Integer> weights() {
+        return weights;
+    }
+}
@@ -0,0 +1,140 @@
+package org.shiki.prattparserrestfulapi.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and response statuses of one run, per expression kind and overall, and the JSON
+ * report written from them.
+ *
+ * Latencies are recorded in microseconds, for 2xx responses only; everything else is counted
+ * by status ("error" for requests that got no response, "dropped" for open-loop requests not
+ * sent because too many were already in flight). Each latency block carries the full
+ * histogram, compressed and base64 encoded, so runs can be merged or re-analysed later.
+ */
+final class LoadReport {
+
+    // Anything slower than this is recorded as this
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<String, Series> series = new LinkedHashMap<>();
+    private final Series overall = new Series();
+
+    private static final class Series {
+        final Histogram latencies = new ConcurrentHistogram(MAX_MICROS, 3);
+        final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        void record(String status, long nanos) {
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            if (status.startsWith("2")) {
+                latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), MAX_MICROS));
+            }
+        }
+    }
+
+    LoadReport(List<ExpressionMix.Kind> kinds) {
+        for (ExpressionMix.Kind kind : kinds) {
+            series.put(kind.label(), new Series());
+        }
+    }
+
+    /**
+     * @param status HTTP status, or "error" / "dropped"
+     */
+    void record(ExpressionMix.Kind kind, String status, long nanos) {
+        series.get(kind.label()).record(status, nanos);
+        overall.record(status, nanos);
+    }
+
+    ObjectNode toJson(JsonMapper mapper, Map<String, Object> settings, double elapsedSeconds) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("timestamp", Instant.now().toString());
+        root.put("java", System.getProperty("java.version"));
+        root.put("processors", Runtime.getRuntime().availableProcessors());
+        root.set("settings", mapper.valueToTree(settings));
+        root.put("elapsedSeconds", elapsedSeconds);
+        root.set("overall", toJson(mapper, overall, elapsedSeconds));
+        ObjectNode kinds = root.putObject("kinds");
+        series.forEach((name, s) -> kinds.set(name, toJson(mapper, s, elapsedSeconds)));
+        return root;
+    }
+
+    private static ObjectNode toJson(JsonMapper mapper, Series s, double elapsedSeconds) {
+        ObjectNode node = mapper.createObjectNode();
+        Histogram h = s.latencies;
+        node.put("ok", h.getTotalCount());
+        node.put("throughput", elapsedSeconds > 0 ? h.getTotalCount() / elapsedSeconds : 0);
+        ObjectNode statuses = node.putObject("statuses");
+        s.statuses.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> statuses.put(e.getKey(), e.getValue().sum()));
+        ObjectNode latency = node.putObject("latencyMs");
+        latency.put("mean", h.getMean() / 1000);
+        latency.put("p50", h.getValueAtPercentile(50) / 1000.0);
+        latency.put("p90", h.getValueAtPercentile(90) / 1000.0);
+        latency.put("p99", h.getValueAtPercentile(99) / 1000.0);
+        latency.put("p999", h.getValueAtPercentile(99.9) / 1000.0);
+        latency.put("max", h.getMaxValue() / 1000.0);
+        ByteBuffer buffer = ByteBuffer.allocate(h.getNeededByteBufferCapacity());
+        int length = h.encodeIntoCompressedByteBuffer(buffer);
+        node.put("histogram", Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length)));
+        return node;
+    }
+
+    /**
+     * Side-by-side throughput and percentiles of this run's report and a baseline report, for
+     * every series present in both.
+     */
+    static String compare(JsonNode baseline, JsonNode current) {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%-10s %-10s %12s %12s %9s%n",
+                "series", "metric", "baseline", "current", "change"));
+        compare(out, "overall", baseline.path("overall"), current.path("overall"));
+        for (String kind : kindNames(current)) {
+            if (baseline.path("kinds").has(kind)) {
+                compare(out, kind, baseline.path("kinds").path(kind), current.path("kinds").path(kind));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void compare(StringBuilder out, String name, JsonNode before, JsonNode after) {
+        line(out, name, "req/s", before.path("throughput").asDouble(), after.path("throughput").asDouble());
+        for (String p : new String[] {"p50", "p99", "p999"}) {
+            line(out, name, p + " ms", before.path("latencyMs").path(p).asDouble(),
+                    after.path("latencyMs").path(p).asDouble());
+        }
+    }
+
+    private static void line(StringBuilder out, String name, String metric, double before, double after) {
+        String change = before == 0 ? "n/a" : String.format(Locale.ROOT, "%+.1f%%", 100 * (after - before) / before);
+        out.append(String.format(Locale.ROOT, "%-10s %-10s %12.3f %12.3f %9s%n", name, metric, before, after, change));
+    }
+
+    private static List<String> kindNames(JsonNode report) {
+        return report.path("kinds").propertyNames().stream().toList();
+    }
+
+    static void write(JsonMapper mapper, JsonNode report, Path file) throws Exception {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.writeString(file, mapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+    }
+}
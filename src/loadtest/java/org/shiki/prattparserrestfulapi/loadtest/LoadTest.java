@@ -0,0 +1,250 @@
+package org.shiki.prattparserrestfulapi.loadtest;
+
+import org.shiki.prattparserrestfulapi.PrattParserRestfulApiApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entry point for the loadtest profile: starts the application on a free port (or targets
+ * --url), replays a seeded mix of expressions against GET /evaluate and writes a JSON report
+ * with latency percentiles per expression kind.
+ *
+ * Two ways to apply load:
+ * - closed loop (--concurrency=N, the default with 16): N clients each send a request and
+ *   wait for the answer before sending the next, so throughput is what the server sustains;
+ * - open loop (--rate=N): N requests per second on a fixed schedule whatever the server does.
+ *   Latency is measured from when a request was due rather than when it went out, so a
+ *   stalled server shows up in the percentiles instead of just slowing the clients down.
+ *
+ * Other options: --duration and --warmup in seconds (30 and 10), --mix (see
+ * {@link ExpressionMix}), --seed, --max-in-flight for the open loop (1000), --out for the
+ * report (target/loadtest-report.json) and --baseline to compare with an earlier report.
+ * Arguments after a lone -- go to the application, e.g. -- --parser.executor.per-client=256.
+ */
+public final class LoadTest {
+
+    private static final String PATH = "/api/v1/expression/evaluate?expr=";
+    private static final List<String> QUIET_LOGGERS = List.of(
+            "logging.level.root", "logging.level.org.shiki.prattparserrestfulapi");
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final Settings settings;
+    private final ExpressionMix mix;
+    private final URI target;
+
+    record Settings(Integer rate, int concurrency, int durationSeconds, int warmupSeconds, String mix, long seed,
+                    int maxInFlight, String url, Path out, Path baseline, String[] appArgs) {
+
+        static Settings parse(String[] args) {
+            Map<String, String> options = new LinkedHashMap<>();
+            String[] appArgs = new String[0];
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--")) {
+                    appArgs = Arrays.copyOfRange(args, i + 1, args.length);
+                    break;
+                }
+                if (!args[i].startsWith("--") || !args[i].contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + args[i]);
+                }
+                int eq = args[i].indexOf('=');
+                options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+            }
+            Settings settings = new Settings(
+                    options.containsKey("rate") ? Integer.valueOf(options.get("rate")) : null,
+                    Integer.parseInt(options.getOrDefault("concurrency", "16")),
+                    Integer.parseInt(options.getOrDefault("duration", "30")),
+                    Integer.parseInt(options.getOrDefault("warmup", "10")),
+                    options.getOrDefault("mix", ExpressionMix.DEFAULT),
+                    Long.parseLong(options.getOrDefault("seed", "1")),
+                    Integer.parseInt(options.getOrDefault("max-in-flight", "1000")),
+                    options.get("url"),
+                    Path.of(options.getOrDefault("out", "target/loadtest-report.json")),
+                    options.containsKey("baseline") ? Path.of(options.get("baseline")) : null,
+                    appArgs);
+            options.keySet().removeAll(List.of("rate", "concurrency", "duration", "warmup", "mix", "seed", "max-in-flight",
+                    "url", "out", "baseline"));
+            if (!options.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options: " + options.keySet());
+            }
+            return settings;
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> d = new LinkedHashMap<>();
+            if (rate != null) {
+                d.put("mode", "open");
+                d.put("rate", rate);
+                d.put("maxInFlight", maxInFlight);
+            } else {
+                d.put("mode", "closed");
+                d.put("concurrency", concurrency);
+            }
+            d.put("durationSeconds", durationSeconds);
+            d.put("warmupSeconds", warmupSeconds);
+            d.put("mix", mix);
+            d.put("seed", seed);
+            d.put("target", url != null ? url : "local");
+            d.put("appArgs", List.of(appArgs));
+            return d;
+        }
+    }
+
+    private LoadTest(Settings settings, URI target) {
+        this.settings = settings;
+        this.mix = ExpressionMix.parse(settings.mix());
+        this.target = target;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.parse(args);
+        ConfigurableApplicationContext app = null;
+        URI target;
+        if (settings.url() != null) {
+            target = URI.create(settings.url());
+        } else {
+            List<String> appArgs = new ArrayList<>(List.of("--server.port=0"));
+            appArgs.addAll(List.of(settings.appArgs()));
+            // Request logging would dominate the measurements; a repeated key would not override, so only if unset
+            for (String logger : QUIET_LOGGERS) {
+                if (appArgs.stream().noneMatch(a -> a.startsWith("--" + logger + "="))) {
+                    appArgs.add("--" + logger + "=WARN");
+                }
+            }
+            app = SpringApplication.run(PrattParserRestfulApiApplication.class, appArgs.toArray(new String[0]));
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            target = URI.create("http://localhost:" + port);
+        }
+        try {
+            new LoadTest(settings, target).run();
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        JsonMapper mapper = JsonMapper.builder().build();
+        System.out.printf("Load test against %s: %s%n", target, settings.describe());
+        if (settings.warmupSeconds() > 0) {
+            // Same load with another seed, so the measured run does not start on warm caches of its own expressions
+            phase(settings.warmupSeconds(), settings.seed() ^ 0x5DEECE66DL);
+        }
+        long start = System.nanoTime();
+        LoadReport report = phase(settings.durationSeconds(), settings.seed());
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        JsonNode json = report.toJson(mapper, settings.describe(), elapsed);
+        LoadReport.write(mapper, json, settings.out());
+        JsonNode overall = json.path("overall");
+        System.out.printf("%d ok in %.1f s (%.1f req/s), p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, statuses %s%n",
+                overall.path("ok").asLong(), elapsed, overall.path("throughput").asDouble(),
+                overall.path("latencyMs").path("p50").asDouble(), overall.path("latencyMs").path("p99").asDouble(),
+                overall.path("latencyMs").path("p999").asDouble(), overall.path("statuses"));
+        System.out.println("Report written to " + settings.out().toAbsolutePath());
+        if (settings.baseline() != null) {
+            System.out.print(LoadReport.compare(mapper.readTree(Files.readString(settings.baseline())), json));
+        }
+    }
+
+    private LoadReport phase(int seconds, long seed) throws InterruptedException {
+        LoadReport report = new LoadReport(mix.kinds());
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        if (settings.rate() != null) {
+            openLoop(report, end, seed);
+        } else {
+            closedLoop(report, end, seed);
+        }
+        return report;
+    }
+
+    private void closedLoop(LoadReport report, long end, long seed) throws InterruptedException {
+        Thread[] clients = new Thread[settings.concurrency()];
+        for (int i = 0; i < clients.length; i++) {
+            Random random = new Random(seed + i);
+            clients[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    ExpressionMix.Request request = mix.next(random);
+                    long sent = System.nanoTime();
+                    String status;
+                    try {
+                        status = String.valueOf(client.send(httpRequest(request), HttpResponse.BodyHandlers.discarding())
+                                .statusCode());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        status = "error";
+                    }
+                    report.record(request.kind(), status, System.nanoTime() - sent);
+                }
+            }, "load-client-" + i);
+            clients[i].start();
+        }
+        for (Thread t : clients) {
+            t.join();
+        }
+    }
+
+    private void openLoop(LoadReport report, long end, long seed) throws InterruptedException {
+        Random random = new Random(seed);
+        Semaphore inFlight = new Semaphore(settings.maxInFlight());
+        long period = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+        long start = System.nanoTime();
+        for (long i = 0; ; i++) {
+            long due = start + i * period;
+            if (due >= end) break;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            ExpressionMix.Request request = mix.next(random);
+            if (!inFlight.tryAcquire()) {
+                report.record(request.kind(), "dropped", 0);
+                continue;
+            }
+            client.sendAsync(httpRequest(request), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        report.record(request.kind(), error == null ? String.valueOf(response.statusCode()) : "error",
+                                System.nanoTime() - due);
+                        inFlight.release();
+                    });
+        }
+        // Let the stragglers finish, up to the request timeout
+        if (!inFlight.tryAcquire(settings.maxInFlight(), 1, TimeUnit.MINUTES)) {
+            System.out.println("Gave up waiting for requests still in flight");
+        }
+    }
+
+    private HttpRequest httpRequest(ExpressionMix.Request request) {
+        return HttpRequest.newBuilder(target.resolve(PATH + URLEncoder.encode(request.expression(), StandardCharsets.UTF_8)))
+                .timeout(Duration.ofMinutes(1))
+                .GET()
+                .build();
+    }
+}
@@ -1,39 +1,233 @@
 package org.shiki.prattparserrestfulapi.api;
 
 import org.shiki.prattparserrestfulapi.helper.ApiResponse;
+import org.shiki.prattparserrestfulapi.service.BatchItem;
+import org.shiki.prattparserrestfulapi.service.BatchService;
+import org.shiki.prattparserrestfulapi.service.EditSessionService;
+import org.shiki.prattparserrestfulapi.service.EvaluationOptions;
 import org.shiki.prattparserrestfulapi.service.ExpressionService;
+import org.shiki.prattparserrestfulapi.service.FunctionService;
+import org.shiki.prattparserrestfulapi.service.IntegralResult;
+import org.shiki.prattparserrestfulapi.service.PreparedExpressionService;
+import org.shiki.prattparserrestfulapi.service.PreparedHandle;
+import org.shiki.prattparserrestfulapi.service.RootResult;
+import org.shiki.prattparserrestfulapi.service.SampleResult;
+import org.shiki.prattparserrestfulapi.service.SessionResult;
+import org.shiki.prattparserrestfulapi.service.WorkspaceResult;
+import org.shiki.prattparserrestfulapi.service.WorkspaceService;
 import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping("/api/v1/expression")
 @CrossOrigin(origins = "*")
 public class ExpressionController {
 
     private final ExpressionService expressionService;
+    private final FunctionService functionService;
+    private final BatchService batchService;
+    private final PreparedExpressionService preparedService;
+    private final EditSessionService sessionService;
+    private final WorkspaceService workspaceService;
 
-    public ExpressionController(ExpressionService expressionService) {
+    public ExpressionController(ExpressionService expressionService, FunctionService functionService,
+                                BatchService batchService, PreparedExpressionService preparedService,
+                                EditSessionService sessionService, WorkspaceService workspaceService) {
         this.expressionService = expressionService;
+        this.functionService = functionService;
+        this.batchService = batchService;
+        this.preparedService = preparedService;
+        this.sessionService = sessionService;
+        this.workspaceService = workspaceService;
     }
 
     @GetMapping("/evaluate")
-    public ApiResponse<EvalResult> evaluate(@RequestParam String expr) {
-        EvalResult result = expressionService.evaluate(expr);
-        return ApiResponse.ok(result);
+    public CompletableFuture<ApiResponse<EvalResult>> evaluate(@RequestParam String expr,
+                                                               @RequestParam(required = false) String engine,
+                                                               @RequestParam(required = false) Double tolerance,
+                                                               @RequestParam(required = false) Integer digits,
+                                                               @RequestParam(required = false) String rounding,
+                                                               HttpServletRequest request) {
+        return expressionService.submit(expr, EvaluationOptions.of(engine, tolerance, digits, rounding), request.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
     }
 
     @PostMapping("/evaluate")
-    public ApiResponse<EvalResult> evaluatePost(@RequestBody ExpressionRequest request) {
-        EvalResult result = expressionService.evaluate(request.expr);
-        return ApiResponse.ok(result);
+    public CompletableFuture<ApiResponse<EvalResult>> evaluatePost(@RequestBody ExpressionRequest request,
+                                                                   HttpServletRequest servletRequest) {
+        EvaluationOptions options = EvaluationOptions.of(request.engine, request.tolerance, request.digits, request.rounding);
+        return expressionService.submit(request.expr, options, servletRequest.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
+    }
+
+    @PostMapping("/evaluate/batch")
+    public ApiResponse<List<BatchItem>> evaluateBatch(@RequestBody BatchRequest request) {
+        EvaluationOptions options = EvaluationOptions.of(request.engine, request.tolerance, request.digits, request.rounding);
+        List<BatchItem> results = batchService.evaluateAll(request.exprs, options);
+        return ApiResponse.ok(results);
+    }
+
+    // One expression per line in, one BatchItem JSON object per line out (NDJSON)
+    @PostMapping(value = "/evaluate/stream",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_PLAIN_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void evaluateStream(InputStream body, HttpServletResponse response,
+                               @RequestParam(required = false) String engine,
+                               @RequestParam(required = false) Double tolerance,
+                               @RequestParam(required = false) Integer digits,
+                               @RequestParam(required = false) String rounding) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        batchService.evaluateStream(body, response.getOutputStream(), EvaluationOptions.of(engine, tolerance, digits, rounding));
+    }
+
+    @PostMapping("/evaluate/sample")
+    public CompletableFuture<ApiResponse<SampleResult>> sample(@RequestBody SampleRequest request,
+                                                               HttpServletRequest servletRequest) {
+        return functionService.sample(request.function, request.from, request.to, request.samples,
+                servletRequest.getRemoteAddr()).thenApply(ApiResponse::ok);
+    }
+
+    @PostMapping("/evaluate/integrate")
+    public CompletableFuture<ApiResponse<IntegralResult>> integrate(@RequestBody IntegrateRequest request,
+                                                                    HttpServletRequest servletRequest) {
+        return functionService.integrate(request.function, request.from, request.to, request.tolerance,
+                request.precision, servletRequest.getRemoteAddr()).thenApply(ApiResponse::ok);
+    }
+
+    @PostMapping("/evaluate/root")
+    public CompletableFuture<ApiResponse<RootResult>> findRoot(@RequestBody RootRequest request,
+                                                               HttpServletRequest servletRequest) {
+        return functionService.findRoot(request.function, request.from, request.to, request.tolerance,
+                request.method, request.precision, servletRequest.getRemoteAddr()).thenApply(ApiResponse::ok);
+    }
+
+    @PostMapping("/evaluate/prepare")
+    public ApiResponse<PreparedHandle> prepare(@RequestBody ExpressionRequest request) {
+        return ApiResponse.ok(preparedService.prepare(request.expr));
+    }
+
+    @GetMapping("/evaluate/prepared/{id}")
+    public ApiResponse<PreparedHandle> describePrepared(@PathVariable String id) {
+        return ApiResponse.ok(preparedService.describe(id));
+    }
+
+    @PostMapping("/evaluate/prepared/{id}")
+    public CompletableFuture<ApiResponse<EvalResult>> evaluatePrepared(@PathVariable String id,
+                                                                       @RequestBody BindRequest request,
+                                                                       HttpServletRequest servletRequest) {
+        return preparedService.evaluate(id, request.bindings, servletRequest.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
+    }
+
+    @PostMapping("/evaluate/prepared/{id}/batch")
+    public CompletableFuture<ApiResponse<List<BatchItem>>> evaluatePreparedBatch(@PathVariable String id,
+                                                                                 @RequestBody BindBatchRequest request,
+                                                                                 HttpServletRequest servletRequest) {
+        return preparedService.evaluateAll(id, request.bindings, servletRequest.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
+    }
+
+    @DeleteMapping("/evaluate/prepared/{id}")
+    public ApiResponse<Void> removePrepared(@PathVariable String id) {
+        preparedService.remove(id);
+        return ApiResponse.ok(null);
+    }
+
+    @PostMapping("/evaluate/session")
+    public CompletableFuture<ApiResponse<SessionResult>> openSession(@RequestBody SessionRequest request,
+                                                                     HttpServletRequest servletRequest) {
+        return sessionService.open(request.text, servletRequest.getRemoteAddr()).thenApply(ApiResponse::ok);
     }
 
-    //Request DTO
-    public record ExpressionRequest(String expr) {}
+    @PostMapping("/evaluate/session/{id}/edit")
+    public CompletableFuture<ApiResponse<SessionResult>> editSession(@PathVariable String id,
+                                                                     @RequestBody EditRequest request,
+                                                                     HttpServletRequest servletRequest) {
+        return sessionService.edit(id, request.offset, request.deleted, request.inserted, servletRequest.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
+    }
+
+    @DeleteMapping("/evaluate/session/{id}")
+    public ApiResponse<Void> closeSession(@PathVariable String id) {
+        sessionService.close(id);
+        return ApiResponse.ok(null);
+    }
+
+    @PostMapping("/evaluate/workspace")
+    public ApiResponse<WorkspaceResult> openWorkspace() {
+        return ApiResponse.ok(workspaceService.open());
+    }
+
+    @GetMapping("/evaluate/workspace/{id}")
+    public ApiResponse<WorkspaceResult> getWorkspace(@PathVariable String id) {
+        return ApiResponse.ok(workspaceService.get(id));
+    }
+
+    @PostMapping("/evaluate/workspace/{id}/define")
+    public CompletableFuture<ApiResponse<WorkspaceResult>> define(@PathVariable String id,
+                                                                  @RequestBody DefineRequest request,
+                                                                  HttpServletRequest servletRequest) {
+        return workspaceService.define(id, request.definition, servletRequest.getRemoteAddr())
+                .thenApply(ApiResponse::ok);
+    }
+
+    @DeleteMapping("/evaluate/workspace/{id}/definitions/{name}")
+    public CompletableFuture<ApiResponse<WorkspaceResult>> undefine(@PathVariable String id, @PathVariable String name,
+                                                                    HttpServletRequest servletRequest) {
+        return workspaceService.remove(id, name, servletRequest.getRemoteAddr()).thenApply(ApiResponse::ok);
+    }
+
+    @DeleteMapping("/evaluate/workspace/{id}")
+    public ApiResponse<Void> closeWorkspace(@PathVariable String id) {
+        workspaceService.close(id);
+        return ApiResponse.ok(null);
+    }
+
+    //Request DTO; engine is "apfloat" (default), "auto" (double first, Apfloat fallback), "parallel" or "flat"
+    //digits/rounding: significant digits of the result and how to round to them (e.g. "half_even")
+    public record ExpressionRequest(String expr, String engine, Double tolerance, Integer digits, String rounding) {}
+
+    //Request DTO; results come back in the order of exprs
+    public record BatchRequest(List<String> exprs, String engine, Double tolerance, Integer digits, String rounding) {}
+
+    //Request DTO; function is a definition such as "f(x) = x^2" or "y = sin(x)"
+    public record SampleRequest(String function, double from, double to, int samples) {}
+
+    //Request DTO; precision is "double" (default) or "apfloat", tolerance is absolute (default 1e-10)
+    public record IntegrateRequest(String function, double from, double to, Double tolerance, String precision) {}
+
+    //Request DTO; the function must change sign between from and to; method is "brent" (default) or "bisection"
+    public record RootRequest(String function, double from, double to, Double tolerance, String method, String precision) {}
+
+    //Request DTO; values are numbers or numeric strings, e.g. {"x": 2, "y": "1.5"}
+    public record BindRequest(Map<String, String> bindings) {}
+
+    //Request DTO; one result per binding set, in order
+    public record BindBatchRequest(List<Map<String, String>> bindings) {}
+
+    //Request DTO; initial text of an editing session
+    public record SessionRequest(String text) {}
+
+    //Request DTO; replace `deleted` characters at `offset` with `inserted`
+    public record EditRequest(int offset, int deleted, String inserted) {}
+
+    //Request DTO; a value `a = 2 * b`, a function `f(x) = x ^ 2 + a` or a point `P(a, f(a))`
+    public record DefineRequest(String definition) {}
 }
@@ -0,0 +1,57 @@
+package org.shiki.prattparserrestfulapi.api;
+
+import org.shiki.prattparserrestfulapi.helper.ApiResponse;
+import org.shiki.prattparserrestfulapi.service.EvaluationOptions;
+import org.shiki.prattparserrestfulapi.service.JobService;
+import org.shiki.prattparserrestfulapi.service.JobStatus;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Evaluation jobs for expressions that take too long to wait for in one request: submit,
+ * then poll {@code GET /jobs/{id}} (with {@code wait} to long-poll) until the state is final.
+ */
+@RestController
+@RequestMapping("/api/v1/expression/jobs")
+@CrossOrigin(origins = "*")
+public class JobController {
+
+    private final JobService jobService;
+
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ApiResponse<JobStatus> submit(@RequestBody JobRequest request, HttpServletRequest servletRequest) {
+        EvaluationOptions options = EvaluationOptions.of(request.engine, request.tolerance, request.digits, request.rounding);
+        return ApiResponse.ok(jobService.submit(request.expr, options, servletRequest.getRemoteAddr()));
+    }
+
+    @GetMapping("/{id}")
+    public CompletableFuture<ApiResponse<JobStatus>> get(@PathVariable String id,
+                                                         @RequestParam(defaultValue = "0") long wait) {
+        return jobService.await(id, wait).thenApply(ApiResponse::ok);
+    }
+
+    @DeleteMapping("/{id}")
+    public ApiResponse<JobStatus> cancel(@PathVariable String id) {
+        return ApiResponse.ok(jobService.cancel(id));
+    }
+
+    //Request DTO; same fields as a single evaluation
+    public record JobRequest(String expr, String engine, Double tolerance, Integer digits, String rounding) {}
+}
@@ -0,0 +1,247 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+/**
+ * Lexer that scans the input once into primitive arrays instead of a list of Token objects.
+ * Each token is a kind code plus start/end offsets into the input: kind is either
+ * {@link #ATOM} or the operator character itself, so operators are interned by construction.
+ *
+ * next()/peek() keep the {@link Lexer} contract. Operator and EOF tokens are shared
+ * instances; an atom token (and its String) is only created when the parser consumes it,
+ * which it has to do anyway to build the LipsNotation.Atom.
+ *
+ * Whether a '(' opens a tuple is worked out for every parenthesis in the same pass, so
+ * {@link #hasTopLevelCommaUntilClosingParen()} is a lookup rather than a scan ahead.
+ * {@link #edit} builds the lexer of an edited text from an earlier one, re-lexing only
+ * around the edit.
+ */
+public class ArrayLexer extends Lexer {
+    static final int ATOM = 0;
+
+    private final String input;
+    private final int[] kinds;
+    private final int[] starts;
+    private final int[] ends;
+    private final int count;
+    // Atom tokens already materialised, so peek() followed by next() creates one object
+    private final Token[] atoms;
+    // For each '(' token: is there a comma directly inside it (before its ')')
+    private final boolean[] tupleOpen;
+    // Tokens carried over from the lexer this one was edited from
+    private final int reused;
+    private int pos = 0;
+    // Tokens read or scanned over so far, a machine-independent measure of parsing work
+    private long examined;
+
+    public ArrayLexer(String input) {
+        this.input = input;
+        int n = input.length();
+        // A token is at least one character long, so n slots always suffice
+        int[] k = new int[n];
+        int[] s = new int[n];
+        int[] e = new int[n];
+        int t = 0;
+        for (int i = 0; i < n; i++) {
+            char c = input.charAt(i);
+
+            if (Character.isWhitespace(c)) continue;
+
+            int end = tokenEnd(input, i);
+            k[t] = Character.isLetterOrDigit(c) ? ATOM : c;
+            s[t] = i;
+            e[t] = end;
+            t++;
+            i = end - 1;
+        }
+        this.kinds = k;
+        this.starts = s;
+        this.ends = e;
+        this.count = t;
+        this.atoms = new Token[t];
+        this.tupleOpen = tupleFlags(k, t);
+        this.reused = 0;
+    }
+
+    private ArrayLexer(String input, int[] kinds, int[] starts, int[] ends, int count, Token[] atoms, int reused) {
+        this.input = input;
+        this.kinds = kinds;
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+        this.atoms = atoms;
+        this.tupleOpen = tupleFlags(kinds, count);
+        this.reused = reused;
+    }
+
+    /**
+     * Lexer for previous's input with {@code deleted} characters at {@code offset} replaced
+     * by {@code inserted}. Tokens before the edit are kept; lexing restarts at the first
+     * token touching it and stops as soon as a token starts where an old token after the
+     * edit started (shifted by the change in length), since from there on the text, and so
+     * the tokens, are the same as before.
+     *
+     * @throws IllegalArgumentException if the range is outside previous's input
+     */
+    public static ArrayLexer edit(ArrayLexer previous, int offset, int deleted, String inserted) {
+        String old = previous.input;
+        if (offset < 0 || deleted < 0 || offset + deleted > old.length()) {
+            throw new IllegalArgumentException("Edit range " + offset + "+" + deleted
+                    + " is outside the text (length " + old.length() + ")");
+        }
+        String input = old.substring(0, offset) + inserted + old.substring(offset + deleted);
+        int delta = inserted.length() - deleted;
+        int editEnd = offset + deleted;
+
+        int n = input.length();
+        int[] k = new int[n];
+        int[] s = new int[n];
+        int[] e = new int[n];
+        Token[] a = new Token[n];
+
+        // Tokens ending before the edit are unaffected; one ending right at it could grow
+        int first = 0;
+        while (first < previous.count && previous.ends[first] < offset) {
+            first++;
+        }
+        System.arraycopy(previous.kinds, 0, k, 0, first);
+        System.arraycopy(previous.starts, 0, s, 0, first);
+        System.arraycopy(previous.ends, 0, e, 0, first);
+        System.arraycopy(previous.atoms, 0, a, 0, first);
+
+        int t = first;
+        int i = first < previous.count ? Math.min(previous.starts[first], offset) : offset;
+        // Candidate old token to resynchronise on
+        int j = first;
+        while (i < n) {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            while (j < previous.count && (previous.starts[j] < editEnd || previous.starts[j] + delta < i)) {
+                j++;
+            }
+            if (j < previous.count && previous.starts[j] + delta == i) {
+                int rest = previous.count - j;
+                System.arraycopy(previous.kinds, j, k, t, rest);
+                System.arraycopy(previous.atoms, j, a, t, rest);
+                for (int r = 0; r < rest; r++) {
+                    s[t + r] = previous.starts[j + r] + delta;
+                    e[t + r] = previous.ends[j + r] + delta;
+                }
+                int reused = first + rest;
+                return new ArrayLexer(input, k, s, e, t + rest, a, reused);
+            }
+            int end = tokenEnd(input, i);
+            k[t] = Character.isLetterOrDigit(c) ? ATOM : c;
+            s[t] = i;
+            e[t] = end;
+            t++;
+            i = end;
+        }
+        return new ArrayLexer(input, k, s, e, t, a, first);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String input() {
+        return input;
+    }
+
+    /**
+     * How many tokens {@link #edit} took over from the previous lexer instead of lexing.
+     */
+    public int reused() {
+        return reused;
+    }
+
+    /**
+     * Tokens returned by next()/peek() plus tokens passed over looking ahead for a comma.
+     * Linear parsing keeps this within a small multiple of {@link #size()}.
+     */
+    long examined() {
+        return examined;
+    }
+
+    @Override
+    public Token next() {
+        examined++;
+        if (pos >= count) return Token.eof();
+        return tokenAt(pos++);
+    }
+
+    @Override
+    public Token peek() {
+        examined++;
+        if (pos >= count) return Token.eof();
+        return tokenAt(pos);
+    }
+
+    @Override
+    public boolean hasTopLevelCommaUntilClosingParen() {
+        // The parser asks right after consuming the '('
+        if (pos > 0 && kinds[pos - 1] == '(') {
+            return tupleOpen[pos - 1];
+        }
+        int depth = 0;
+        for (int i = pos; i < count; i++) {
+            examined++;
+            int kind = kinds[i];
+            if (kind == '(') {
+                depth++;
+            } else if (kind == ')') {
+                if (depth == 0) {
+                    return false;
+                }
+                depth--;
+            } else if (kind == ',' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Token tokenAt(int i) {
+        int kind = kinds[i];
+        if (kind != ATOM) {
+            return Token.op((char) kind);
+        }
+        Token atom = atoms[i];
+        if (atom == null) {
+            atom = Token.atom(input.substring(starts[i], ends[i]));
+            atoms[i] = atom;
+        }
+        return atom;
+    }
+
+    // End (exclusive) of the token starting at the non-whitespace character at i
+    private static int tokenEnd(String input, int i) {
+        if (!Character.isLetterOrDigit(input.charAt(i))) {
+            return i + 1;
+        }
+        int end = i + 1;
+        while (end < input.length() && Character.isLetterOrDigit(input.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    // An unclosed '(' gets the commas up to the end, which is what the forward scan answered
+    private static boolean[] tupleFlags(int[] kinds, int count) {
+        boolean[] flags = new boolean[count];
+        int[] open = new int[count];
+        int depth = 0;
+        for (int i = 0; i < count; i++) {
+            int kind = kinds[i];
+            if (kind == '(') {
+                open[depth++] = i;
+            } else if (kind == ')') {
+                if (depth > 0) depth--;
+            } else if (kind == ',' && depth > 0) {
+                flags[open[depth - 1]] = true;
+            }
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,55 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Content address of an expression: a SHA-256 digest of its tree that is the same for trees
+ * that differ only in the order of the operands of {@code +} and {@code *}. Each node's digest
+ * covers its head and its children's digests, with the children of a commutative operator
+ * sorted first, so {@code 2 * (1 + x)} and {@code (x + 1) * 2} hash alike.
+ *
+ * Only the operand order is normalised. Regrouping {@code (a + b) + c} as {@code a + (b + c)}
+ * can change the rounded result, so those stay different.
+ */
+public final class CanonicalForm {
+
+    private CanonicalForm() {}
+
+    public static byte[] digest(FlatTree tree) {
+        MessageDigest sha = sha256();
+        byte[][] digests = new byte[tree.size()][];
+        // Children come before their parent, so one pass sees every child digest first
+        for (int i = 0; i < tree.size(); i++) {
+            int op = tree.op(i);
+            sha.update((byte) op);
+            sha.update(tree.text(i).getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            if (op != FlatTree.ATOM && op != FlatTree.CONST) {
+                byte[][] children = new byte[tree.arity(i)][];
+                for (int k = 0; k < children.length; k++) {
+                    children[k] = digests[tree.child(i, k)];
+                }
+                if (op == FlatTree.ADD || op == FlatTree.MUL) {
+                    Arrays.sort(children, Arrays::compareUnsigned);
+                }
+                for (byte[] child : children) {
+                    sha.update(child);
+                }
+            }
+            digests[i] = sha.digest();
+        }
+        return digests[digests.length - 1];
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+/**
+ * A LipsNotation tree turned into something that can be evaluated repeatedly without
+ * walking the tree. See {@link ExpressionCompiler}.
+ */
+public interface CompiledExpression {
+    Apfloat evaluate();
+
+    /**
+     * True when the expression runs as generated code; false when it falls back to
+     * {@link LipsNotation#eval()}.
+     */
+    boolean isCompiled();
+}
@@ -0,0 +1,117 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+/**
+ * Process-wide pool of mathematical constants keyed by (constant, precision), and of parsed
+ * numeric literals keyed by (text, precision). Both are filled on first use and then shared
+ * by every request and thread, so e.g. ln pays for e(1000) once per process instead of once
+ * per evaluation.
+ *
+ * Both pools are bounded by entry count; once full, values are still computed, just not kept.
+ */
+public final class Constants {
+
+    public static final String E = "e";
+    public static final String PI = "pi";
+    public static final String LN2 = "ln2";
+    public static final String LN10 = "ln10";
+
+    private static final int MAX_CONSTANTS = 64;
+    private static final int MAX_LITERALS = 10_000;
+
+    private record Key(String name, long precision) {}
+
+    private static final ConcurrentHashMap<Key, Apfloat> CONSTANTS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Key, Apfloat> LITERALS = new ConcurrentHashMap<>();
+
+    private static final Apfloat TWO = new Apfloat(2);
+    private static final Apfloat TEN = new Apfloat(10);
+
+    private Constants() {}
+
+    public static Apfloat e(long precision) {
+        return constant(E, precision, ApfloatMath::e);
+    }
+
+    public static Apfloat pi(long precision) {
+        return constant(PI, precision, ApfloatMath::pi);
+    }
+
+    public static Apfloat ln2(long precision) {
+        return constant(LN2, precision, p -> ApfloatMath.log(new Apfloat(2, p)));
+    }
+
+    public static Apfloat ln10(long precision) {
+        return constant(LN10, precision, p -> ApfloatMath.log(new Apfloat(10, p)));
+    }
+
+    /**
+     * Value of a named constant usable as an identifier in expressions ("pi", "e"), or null
+     * if name is not one.
+     */
+    public static Apfloat named(String name, long precision) {
+        return switch (name) {
+            case PI -> pi(precision);
+            case E -> e(precision);
+            default -> null;
+        };
+    }
+
+    public static boolean isNamed(String name) {
+        return PI.equals(name) || E.equals(name);
+    }
+
+    /**
+     * Natural logarithm, served from the pool for the common log bases 2 and 10.
+     */
+    public static Apfloat log(Apfloat x) {
+        if (x.equals(TWO)) return ln2(x.precision());
+        if (x.equals(TEN)) return ln10(x.precision());
+        return ApfloatMath.log(x);
+    }
+
+    /**
+     * Parse a numeric literal, reusing the Apfloat of an earlier parse of the same text.
+     *
+     * @throws NumberFormatException if text is not a number
+     */
+    public static Apfloat literal(String text, long precision) {
+        Key key = new Key(text, precision);
+        Apfloat value = LITERALS.get(key);
+        if (value == null) {
+            value = new Apfloat(text, precision);
+            if (LITERALS.size() < MAX_LITERALS) {
+                LITERALS.putIfAbsent(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Compute the usual constants ahead of the first request.
+     */
+    public static void warmUp(long precision) {
+        e(precision);
+        pi(precision);
+        ln2(precision);
+        ln10(precision);
+    }
+
+    private static Apfloat constant(String name, long precision, LongFunction<Apfloat> compute) {
+        Key key = new Key(name, precision);
+        Apfloat value = CONSTANTS.get(key);
+        if (value == null) {
+            value = compute.apply(precision);
+            if (CONSTANTS.size() < MAX_CONSTANTS) {
+                Apfloat raced = CONSTANTS.putIfAbsent(key, value);
+                if (raced != null) value = raced;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,269 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rough estimate of the work needed to evaluate a tree with the Apfloat evaluator, in units
+ * of about a microsecond on a current desktop core. It is meant to tell "instant" from
+ * "seconds" from "hours" before evaluation starts, not to predict latency.
+ *
+ * Each subtree gets an upper bound on log10 of its magnitude and whether it is exact
+ * (infinite precision, which only factorials produce). From those:
+ * <ul>
+ *     <li>a factorial of n costs about D log2 D for its D ≈ n log10 n digits;</li>
+ *     <li>sin, cos, tan, log, ln and non-trivial powers cost a transcendental evaluation at
+ *     the working precision, more for huge arguments or exponents;</li>
+ *     <li>arithmetic costs a multiplication of operands of the size involved.</li>
+ * </ul>
+ * Variables are assumed to be of order one unless their values are given; let-bound names
+ * have the magnitude of their value. Anything whose magnitude overflows a double costs
+ * {@link Long#MAX_VALUE}.
+ */
+public final class CostModel {
+
+    // Measured: sin/ln/pow at 1000 digits take ~0.1 s
+    private static final double TRANSCENDENTAL_PER_DIGIT = 100;
+    // Measured: 99999! (431k digits) takes ~2 s
+    private static final double FACTORIAL_DIVISOR = 5;
+    private static final double MULTIPLY_DIVISOR = 50;
+    private static final double LOG10_2 = Math.log10(2);
+
+    private record Estimate(double cost, double log10, boolean exact) {}
+
+    private final long precision;
+    // Cost of every subtree, when asked for
+    private final Map<LipsNotation, Double> subtrees;
+    // log10 magnitudes of variables whose values are known, and of let-bound names in scope
+    private final Map<String, Double> magnitudes = new HashMap<>();
+
+    private CostModel(long precision, Map<LipsNotation, Double> subtrees, Map<String, Apfloat> bindings) {
+        this.precision = precision;
+        this.subtrees = subtrees;
+        bindings.forEach((name, value) -> magnitudes.put(name, log10(value)));
+    }
+
+    public static long estimate(LipsNotation tree, long precision) {
+        return estimate(tree, precision, Map.of());
+    }
+
+    /**
+     * Estimate with the magnitudes of the variables taken from bindings; variables without a
+     * binding are of order one.
+     */
+    public static long estimate(LipsNotation tree, long precision, Map<String, Apfloat> bindings) {
+        return toLong(new CostModel(precision, null, bindings).visit(tree).cost);
+    }
+
+    /**
+     * Cost of tree and an upper bound on log10 of its magnitude, given log10 magnitudes of
+     * its variables, for pricing definitions whose inputs are not computed yet.
+     */
+    public static double[] costAndMagnitude(LipsNotation tree, long precision, Map<String, Double> magnitudes) {
+        CostModel model = new CostModel(precision, null, Map.of());
+        model.magnitudes.putAll(magnitudes);
+        Estimate estimate = model.visit(tree);
+        return new double[] {toLong(estimate.cost), estimate.log10};
+    }
+
+    /**
+     * Estimated cost of every subtree of tree, by node identity.
+     */
+    public static Map<LipsNotation, Long> subtreeCosts(LipsNotation tree, long precision) {
+        Map<LipsNotation, Double> costs = new IdentityHashMap<>();
+        new CostModel(precision, costs, Map.of()).visit(tree);
+        Map<LipsNotation, Long> result = new IdentityHashMap<>(costs.size());
+        costs.forEach((node, cost) -> result.put(node, toLong(cost)));
+        return result;
+    }
+
+    private static long toLong(double cost) {
+        return cost >= Long.MAX_VALUE || Double.isNaN(cost) ? Long.MAX_VALUE : (long) Math.ceil(cost);
+    }
+
+    // One node being estimated: its children, and the estimates of those done so far
+    private static final class Frame {
+        final LipsNotation node;
+        final List<LipsNotation> children;
+        final List<Estimate> estimates = new ArrayList<>();
+        // Outer magnitudes of let names bound so far, to restore after the body
+        final Map<String, Double> shadowed;
+
+        Frame(LipsNotation node) {
+            this.node = node;
+            if (node instanceof LipsNotation.Let) {
+                LipsNotation.Let let = (LipsNotation.Let) node;
+                List<LipsNotation> all = new ArrayList<>(let.values());
+                all.add(let.body());
+                this.children = all;
+                this.shadowed = new HashMap<>();
+            } else {
+                this.children = node instanceof LipsNotation.Cons ? ((LipsNotation.Cons) node).rest() : List.of();
+                this.shadowed = null;
+            }
+        }
+    }
+
+    // Post-order with an explicit stack: this runs on every parse, and trees can be nested
+    // deeper than the thread stack
+    private Estimate visit(LipsNotation tree) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(tree));
+        while (true) {
+            Frame frame = stack.peek();
+            int next = frame.estimates.size();
+            if (next < frame.children.size()) {
+                stack.push(new Frame(frame.children.get(next)));
+                continue;
+            }
+            Estimate estimate = estimateOf(frame);
+            if (subtrees != null) {
+                subtrees.put(frame.node, estimate.cost);
+            }
+            stack.pop();
+            if (stack.isEmpty()) {
+                return estimate;
+            }
+            childDone(stack.peek(), estimate);
+        }
+    }
+
+    private void childDone(Frame parent, Estimate child) {
+        parent.estimates.add(child);
+        if (parent.node instanceof LipsNotation.Let) {
+            LipsNotation.Let let = (LipsNotation.Let) parent.node;
+            int i = parent.estimates.size() - 1;
+            if (i < let.names().size()) {
+                // The body sees the bound value, e.g. x! in a function inlined with x = 3000000
+                String name = let.names().get(i);
+                parent.shadowed.put(name, magnitudes.put(name, child.log10));
+            }
+        }
+    }
+
+    // Estimate of frame's node from those of its children
+    private Estimate estimateOf(Frame frame) {
+        LipsNotation node = frame.node;
+        List<Estimate> estimates = frame.estimates;
+        if (node instanceof LipsNotation.Const) {
+            return new Estimate(1, magnitude(((LipsNotation.Const) node).value().scale()), false);
+        }
+        if (node instanceof LipsNotation.Let) {
+            double cost = 0;
+            for (Estimate estimate : estimates) {
+                cost += estimate.cost;
+            }
+            frame.shadowed.forEach((name, outer) -> {
+                if (outer == null) magnitudes.remove(name); else magnitudes.put(name, outer);
+            });
+            Estimate body = estimates.get(estimates.size() - 1);
+            return new Estimate(cost, body.log10, body.exact);
+        }
+        if (!(node instanceof LipsNotation.Cons)) {
+            return atom(node.toString());
+        }
+
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        Estimate a = estimates.isEmpty() ? new Estimate(0, 0, false) : estimates.get(0);
+        Estimate b = estimates.size() > 1 ? estimates.get(1) : null;
+        double children = 0;
+        for (Estimate estimate : estimates) {
+            children += estimate.cost;
+        }
+
+        return switch (cons.head()) {
+            case "+", "-" -> {
+                double log10 = b == null ? a.log10 : Math.max(a.log10, b.log10) + LOG10_2;
+                boolean exact = a.exact && (b == null || b.exact);
+                yield arithmetic(children, log10, exact, a, b);
+            }
+            case "*" -> arithmetic(children, a.log10 + b.log10, a.exact && b.exact, a, b);
+            case "/" -> arithmetic(children, a.log10 + 1, false, a, b);
+            case "%" -> arithmetic(children, Math.min(a.log10, b.log10), a.exact && b.exact, a, b);
+            case "!" -> factorial(children, a);
+            case "^" -> {
+                // |b| <= 10^log10(b), so |a^b| <= 10^(log10(a) * 10^log10(b))
+                double log10 = Math.max(a.log10, 0) * Math.pow(10, b.log10);
+                double cost = transcendental() * (1 + Math.max(b.log10, 0) / 10);
+                yield new Estimate(children + cost, log10, false);
+            }
+            // Argument reduction works on all digits of the integer part
+            case "sin", "cos", "tan" -> new Estimate(
+                    children + transcendental() * (1 + Math.max(a.log10, 0) / precision), 1, false);
+            case "ln", "log" -> new Estimate(children + transcendental() * (b != null ? 2 : 1),
+                    magnitude(Math.max(a.log10, b != null ? b.log10 : 0) * 2.31), false);
+            default -> new Estimate(children + 1, Math.max(a.log10, b != null ? b.log10 : 0), false);
+        };
+    }
+
+    private Estimate atom(String text) {
+        Double bound = magnitudes.get(text);
+        if (bound != null) {
+            return new Estimate(1, bound, false);
+        }
+        if (text.isEmpty() || !Character.isDigit(text.charAt(0))) {
+            return new Estimate(1, 1, false);
+        }
+        // The lexer splits at '.', so a numeric atom is a plain integer; anything odd is
+        // bounded by its length and left for the evaluator to reject
+        double log10 = text.length();
+        if (text.length() <= 15) {
+            try {
+                log10 = Math.log10(Math.max(Double.parseDouble(text), 1));
+            } catch (NumberFormatException e) {
+                // keep the length bound
+            }
+        }
+        return new Estimate(1, log10, false);
+    }
+
+    private Estimate arithmetic(double children, double log10, boolean exact, Estimate a, Estimate b) {
+        double digits = Math.max(digits(a), b != null ? digits(b) : 0);
+        return new Estimate(children + 1 + digits * log2(digits) / MULTIPLY_DIVISOR, log10, exact);
+    }
+
+    private Estimate factorial(double children, Estimate arg) {
+        if (arg.log10 > 15) {
+            return new Estimate(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+        }
+        double n = Math.pow(10, arg.log10);
+        if (n < Factorials.TABLE_SIZE) {
+            return new Estimate(children + 1, n * Math.log10(Math.max(n, 1)), true);
+        }
+        double digits = n * Math.log10(n);
+        return new Estimate(children + digits * log2(digits) / FACTORIAL_DIVISOR, digits, true);
+    }
+
+    private double transcendental() {
+        double bits = log2(precision) / 10;
+        return TRANSCENDENTAL_PER_DIGIT * precision * bits * bits;
+    }
+
+    private double digits(Estimate e) {
+        return e.exact ? Math.max(e.log10, 1) : Math.min(Math.max(e.log10, 1), precision);
+    }
+
+    // Upper bound on log10 |value|, at least 0
+    static double log10(Apfloat value) {
+        if (value.signum() == 0) return 0;
+        if (Math.abs(value.scale()) < 300) {
+            return magnitude(Math.log10(Math.abs(value.doubleValue())));
+        }
+        return magnitude(value.scale());
+    }
+
+    private static double magnitude(double log10) {
+        return Math.max(log10, 0);
+    }
+
+    private static double log2(double x) {
+        return x <= 2 ? 1 : Math.log(x) / Math.log(2);
+    }
+}
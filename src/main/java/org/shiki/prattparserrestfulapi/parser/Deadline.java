@@ -0,0 +1,89 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import java.util.function.Supplier;
+
+/**
+ * Time limit for one evaluation. The evaluator calls {@link #check()} between steps (per
+ * tree node, per factorial leaf range), which throws {@link EvaluationCancelledException}
+ * once the deadline has passed or {@link #cancel()} was called, so an evaluation that runs
+ * over unwinds on its own thread instead of pinning it.
+ *
+ * A single Apfloat operation cannot be interrupted; the cost model keeps those bounded.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long timeoutMillis;
+    private final long expiresAt;
+    private volatile boolean cancelled;
+
+    private Deadline(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.expiresAt = System.nanoTime() + timeoutMillis * 1_000_000L;
+    }
+
+    public static Deadline in(long timeoutMillis) {
+        return new Deadline(timeoutMillis);
+    }
+
+    /**
+     * The deadline of the evaluation running on this thread, or null if there is none.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Throw if the current thread's evaluation has run out of time or was cancelled.
+     */
+    public static void check() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.checkExpired();
+        }
+    }
+
+    /**
+     * Run work with this deadline installed on the current thread.
+     */
+    public <T> T run(Supplier<T> work) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            checkExpired();
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return cancelled || System.nanoTime() - expiresAt >= 0;
+    }
+
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    private void checkExpired() {
+        if (cancelled) {
+            throw new EvaluationCancelledException("Evaluation cancelled");
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            throw new EvaluationCancelledException("Evaluation exceeded time limit of " + timeoutMillis + " ms");
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a LipsNotation tree in primitive doubles while tracking a bound on the
+ * relative error of every intermediate value. Additions, multiplications and divisions are
+ * checked for exactness with error-free transformations (TwoSum / FMA), so integer
+ * arithmetic that stays below 2^53 reports an error bound of exactly zero.
+ *
+ * Anything doubles cannot represent faithfully (identifiers, tuples, overflow, NaN, domain
+ * errors, catastrophic cancellation) throws {@link Unsupported}; callers then fall back to
+ * {@link LipsNotation#eval()}, which also produces the proper error messages.
+ */
+public final class DoubleEvaluator {
+
+    // Unit roundoff for round-to-nearest doubles
+    static final double EPS = 0x1p-53;
+    // Math.sin/cos/tan/log/pow are specified to be within 1 ulp
+    private static final double LIBM_EPS = 2 * EPS;
+    private static final double MAX_EXACT_INT = 0x1p53;
+
+    /**
+     * @param value      the double result
+     * @param errorBound bound on |value - exact| / |exact|; 0 when the value is exact
+     */
+    public record Result(double value, double errorBound) {
+        public boolean isExact() {
+            return errorBound == 0;
+        }
+    }
+
+    /**
+     * Thrown when the double path cannot produce a trustworthy result. Carries no stack
+     * trace since it is part of normal control flow.
+     */
+    public static final class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private DoubleEvaluator() {}
+
+    public static Result evaluate(LipsNotation tree) {
+        return evaluate(tree, Map.of());
+    }
+
+    /**
+     * Evaluate with identifiers bound to the values in env. Bound values are taken as exact.
+     */
+    public static Result evaluate(LipsNotation tree, Map<String, Double> env) {
+        Result r = eval(tree, env);
+        if (!Double.isFinite(r.value) || !Double.isFinite(r.errorBound)) {
+            throw new Unsupported("precision lost");
+        }
+        return r;
+    }
+
+    private static Result eval(LipsNotation node, Map<String, Double> env) {
+        if (node instanceof LipsNotation.Atom) {
+            Double bound = env.get(node.toString());
+            if (bound != null) {
+                return checked(bound, 0);
+            }
+            return atom(node.toString());
+        }
+        if (node instanceof LipsNotation.Const) {
+            return constant(((LipsNotation.Const) node).value());
+        }
+        if (node instanceof LipsNotation.Let) {
+            LipsNotation.Let let = (LipsNotation.Let) node;
+            Map<String, Double> scope = new HashMap<>(env);
+            for (int i = 0; i < let.names().size(); i++) {
+                Result r = eval(let.values().get(i), scope);
+                if (!r.isExact()) throw new Unsupported("inexact shared subexpression");
+                scope.put(let.names().get(i), r.value);
+            }
+            return eval(let.body(), scope);
+        }
+
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        List<LipsNotation> rest = cons.rest();
+        return switch (cons.head()) {
+            case "+" -> add(arg(rest, 0, 2, env), arg(rest, 1, 2, env), false);
+            case "-" -> rest.size() == 1
+                    ? negate(eval(rest.get(0), env))
+                    : add(arg(rest, 0, 2, env), arg(rest, 1, 2, env), true);
+            case "*" -> multiply(arg(rest, 0, 2, env), arg(rest, 1, 2, env));
+            case "/" -> divide(arg(rest, 0, 2, env), arg(rest, 1, 2, env));
+            case "%" -> mod(arg(rest, 0, 2, env), arg(rest, 1, 2, env));
+            case "^" -> pow(arg(rest, 0, 2, env), arg(rest, 1, 2, env));
+            case "!" -> factorial(arg(rest, 0, 1, env));
+            case "sin" -> sin(arg(rest, 0, 1, env));
+            case "cos" -> cos(arg(rest, 0, 1, env));
+            case "tan" -> tan(arg(rest, 0, 1, env));
+            case "ln" -> log(arg(rest, 0, 1, env));
+            case "log" -> {
+                if (rest.size() == 1) yield log(eval(rest.get(0), env));
+                if (rest.size() == 2) yield divide(log(eval(rest.get(1), env)), log(eval(rest.get(0), env)));
+                throw new Unsupported("log arity");
+            }
+            default -> throw new Unsupported("operator " + cons.head());
+        };
+    }
+
+    private static Result arg(List<LipsNotation> rest, int index, int arity, Map<String, Double> env) {
+        if (rest.size() != arity) {
+            throw new Unsupported("arity");
+        }
+        return eval(rest.get(index), env);
+    }
+
+    private static Result atom(String text) {
+        // Only plain digit strings; identifiers and anything Apfloat parses differently
+        // from Double.parseDouble go to the interpreter
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                throw new Unsupported("non-numeric atom " + text);
+            }
+        }
+        double v = Double.parseDouble(text);
+        return checked(v, v <= MAX_EXACT_INT ? 0 : EPS);
+    }
+
+    private static Result constant(org.apfloat.Apfloat value) {
+        double v = value.doubleValue();
+        boolean exact = value.isInteger() && Math.abs(v) <= MAX_EXACT_INT;
+        return checked(v, exact ? 0 : EPS);
+    }
+
+    private static Result negate(Result a) {
+        return new Result(-a.value, a.errorBound);
+    }
+
+    private static Result add(Result a, Result b, boolean subtract) {
+        double x = a.value;
+        double y = subtract ? -b.value : b.value;
+        double s = x + y;
+        // TwoSum: err is the exact rounding error of x + y
+        double bb = s - x;
+        double err = (x - (s - bb)) + (y - bb);
+        double inherited = Math.abs(x) * a.errorBound + Math.abs(y) * b.errorBound;
+        if (s == 0) {
+            if (inherited != 0) throw new Unsupported("cancellation");
+            return new Result(0, 0);
+        }
+        return checked(s, inherited / Math.abs(s) + (err == 0 ? 0 : EPS));
+    }
+
+    private static Result multiply(Result a, Result b) {
+        double p = a.value * b.value;
+        boolean exact = Math.fma(a.value, b.value, -p) == 0;
+        return checked(p, combine(a.errorBound, b.errorBound) + (exact ? 0 : EPS));
+    }
+
+    private static Result divide(Result a, Result b) {
+        if (b.value == 0) throw new Unsupported("division by zero");
+        double q = a.value / b.value;
+        boolean exact = Math.fma(q, b.value, -a.value) == 0;
+        // 1/(1-e) <= 1+2e for the small bounds we accept
+        return checked(q, combine(a.errorBound, 2 * b.errorBound) + (exact ? 0 : EPS));
+    }
+
+    private static Result mod(Result a, Result b) {
+        // fmod is exact for exact inputs and keeps the dividend's sign, like Apfloat.mod
+        if (b.value == 0 || !a.isExact() || !b.isExact()) throw new Unsupported("mod");
+        return checked(a.value % b.value, 0);
+    }
+
+    private static Result pow(Result a, Result b) {
+        double n = b.value;
+        if (a.value == 0 && n <= 0) throw new Unsupported("pow domain");
+        if (b.isExact() && n == Math.rint(n) && Math.abs(n) <= 1024) {
+            // Square-and-multiply so exactness is tracked through every step
+            Result result = new Result(1, 0);
+            Result base = a;
+            long k = (long) Math.abs(n);
+            while (k > 0) {
+                if ((k & 1) == 1) result = multiply(result, base);
+                k >>= 1;
+                if (k > 0) base = multiply(base, base);
+            }
+            return n < 0 ? divide(new Result(1, 0), result) : result;
+        }
+        if (a.value <= 0) throw new Unsupported("pow domain");
+        double r = Math.pow(a.value, n);
+        double lnA = Math.log(a.value);
+        // d(a^b)/a^b = b * da/a + b * ln(a) * db/b
+        return checked(r, Math.abs(n) * a.errorBound + Math.abs(n * lnA) * b.errorBound + LIBM_EPS);
+    }
+
+    private static Result factorial(Result a) {
+        double n = a.value;
+        if (!a.isExact() || n < 0 || n != Math.rint(n) || n > 170) throw new Unsupported("factorial");
+        Result result = new Result(1, 0);
+        for (int i = 2; i <= n; i++) {
+            result = multiply(result, new Result(i, 0));
+        }
+        return result;
+    }
+
+    private static Result sin(Result a) {
+        double x = a.value;
+        if (x == 0) return new Result(0, 0);
+        double s = Math.sin(x);
+        return checked(s, Math.abs(x * Math.cos(x) / s) * a.errorBound + LIBM_EPS);
+    }
+
+    private static Result cos(Result a) {
+        double x = a.value;
+        if (x == 0) return new Result(1, 0);
+        double c = Math.cos(x);
+        return checked(c, Math.abs(x * Math.sin(x) / c) * a.errorBound + LIBM_EPS);
+    }
+
+    private static Result tan(Result a) {
+        double x = a.value;
+        if (x == 0) return new Result(0, 0);
+        double t = Math.tan(x);
+        return checked(t, Math.abs(x / (Math.sin(x) * Math.cos(x))) * a.errorBound + LIBM_EPS);
+    }
+
+    private static Result log(Result a) {
+        double x = a.value;
+        if (x <= 0) throw new Unsupported("log domain");
+        if (x == 1 && a.isExact()) return new Result(0, 0);
+        double l = Math.log(x);
+        return checked(l, a.errorBound / Math.abs(l) + LIBM_EPS);
+    }
+
+    private static double combine(double ea, double eb) {
+        return ea + eb + ea * eb;
+    }
+
+    private static Result checked(double value, double errorBound) {
+        if (!Double.isFinite(value) || !Double.isFinite(errorBound)) {
+            throw new Unsupported("overflow");
+        }
+        return new Result(value, errorBound);
+    }
+}
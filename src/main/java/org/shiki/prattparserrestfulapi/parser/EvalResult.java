@@ -2,22 +2,47 @@ package org.shiki.prattparserrestfulapi.parser;
 
 import org.apfloat.Apfloat;
 
+import java.math.RoundingMode;
+
 /**
  * Wrapper for evaluation results. Either a numeric result (kind="number")
  * or a point (kind="point"). Fields not used for a kind may be null.
+ * For numbers, engine tells which evaluator produced the value ("apfloat", "compiled",
+ * "double", "parallel", "flat",
+ * or "stored" when it came from the persistent result store) and errorBound is the relative error bound of a "double" result.
  */
-public record EvalResult(String kind, Apfloat number, String label, Apfloat x, Apfloat y, String funcParam, String funcExpr) {
+public record EvalResult(String kind, Apfloat number, String label, Apfloat x, Apfloat y, String funcParam, String funcExpr,
+                         String engine, Double errorBound) {
+
+    public static final String ENGINE_APFLOAT = "apfloat";
+    public static final String ENGINE_COMPILED = "compiled";
+    public static final String ENGINE_DOUBLE = "double";
+    public static final String ENGINE_PARALLEL = "parallel";
+    public static final String ENGINE_FLAT = "flat";
+    public static final String ENGINE_STORED = "stored";
+
+    /**
+     * This result with its number or coordinates rounded to digits significant digits.
+     */
+    public EvalResult rounded(long digits, RoundingMode mode) {
+        return new EvalResult(kind, Precision.round(number, digits, mode), label,
+                Precision.round(x, digits, mode), Precision.round(y, digits, mode), funcParam, funcExpr, engine, errorBound);
+    }
 
     public static EvalResult ofNumber(Apfloat n) {
-        return new EvalResult("number", n, null, null, null, null, null);
+        return ofNumber(n, ENGINE_APFLOAT, null);
+    }
+
+    public static EvalResult ofNumber(Apfloat n, String engine, Double errorBound) {
+        return new EvalResult("number", n, null, null, null, null, null, engine, errorBound);
     }
 
     public static EvalResult ofPoint(String label, Apfloat x, Apfloat y) {
-        return new EvalResult("point", null, label, x, y, null, null);
+        return new EvalResult("point", null, label, x, y, null, null, null, null);
     }
 
     public static EvalResult ofFunction(String funcName, String funcParam, String funcExpr) {
         // funcName: e.g., 'y' or 'f'; funcParam e.g., 'x'; funcExpr is RHS string
-        return new EvalResult("function", null, funcName, null, null, funcParam, funcExpr);
+        return new EvalResult("function", null, funcName, null, null, funcParam, funcExpr, null, null);
     }
 }
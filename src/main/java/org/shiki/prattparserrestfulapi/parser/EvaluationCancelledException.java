@@ -0,0 +1,11 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+/**
+ * Thrown from inside evaluation when its {@link Deadline} expires or is cancelled.
+ */
+public class EvaluationCancelledException extends RuntimeException {
+
+    public EvaluationCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,188 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Compiles a LipsNotation tree into a single MethodHandle chain of type ()Apfloat.
+ * Literals are parsed once and hoisted into constant handles, and every operator is bound
+ * directly to the matching Apfloat/ApfloatMath method, so evaluation does no string
+ * switching and no literal parsing. Trees the compiler does not understand (tuples,
+ * identifiers, unknown heads) fall back to the interpreter.
+ */
+@Slf4j
+public final class ExpressionCompiler {
+
+    private static final MethodType UNARY = MethodType.methodType(Apfloat.class, Apfloat.class);
+    private static final MethodType BINARY = MethodType.methodType(Apfloat.class, Apfloat.class, Apfloat.class);
+
+    private static final MethodHandle ADD;
+    private static final MethodHandle SUBTRACT;
+    private static final MethodHandle MULTIPLY;
+    private static final MethodHandle DIVIDE;
+    private static final MethodHandle MOD;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle POW;
+    private static final MethodHandle SIN;
+    private static final MethodHandle COS;
+    private static final MethodHandle TAN;
+    private static final MethodHandle LOG;
+    private static final MethodHandle LOG_BASE;
+    private static final MethodHandle LN;
+    private static final MethodHandle FACTORIAL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ADD = lookup.findVirtual(Apfloat.class, "add", UNARY);
+            SUBTRACT = lookup.findVirtual(Apfloat.class, "subtract", UNARY);
+            MULTIPLY = lookup.findVirtual(Apfloat.class, "multiply", UNARY);
+            DIVIDE = lookup.findVirtual(Apfloat.class, "divide", UNARY);
+            MOD = lookup.findVirtual(Apfloat.class, "mod", UNARY);
+            NEGATE = lookup.findVirtual(Apfloat.class, "negate", MethodType.methodType(Apfloat.class));
+            POW = lookup.findStatic(ApfloatMath.class, "pow", BINARY);
+            SIN = lookup.findStatic(ApfloatMath.class, "sin", UNARY);
+            COS = lookup.findStatic(ApfloatMath.class, "cos", UNARY);
+            TAN = lookup.findStatic(ApfloatMath.class, "tan", UNARY);
+            LOG = lookup.findStatic(ApfloatMath.class, "log", UNARY);
+            LOG_BASE = lookup.findStatic(ExpressionCompiler.class, "logBase", BINARY);
+            // ln(x) is log(x, e) with e hoisted as a constant, same as the interpreter computes it
+            LN = MethodHandles.insertArguments(lookup.findStatic(ApfloatMath.class, "log", BINARY), 1, Constants.e(1000));
+            FACTORIAL = lookup.findStatic(LipsNotation.class, "factorial", UNARY);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private ExpressionCompiler() {}
+
+    public static CompiledExpression compile(LipsNotation tree) {
+        MethodHandle handle;
+        try {
+            handle = compileNode(tree);
+        } catch (UnsupportedOperationException | NumberFormatException e) {
+            log.debug("Falling back to interpreter for {}: {}", tree, e.getMessage());
+            return new Interpreted(tree);
+        }
+        return new Compiled(handle);
+    }
+
+    private static MethodHandle compileNode(LipsNotation node) {
+        if (node instanceof LipsNotation.Atom) {
+            // Parse once here instead of on every evaluation
+            Apfloat value = Constants.named(node.toString(), 1000);
+            if (value == null) {
+                value = Constants.literal(node.toString(), 1000);
+            }
+            return MethodHandles.constant(Apfloat.class, value);
+        }
+        if (node instanceof LipsNotation.Const) {
+            return MethodHandles.constant(Apfloat.class, ((LipsNotation.Const) node).value());
+        }
+        if (!(node instanceof LipsNotation.Cons)) {
+            throw new UnsupportedOperationException(node.getClass().getSimpleName());
+        }
+
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        List<LipsNotation> rest = cons.rest();
+        MethodHandle op = switch (cons.head()) {
+            case "+" -> binary(rest, ADD);
+            case "-" -> rest.size() == 1 ? NEGATE : binary(rest, SUBTRACT);
+            case "*" -> binary(rest, MULTIPLY);
+            case "/" -> {
+                // Keep the interpreter's error message for a literal zero divisor
+                if (rest.size() == 1 || rest.get(1).toString().equals("0")) {
+                    throw new UnsupportedOperationException("division by literal zero");
+                }
+                yield DIVIDE;
+            }
+            case "%" -> binary(rest, MOD);
+            case "!" -> FACTORIAL;
+            case "^" -> binary(rest, POW);
+            case "sin" -> SIN;
+            case "cos" -> COS;
+            case "tan" -> TAN;
+            case "log" -> {
+                if (rest.size() == 1) yield LOG;
+                if (rest.size() == 2) yield LOG_BASE;
+                throw new UnsupportedOperationException("log expects 1 or 2 arguments");
+            }
+            case "ln" -> LN;
+            default -> throw new UnsupportedOperationException("Unknown operator: " + cons.head());
+        };
+
+        int arity = op.type().parameterCount();
+        if (arity != rest.size()) {
+            throw new UnsupportedOperationException(cons.head() + " with " + rest.size() + " arguments");
+        }
+
+        // Feed each child's ()Apfloat handle into the operator, right to left so the
+        // positions of the remaining parameters do not shift.
+        MethodHandle result = op;
+        for (int i = arity - 1; i >= 0; i--) {
+            result = MethodHandles.collectArguments(result, i, compileNode(rest.get(i)));
+        }
+        return result;
+    }
+
+    private static MethodHandle binary(List<LipsNotation> rest, MethodHandle op) {
+        if (rest.size() != 2) {
+            throw new UnsupportedOperationException("expected 2 arguments, got " + rest.size());
+        }
+        return op;
+    }
+
+    private static Apfloat logBase(Apfloat base, Apfloat val) {
+        return ApfloatMath.log(val).divide(Constants.log(base));
+    }
+
+    private static final class Compiled implements CompiledExpression {
+        private final MethodHandle handle;
+
+        Compiled(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public Apfloat evaluate() {
+            // The chain itself has no cancellation points except inside factorial
+            Deadline.check();
+            try {
+                return (Apfloat) handle.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        @Override
+        public boolean isCompiled() {
+            return true;
+        }
+    }
+
+    private static final class Interpreted implements CompiledExpression {
+        private final LipsNotation tree;
+
+        Interpreted(LipsNotation tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public Apfloat evaluate() {
+            return tree.eval();
+        }
+
+        @Override
+        public boolean isCompiled() {
+            return false;
+        }
+    }
+}
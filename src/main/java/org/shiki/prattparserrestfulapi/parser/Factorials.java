@@ -0,0 +1,112 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exact factorials. Small arguments come from a table built once per process; larger ones
+ * multiply the rest of the range by binary splitting, so the big multiplications are between
+ * operands of similar size (where apfloat's FFT multiplication pays off) instead of one huge
+ * accumulator times a small integer per step. Very large ranges are split across the
+ * common fork/join pool.
+ *
+ * Values are infinite-precision Apfloat (not Apint), matching what the old loop returned.
+ */
+public final class Factorials {
+
+    // 0! .. 255!; 255! has 505 digits, so the whole table is a few tens of KB
+    static final int TABLE_SIZE = 256;
+    // Below this many factors a range is multiplied sequentially in one task
+    private static final long PARALLEL_THRESHOLD = 2048;
+    // Ranges this short are multiplied in a long while it cannot overflow
+    private static final long LEAF_SIZE = 16;
+    // Largest argument we accept at all; anything bigger would not finish anyway
+    static final long MAX_ARGUMENT = Integer.MAX_VALUE;
+
+    private static final Apfloat[] TABLE = new Apfloat[TABLE_SIZE];
+
+    static {
+        Apfloat f = new Apfloat(1, Apfloat.INFINITE);
+        TABLE[0] = f;
+        for (int i = 1; i < TABLE_SIZE; i++) {
+            f = f.multiply(new Apfloat(i, Apfloat.INFINITE));
+            TABLE[i] = f;
+        }
+    }
+
+    private Factorials() {}
+
+    public static Apfloat factorial(long n) {
+        if (n < 0 || n > MAX_ARGUMENT) {
+            throw new RuntimeException("Invalid factorial: " + n);
+        }
+        if (n < TABLE_SIZE) {
+            return TABLE[(int) n];
+        }
+        Apfloat rest = n - TABLE_SIZE + 1 >= PARALLEL_THRESHOLD
+                ? ForkJoinPool.commonPool().invoke(new ProductTask(TABLE_SIZE, n, Deadline.current()))
+                : product(TABLE_SIZE, n);
+        return TABLE[TABLE_SIZE - 1].multiply(rest);
+    }
+
+    /**
+     * Product of lo..hi inclusive by binary splitting.
+     */
+    static Apfloat product(long lo, long hi) {
+        if (hi - lo < LEAF_SIZE) {
+            // hi <= 2^31, so 16 factors would overflow; multiply in long while it is safe
+            Deadline.check();
+            Apfloat result = null;
+            long acc = 1;
+            for (long i = lo; i <= hi; i++) {
+                if (acc > Long.MAX_VALUE / i) {
+                    result = times(result, acc);
+                    acc = 1;
+                }
+                acc *= i;
+            }
+            return times(result, acc);
+        }
+        long mid = (lo + hi) >>> 1;
+        return product(lo, mid).multiply(product(mid + 1, hi));
+    }
+
+    private static Apfloat times(Apfloat result, long factor) {
+        Apfloat f = new Apfloat(factor, Apfloat.INFINITE);
+        return result == null ? f : result.multiply(f);
+    }
+
+    private static final class ProductTask extends RecursiveTask<Apfloat> {
+        private final long lo;
+        private final long hi;
+        // Pool threads do not inherit the caller's deadline, so it travels with the task
+        private final Deadline deadline;
+
+        ProductTask(long lo, long hi, Deadline deadline) {
+            this.lo = lo;
+            this.hi = hi;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected Apfloat compute() {
+            if (deadline != null && Deadline.current() != deadline) {
+                return deadline.run(this::split);
+            }
+            return split();
+        }
+
+        private Apfloat split() {
+            if (hi - lo < PARALLEL_THRESHOLD) {
+                return product(lo, hi);
+            }
+            long mid = (lo + hi) >>> 1;
+            ProductTask left = new ProductTask(lo, mid, deadline);
+            left.fork();
+            Apfloat right = new ProductTask(mid + 1, hi, deadline).compute();
+            return left.join().multiply(right);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An expression tree as a structure of arrays instead of LipsNotation objects. Node i has an
+ * integer opcode {@code ops[i]}, its children at {@code children[first[i] .. first[i] + arity[i])}
+ * and its text (atom or operator head) in {@code text[i]}. Numbers and named constants are
+ * parsed once, when the tree is built, into a side table of literals.
+ *
+ * Nodes are stored children first, so evaluation is a single loop over the arrays with a
+ * switch on the opcode: no recursion, no virtual calls, and one Apfloat slot per node.
+ * {@link Parser#parseFlat(String)} builds one directly from the tokens; {@link #of} and
+ * {@link #toLipsNotation()} convert from and to the object tree.
+ *
+ * Instances are immutable and safe to share between requests.
+ */
+public final class FlatTree {
+
+    static final int ATOM = 0;
+    // A value computed ahead of time, see LipsNotation.Const
+    static final int CONST = 1;
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int NEG = 4;
+    static final int MUL = 5;
+    static final int DIV = 6;
+    static final int MOD = 7;
+    static final int FACT = 8;
+    static final int POW = 9;
+    static final int SIN = 10;
+    static final int COS = 11;
+    static final int TAN = 12;
+    static final int LOG = 13;
+    static final int LN = 14;
+    // Any other head (tuple, f(...)); evaluating it fails like LipsNotation.Cons does
+    static final int CALL = 15;
+
+    private final int[] ops;
+    private final int[] first;
+    private final int[] arity;
+    private final int[] children;
+    private final String[] text;
+    // Atom or CONST node -> index into literals, -1 for identifiers and operators
+    private final int[] literal;
+    private final Apfloat[] literals;
+
+    private FlatTree(int[] ops, int[] first, int[] arity, int[] children, String[] text,
+                     int[] literal, Apfloat[] literals) {
+        this.ops = ops;
+        this.first = first;
+        this.arity = arity;
+        this.children = children;
+        this.text = text;
+        this.literal = literal;
+        this.literals = literals;
+    }
+
+    /**
+     * Flat form of tree. Let bindings (from {@link TreeOptimizer}) have none, so pass the
+     * raw tree rather than the optimised one.
+     *
+     * @throws IllegalArgumentException if tree contains a Let
+     */
+    public static FlatTree of(LipsNotation tree) {
+        // Reverse of a right-to-left preorder is a left-to-right postorder
+        Deque<LipsNotation> pending = new ArrayDeque<>();
+        Deque<LipsNotation> postorder = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            LipsNotation node = pending.pop();
+            postorder.push(node);
+            if (node instanceof LipsNotation.Cons) {
+                for (LipsNotation child : ((LipsNotation.Cons) node).rest()) {
+                    pending.push(child);
+                }
+            } else if (node instanceof LipsNotation.Let) {
+                throw new IllegalArgumentException("Let bindings have no flat form: " + node);
+            }
+        }
+
+        Builder builder = new Builder();
+        int[] built = new int[postorder.size()];
+        int top = 0;
+        while (!postorder.isEmpty()) {
+            LipsNotation node = postorder.pop();
+            int index;
+            if (node instanceof LipsNotation.Cons) {
+                LipsNotation.Cons cons = (LipsNotation.Cons) node;
+                int n = cons.rest().size();
+                top -= n;
+                index = builder.add(opcode(cons.head(), n), cons.head(), built, top, n);
+            } else if (node instanceof LipsNotation.Const) {
+                index = builder.constant(((LipsNotation.Const) node).value());
+            } else {
+                index = builder.atom(node.toString());
+            }
+            built[top++] = index;
+        }
+        return builder.build(built[0]);
+    }
+
+    public int size() {
+        return ops.length;
+    }
+
+    int op(int node) {
+        return ops[node];
+    }
+
+    String text(int node) {
+        return text[node];
+    }
+
+    int arity(int node) {
+        return arity[node];
+    }
+
+    int child(int node, int k) {
+        return children[first[node] + k];
+    }
+
+    public LipsNotation toLipsNotation() {
+        LipsNotation[] nodes = new LipsNotation[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case ATOM -> nodes[i] = new LipsNotation.Atom(text[i]);
+                case CONST -> nodes[i] = new LipsNotation.Const(literals[literal[i]]);
+                default -> {
+                    LipsNotation[] rest = new LipsNotation[arity[i]];
+                    for (int k = 0; k < rest.length; k++) {
+                        rest[k] = nodes[children[first[i] + k]];
+                    }
+                    nodes[i] = new LipsNotation.Cons(text[i], Arrays.asList(rest));
+                }
+            }
+        }
+        return nodes[ops.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return toLipsNotation().toString();
+    }
+
+    public Apfloat evaluate() {
+        return evaluate(Map.of());
+    }
+
+    /**
+     * Evaluate with identifiers bound to the values in env. Same operators, values and error
+     * messages as {@link LipsNotation#eval(Map)}; every operand is computed before its
+     * operator, so with several errors in one expression the one reported may differ.
+     */
+    public Apfloat evaluate(Map<String, Apfloat> env) {
+        int n = ops.length;
+        Apfloat[] values = new Apfloat[n];
+        boolean defaultPrecision = Precision.isDefault();
+        for (int i = 0; i < n; i++) {
+            int op = ops[i];
+            if (op == ATOM) {
+                values[i] = atom(i, env, defaultPrecision);
+                continue;
+            }
+            if (op == CONST) {
+                values[i] = literals[literal[i]];
+                continue;
+            }
+            Deadline.check();
+            int c = first[i];
+            values[i] = switch (op) {
+                case ADD -> values[arg(i, c, 0)].add(values[arg(i, c, 1)]);
+                case SUB -> values[arg(i, c, 0)].subtract(values[arg(i, c, 1)]);
+                case NEG -> values[children[c]].negate();
+                case MUL -> values[arg(i, c, 0)].multiply(values[arg(i, c, 1)]);
+                case DIV -> {
+                    if (arity[i] == 1 || isZeroLiteral(children[c + 1])) {
+                        throw new RuntimeException("Cannot divide by 0.");
+                    }
+                    yield values[children[c]].divide(values[children[c + 1]]);
+                }
+                case MOD -> values[arg(i, c, 0)].mod(values[arg(i, c, 1)]);
+                case FACT -> LipsNotation.factorial(values[arg(i, c, 0)]);
+                case POW -> ApfloatMath.pow(values[arg(i, c, 0)], values[arg(i, c, 1)]);
+                case SIN -> ApfloatMath.sin(values[arg(i, c, 0)]);
+                case COS -> ApfloatMath.cos(values[arg(i, c, 0)]);
+                case TAN -> ApfloatMath.tan(values[arg(i, c, 0)]);
+                case LOG -> {
+                    if (arity[i] == 1) {
+                        yield ApfloatMath.log(values[children[c]]);
+                    } else if (arity[i] == 2) {
+                        yield ApfloatMath.log(values[children[c + 1]]).divide(Constants.log(values[children[c]]));
+                    }
+                    throw new RuntimeException("log expects 1 or 2 arguments");
+                }
+                case LN -> ApfloatMath.log(values[arg(i, c, 0)], Constants.e(Precision.current()));
+                default -> throw new RuntimeException("Unknown operator: " + text[i]);
+            };
+        }
+        return values[n - 1];
+    }
+
+    private Apfloat atom(int i, Map<String, Apfloat> env, boolean defaultPrecision) {
+        String value = text[i];
+        Apfloat bound = env.get(value);
+        if (bound != null) {
+            return bound;
+        }
+        if (defaultPrecision && literal[i] >= 0) {
+            return literals[literal[i]];
+        }
+        // Identifiers fail here the same way as an unbound LipsNotation.Atom
+        long precision = Precision.current();
+        Apfloat named = Constants.named(value, precision);
+        return named != null ? named : Constants.literal(value, Precision.forLiteral(value, precision));
+    }
+
+    // Child k of node i, failing like List.get when the operator has too few operands
+    private int arg(int i, int c, int k) {
+        Objects.checkIndex(k, arity[i]);
+        return children[c + k];
+    }
+
+    private boolean isZeroLiteral(int node) {
+        return (ops[node] == ATOM || ops[node] == CONST) && text[node].equals("0");
+    }
+
+    private static int opcode(String head, int arity) {
+        return switch (head) {
+            case "+" -> ADD;
+            case "-" -> arity == 1 ? NEG : SUB;
+            case "*" -> MUL;
+            case "/" -> DIV;
+            case "%" -> MOD;
+            case "!" -> FACT;
+            case "^" -> POW;
+            case "sin" -> SIN;
+            case "cos" -> COS;
+            case "tan" -> TAN;
+            case "log" -> LOG;
+            case "ln" -> LN;
+            default -> CALL;
+        };
+    }
+
+    /**
+     * Collects nodes as the parser creates them; a node is its index. The parser also makes
+     * atoms for names that turn out to be function heads, which {@link #build} drops.
+     */
+    static final class Builder implements IterativeParser.NodeFactory<Integer> {
+        private int[] ops = new int[16];
+        private int[] first = new int[16];
+        private int[] arity = new int[16];
+        private int[] children = new int[16];
+        private String[] text = new String[16];
+        private final List<Apfloat> constants = new ArrayList<>();
+        private int count;
+        private int childCount;
+
+        @Override
+        public Integer atom(String value) {
+            return add(ATOM, value, null, 0, 0);
+        }
+
+        @Override
+        public Integer cons(String head, List<Integer> args) {
+            int[] indices = new int[args.size()];
+            for (int k = 0; k < indices.length; k++) {
+                indices[k] = args.get(k);
+            }
+            return add(opcode(head, indices.length), head, indices, 0, indices.length);
+        }
+
+        @Override
+        public String atomName(Integer node) {
+            return ops[node] == ATOM ? text[node] : null;
+        }
+
+        int constant(Apfloat value) {
+            // first holds the constant until build() moves it to the literal table
+            int index = add(CONST, value.toString(), null, 0, 0);
+            first[index] = constants.size();
+            constants.add(value);
+            return index;
+        }
+
+        int add(int op, String head, int[] args, int from, int n) {
+            if (count == ops.length) {
+                int size = count * 2;
+                ops = Arrays.copyOf(ops, size);
+                first = Arrays.copyOf(first, size);
+                arity = Arrays.copyOf(arity, size);
+                text = Arrays.copyOf(text, size);
+            }
+            if (childCount + n > children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + n));
+            }
+            ops[count] = op;
+            first[count] = childCount;
+            arity[count] = n;
+            text[count] = head;
+            if (n > 0) {
+                System.arraycopy(args, from, children, childCount, n);
+                childCount += n;
+            }
+            return count++;
+        }
+
+        /**
+         * The tree rooted at root, without nodes it does not reach, with literals parsed.
+         */
+        FlatTree build(int root) {
+            // Children always precede their parent, so one backward pass marks what is reachable
+            boolean[] live = new boolean[root + 1];
+            live[root] = true;
+            int liveNodes = 0;
+            int liveChildren = 0;
+            for (int i = root; i >= 0; i--) {
+                if (!live[i]) continue;
+                liveNodes++;
+                if (ops[i] != CONST) {
+                    liveChildren += arity[i];
+                    for (int k = 0; k < arity[i]; k++) {
+                        live[children[first[i] + k]] = true;
+                    }
+                }
+            }
+
+            int[] renumber = new int[root + 1];
+            int[] outOps = new int[liveNodes];
+            int[] outFirst = new int[liveNodes];
+            int[] outArity = new int[liveNodes];
+            int[] outChildren = new int[liveChildren];
+            String[] outText = new String[liveNodes];
+            int[] outLiteral = new int[liveNodes];
+            List<Apfloat> table = new ArrayList<>();
+            int j = 0;
+            int c = 0;
+            for (int i = 0; i <= root; i++) {
+                if (!live[i]) continue;
+                renumber[i] = j;
+                outOps[j] = ops[i];
+                outText[j] = text[i];
+                outLiteral[j] = -1;
+                if (ops[i] == CONST) {
+                    outLiteral[j] = table.size();
+                    table.add(constants.get(first[i]));
+                } else if (ops[i] == ATOM) {
+                    Apfloat value = parseLiteral(text[i]);
+                    if (value != null) {
+                        outLiteral[j] = table.size();
+                        table.add(value);
+                    }
+                } else {
+                    outFirst[j] = c;
+                    outArity[j] = arity[i];
+                    for (int k = 0; k < arity[i]; k++) {
+                        outChildren[c++] = renumber[children[first[i] + k]];
+                    }
+                }
+                j++;
+            }
+            return new FlatTree(outOps, outFirst, outArity, outChildren, outText, outLiteral,
+                    table.toArray(new Apfloat[0]));
+        }
+
+        // Value of a number or named constant at the default precision; null for identifiers
+        private static Apfloat parseLiteral(String value) {
+            Apfloat named = Constants.named(value, Precision.DEFAULT);
+            if (named != null) {
+                return named;
+            }
+            if (!Character.isDigit(value.charAt(0))) {
+                return null;
+            }
+            try {
+                return Constants.literal(value, Precision.DEFAULT);
+            } catch (NumberFormatException e) {
+                // e.g. "12ab"; evaluation reports it
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser state for a text that is edited a little at a time, as in a calculator UI that
+ * sends every keystroke. Each edit:
+ * <ul>
+ *     <li>re-lexes only around the edit ({@link ArrayLexer#edit});</li>
+ *     <li>parses the tokens and swaps every subtree that is structurally identical to one
+ *     of the previous tree for that previous node;</li>
+ *     <li>evaluates with the values of the previous evaluation remembered per node, so only
+ *     subtrees that actually changed are computed again.</li>
+ * </ul>
+ * Parsing itself is linear and cheap next to Apfloat evaluation, so the tree is rebuilt
+ * rather than patched. Text that does not parse (the usual state halfway through typing)
+ * still becomes the current text; the last good tree and values are kept for the next edit.
+ *
+ * Not thread-safe; callers serialise edits per instance.
+ */
+public final class IncrementalParser {
+
+    /**
+     * What the last edit could reuse.
+     */
+    public record Stats(int tokens, int tokensReused, int nodes, int nodesReused, int nodesEvaluated) {
+
+        /**
+         * These parse stats with the count of an evaluation done since, e.g. after later
+         * edits have been parsed.
+         */
+        public Stats withNodesEvaluated(int nodesEvaluated) {
+            return new Stats(tokens, tokensReused, nodes, nodesReused, nodesEvaluated);
+        }
+    }
+
+    /**
+     * State from before an edit, for {@link #restore} to take the edit back.
+     */
+    public static final class Checkpoint {
+        private final ArrayLexer lexer;
+        private final Map<Object, LipsNotation> index;
+        private final int tokensReused;
+        private final int nodes;
+        private final int nodesReused;
+        private final int nodesEvaluated;
+
+        private Checkpoint(IncrementalParser parser) {
+            this.lexer = parser.lexer;
+            this.index = parser.index;
+            this.tokensReused = parser.tokensReused;
+            this.nodes = parser.nodes;
+            this.nodesReused = parser.nodesReused;
+            this.nodesEvaluated = parser.nodesEvaluated;
+        }
+    }
+
+    private ArrayLexer lexer;
+    // Structural index and values of the last tree that parsed
+    private Map<Object, LipsNotation> index = new HashMap<>();
+    private Map<LipsNotation, Apfloat> values = new IdentityHashMap<>();
+    private int tokensReused;
+    private int nodes;
+    private int nodesReused;
+    private int nodesEvaluated;
+
+    public IncrementalParser(String text) {
+        this.lexer = new ArrayLexer(text);
+    }
+
+    public String text() {
+        return lexer.input();
+    }
+
+    /**
+     * Replace {@code deleted} characters at {@code offset} with {@code inserted} and parse
+     * the new text.
+     *
+     * @throws IllegalArgumentException if the range is outside the current text
+     * @throws RuntimeException         if the new text does not parse
+     */
+    public ParsedExpression edit(int offset, int deleted, String inserted) {
+        long start = System.nanoTime();
+        lexer = ArrayLexer.edit(lexer, offset, deleted, inserted == null ? "" : inserted);
+        long lexed = System.nanoTime();
+        tokensReused = lexer.reused();
+        return parse(lexed - start);
+    }
+
+    /**
+     * Parse the current text from scratch (e.g. for the first request of a session).
+     */
+    public ParsedExpression parse() {
+        tokensReused = 0;
+        return parse(0);
+    }
+
+    /**
+     * Evaluate what {@link #edit} or {@link #parse()} returned, reusing remembered values.
+     */
+    public EvalResult evaluate(ParsedExpression parsed) {
+        nodesEvaluated = 0;
+        if (parsed.isFunction() || Parser.isPoint(parsed.tree())) {
+            return Parser.evaluate(parsed);
+        }
+        Map<LipsNotation, Apfloat> next = new IdentityHashMap<>();
+        Apfloat value = eval(parsed.tree(), next);
+        // Only values of the current tree are kept, so memory follows the text
+        values = next;
+        return EvalResult.ofNumber(value);
+    }
+
+    /**
+     * The current state. Edits replace the lexer and index rather than change them, so this
+     * is cheap.
+     */
+    public Checkpoint checkpoint() {
+        return new Checkpoint(this);
+    }
+
+    /**
+     * Go back to the state of checkpoint, e.g. for an edit whose evaluation was refused.
+     * Remembered values are kept; they only ever belong to nodes of a tree that parsed.
+     */
+    public void restore(Checkpoint checkpoint) {
+        lexer = checkpoint.lexer;
+        index = checkpoint.index;
+        tokensReused = checkpoint.tokensReused;
+        nodes = checkpoint.nodes;
+        nodesReused = checkpoint.nodesReused;
+        nodesEvaluated = checkpoint.nodesEvaluated;
+    }
+
+    public Stats stats() {
+        return new Stats(lexer.size(), tokensReused, nodes, nodesReused, nodesEvaluated);
+    }
+
+    private ParsedExpression parse(long lexNanos) {
+        nodes = 0;
+        nodesReused = 0;
+        nodesEvaluated = 0;
+        String text = lexer.input();
+        // Definitions go through the regular parser, which recognises the '=' forms
+        if (text.indexOf('=') >= 0) {
+            return Parser.parse(text);
+        }
+        long start = System.nanoTime();
+        LipsNotation tree = Parser.expr(lexer);
+        Map<Object, LipsNotation> nextIndex = new HashMap<>();
+        tree = intern(tree, nextIndex);
+        long parsed = System.nanoTime();
+        index = nextIndex;
+        return ParsedExpression.ofTree(tree, lexer.size(), lexNanos, parsed - start);
+    }
+
+    // A node whose children are being interned
+    private static final class Pending {
+        final LipsNotation node;
+        final List<LipsNotation> rest;
+
+        Pending(LipsNotation node) {
+            this.node = node;
+            this.rest = node instanceof LipsNotation.Cons ? new ArrayList<>(((LipsNotation.Cons) node).rest().size()) : null;
+        }
+    }
+
+    // Canonicalise bottom-up; a node equal to one of the previous tree becomes that node.
+    // An explicit stack rather than recursion, since the parser takes any depth.
+    private LipsNotation intern(LipsNotation tree, Map<Object, LipsNotation> nextIndex) {
+        Deque<Pending> stack = new ArrayDeque<>();
+        stack.push(new Pending(tree));
+        while (true) {
+            Pending top = stack.peek();
+            if (top.rest != null && top.rest.size() < ((LipsNotation.Cons) top.node).rest().size()) {
+                stack.push(new Pending(((LipsNotation.Cons) top.node).rest().get(top.rest.size())));
+                continue;
+            }
+            stack.pop();
+            LipsNotation done = canonical(top, nextIndex);
+            if (stack.isEmpty()) {
+                return done;
+            }
+            stack.peek().rest.add(done);
+        }
+    }
+
+    private LipsNotation canonical(Pending pending, Map<Object, LipsNotation> nextIndex) {
+        nodes++;
+        LipsNotation node = pending.node;
+        Object key;
+        if (node instanceof LipsNotation.Cons) {
+            String head = ((LipsNotation.Cons) node).head();
+            // Children are canonical already, so identity-based List.equals is structural
+            key = List.of(head, pending.rest);
+            node = new LipsNotation.Cons(head, pending.rest);
+        } else {
+            key = node.toString();
+        }
+        LipsNotation existing = nextIndex.get(key);
+        if (existing == null) {
+            existing = index.get(key);
+            if (existing != null) {
+                nodesReused++;
+            } else {
+                existing = node;
+            }
+            nextIndex.put(key, existing);
+        }
+        return existing;
+    }
+
+    private Apfloat eval(LipsNotation node, Map<LipsNotation, Apfloat> next) {
+        Apfloat value = next.get(node);
+        if (value != null) return value;
+        value = values.get(node);
+        if (value == null) {
+            if (node instanceof LipsNotation.Cons) {
+                LipsNotation.Cons cons = (LipsNotation.Cons) node;
+                List<LipsNotation> args = new ArrayList<>(cons.rest().size());
+                for (LipsNotation child : cons.rest()) {
+                    args.add(new LipsNotation.Const(eval(child, next)));
+                }
+                // Same operator semantics and errors as a full evaluation
+                value = new LipsNotation.Cons(cons.head(), args).eval();
+            } else {
+                value = node.eval();
+            }
+            nodesEvaluated++;
+        }
+        next.put(node, value);
+        return value;
+    }
+}
@@ -0,0 +1,279 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The Pratt parser of {@link Parser} with its recursion turned into an explicit stack, so
+ * nesting depth is limited by heap rather than thread stack. Each frame is one exprBP call:
+ * its minimum binding power, the left-hand side built so far, and what it is waiting for
+ * while a nested expression (a right operand, a parenthesised expression, an argument) is
+ * parsed on top of it.
+ *
+ * Produces the same trees and the same errors as the recursive parser. With an
+ * {@link ArrayLexer}, whose tuple check is a lookup, parsing is linear in the input.
+ * Nodes are made by a {@link NodeFactory}, so the same parser builds LipsNotation trees or
+ * {@link FlatTree} arenas; either way every node is created after its children.
+ */
+final class IterativeParser {
+
+    /**
+     * Builds the nodes of the parsed expression.
+     */
+    interface NodeFactory<N> {
+        N atom(String value);
+
+        N cons(String head, List<N> children);
+
+        /**
+         * The text of node if it is an atom (which may turn out to be a function name), else null.
+         */
+        String atomName(N node);
+    }
+
+    static final NodeFactory<LipsNotation> TREE = new NodeFactory<>() {
+        @Override
+        public LipsNotation atom(String value) {
+            return new LipsNotation.Atom(value);
+        }
+
+        @Override
+        public LipsNotation cons(String head, List<LipsNotation> children) {
+            return new LipsNotation.Cons(head, children);
+        }
+
+        @Override
+        public String atomName(LipsNotation node) {
+            return node instanceof LipsNotation.Atom ? node.toString() : null;
+        }
+    };
+
+    // What a frame does with the expression parsed on top of it
+    private enum Waiting { NONE, PREFIX, INFIX, GROUP, TUPLE, BASE, ARGS }
+
+    private static final class Frame<N> {
+        final int minBp;
+        N lhs;
+        Waiting waiting = Waiting.NONE;
+        String op;
+        List<N> items;
+
+        Frame(int minBp) {
+            this.minBp = minBp;
+        }
+    }
+
+    private IterativeParser() {}
+
+    static LipsNotation parse(Lexer lexer) {
+        return parse(lexer, TREE);
+    }
+
+    static <N> N parse(Lexer lexer, NodeFactory<N> factory) {
+        Deque<Frame<N>> stack = new ArrayDeque<>();
+        Frame<N> frame = new Frame<>(0);
+        N value = null;
+        boolean enter = true;
+
+        while (true) {
+            if (enter) {
+                // Start of an expression: atom, parenthesis or prefix operator
+                enter = false;
+                Token token = lexer.next();
+                if (token.type == Token.Type.ATOM) {
+                    frame.lhs = factory.atom(token.value);
+                } else if (token.type == Token.Type.OP && token.value.equals("(")) {
+                    if (lexer.hasTopLevelCommaUntilClosingParen()) {
+                        frame.waiting = Waiting.TUPLE;
+                        frame.items = new ArrayList<>();
+                    } else {
+                        frame.waiting = Waiting.GROUP;
+                    }
+                    stack.push(frame);
+                    frame = new Frame<>(0);
+                    enter = true;
+                    continue;
+                } else if (token.type == Token.Type.OP) {
+                    Parser.BindingPower bp = Parser.prefix_binding_power(token.value);
+                    frame.waiting = Waiting.PREFIX;
+                    frame.op = token.value;
+                    stack.push(frame);
+                    frame = new Frame<>(bp.r_bp());
+                    enter = true;
+                    continue;
+                } else {
+                    throw new RuntimeException("Bad token: " + token);
+                }
+            } else if (value != null) {
+                // A nested expression finished; resume the frame that asked for it
+                N inner = value;
+                value = null;
+                Waiting waiting = frame.waiting;
+                frame.waiting = Waiting.NONE;
+                switch (waiting) {
+                    case PREFIX -> frame.lhs = factory.cons(frame.op, listOf(inner));
+                    case INFIX -> frame.lhs = factory.cons(frame.op, listOf(frame.lhs, inner));
+                    case GROUP -> {
+                        expectClose(lexer);
+                        frame.lhs = inner;
+                    }
+                    case TUPLE -> {
+                        frame.items.add(inner);
+                        if (nextIsComma(lexer)) {
+                            frame = descend(stack, frame, Waiting.TUPLE);
+                            enter = true;
+                            continue;
+                        }
+                        expectClose(lexer);
+                        frame.lhs = frame.items.size() == 1 ? frame.items.get(0) : factory.cons("tuple", frame.items);
+                    }
+                    case BASE -> {
+                        expectClose(lexer);
+                        if (afterBase(lexer, factory, frame, inner)) {
+                            frame = descend(stack, frame, Waiting.ARGS);
+                            enter = true;
+                            continue;
+                        }
+                    }
+                    case ARGS -> {
+                        frame.items.add(inner);
+                        if (nextIsComma(lexer)) {
+                            frame = descend(stack, frame, Waiting.ARGS);
+                            enter = true;
+                            continue;
+                        }
+                        expectClose(lexer);
+                        frame.lhs = factory.cons(frame.op, frame.items);
+                    }
+                    default -> throw new IllegalStateException("Nothing waiting for " + inner);
+                }
+            }
+
+            Token next = lexer.peek();
+
+            // Function-call forms after an identifier: log_2(8), log_(b)(x), f(a, b)
+            String funcName = factory.atomName(frame.lhs);
+            if (funcName != null) {
+
+                if (next.type == Token.Type.OP && next.value.equals("_")) {
+                    lexer.next();
+                    Token baseTok = lexer.next();
+                    frame.op = funcName;
+                    if (baseTok.type == Token.Type.ATOM) {
+                        if (afterBase(lexer, factory, frame, factory.atom(baseTok.value))) {
+                            frame = descend(stack, frame, Waiting.ARGS);
+                            enter = true;
+                        }
+                        continue;
+                    } else if (baseTok.type == Token.Type.OP && baseTok.value.equals("(")) {
+                        frame = descend(stack, frame, Waiting.BASE);
+                        enter = true;
+                        continue;
+                    } else {
+                        throw new RuntimeException("Bad base for subscript: " + baseTok);
+                    }
+                }
+
+                if (next.type == Token.Type.OP && next.value.equals("(")) {
+                    lexer.next();
+                    frame.op = funcName;
+                    frame.items = new ArrayList<>();
+                    if (startArgs(lexer, factory, frame)) {
+                        frame = descend(stack, frame, Waiting.ARGS);
+                        enter = true;
+                    }
+                    continue;
+                }
+            }
+
+            Parser.BindingPower postfix = Parser.postfix_binding_power(next.value);
+            boolean done;
+            if (next.type == Token.Type.EoF) {
+                done = true;
+            } else if (postfix != null && postfix.l_bp() >= frame.minBp) {
+                lexer.next();
+                frame.lhs = factory.cons(next.value, listOf(frame.lhs));
+                continue;
+            } else if (next.type == Token.Type.OP) {
+                Parser.BindingPower infix = Parser.infix_binding_power(next.value);
+                if (infix == null || infix.l_bp() < frame.minBp) {
+                    done = true;
+                } else {
+                    lexer.next();
+                    frame.op = next.value;
+                    frame.waiting = Waiting.INFIX;
+                    stack.push(frame);
+                    frame = new Frame<>(infix.r_bp());
+                    enter = true;
+                    continue;
+                }
+            } else {
+                // An atom cannot follow a complete operand; it ends the expression, and
+                // Parser.expr reports it as left over
+                done = true;
+            }
+
+            if (done) {
+                if (stack.isEmpty()) {
+                    return frame.lhs;
+                }
+                value = frame.lhs;
+                frame = stack.pop();
+            }
+        }
+    }
+
+    // Parse the next argument/element for frame, which keeps waiting for it
+    private static <N> Frame<N> descend(Deque<Frame<N>> stack, Frame<N> frame, Waiting waiting) {
+        frame.waiting = waiting;
+        stack.push(frame);
+        return new Frame<>(0);
+    }
+
+    // After log_b: either arguments in parentheses (true: parse the first one) or done
+    private static <N> boolean afterBase(Lexer lexer, NodeFactory<N> factory, Frame<N> frame, N base) {
+        Token afterBase = lexer.peek();
+        if (afterBase.type == Token.Type.OP && afterBase.value.equals("(")) {
+            lexer.next();
+            frame.items = new ArrayList<>();
+            frame.items.add(base);
+            return startArgs(lexer, factory, frame);
+        }
+        frame.lhs = factory.cons(frame.op, listOf(base));
+        return false;
+    }
+
+    // Just after '(' of a call: true if there is an argument to parse, else the call is complete
+    private static <N> boolean startArgs(Lexer lexer, NodeFactory<N> factory, Frame<N> frame) {
+        if (!(lexer.peek().type == Token.Type.OP && lexer.peek().value.equals(")"))) {
+            return true;
+        }
+        expectClose(lexer);
+        frame.lhs = factory.cons(frame.op, frame.items);
+        return false;
+    }
+
+    // Same list type the recursive parser uses for operator operands
+    @SafeVarargs
+    private static <N> List<N> listOf(N... items) {
+        return Arrays.asList(items);
+    }
+
+    private static boolean nextIsComma(Lexer lexer) {
+        if (lexer.peek().type == Token.Type.OP && lexer.peek().value.equals(",")) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private static void expectClose(Lexer lexer) {
+        Token close = lexer.next();
+        if (close.type != Token.Type.OP || !close.value.equals(")")) {
+            throw new RuntimeException("Expected ')', got: " + close);
+        }
+    }
+}
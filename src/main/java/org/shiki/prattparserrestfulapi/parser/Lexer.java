@@ -12,7 +12,7 @@ public class Lexer {
 
     public Lexer(String input) {
         tokens = new Vector<>();
-        log.info("Starting tokenization for input: \"{}\"", input);
+        log.debug("Starting tokenization for input: \"{}\"", input);
         for (int i = 0; i < input.length(); i++) {
             char c = input.charAt(i);
 
@@ -30,16 +30,20 @@ public class Lexer {
                 tokens.add(Token.atom(sb.toString()));
             } else {
                 // Single-character operators/parens/etc.
-                tokens.add(Token.op(Character.toString(c)));
+                tokens.add(Token.op(c));
             }
         }
-        log.info("Finished tokenization. Total tokens: {}", tokens.size());
+        log.debug("Finished tokenization. Total tokens: {}", tokens.size());
     }
 
     public Lexer(Vector<Token> tokens) {
         this.tokens = tokens;
     }
 
+    // For subclasses that keep tokens in their own representation (see ArrayLexer)
+    protected Lexer() {
+    }
+
     public Token next() {
         if(pos >= tokens.size()) {
             log.debug("Consumed EoF");
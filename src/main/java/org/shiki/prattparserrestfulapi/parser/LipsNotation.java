@@ -1,14 +1,27 @@
 package org.shiki.prattparserrestfulapi.parser;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apfloat.*;
 
 public abstract class LipsNotation {
     public abstract String toString();
-    public abstract Apfloat eval();
+
+    public Apfloat eval() {
+        return eval(Map.of());
+    }
+
+    /**
+     * Evaluate with identifiers bound to the values in env (e.g. the parameter of a
+     * function definition). Unbound identifiers fail the same way as with {@link #eval()}.
+     */
+    public abstract Apfloat eval(Map<String, Apfloat> env);
 
     public static class Atom extends LipsNotation {
         private final String value;
+        // Parsed literal, shared through Constants and filled on first evaluation
+        private volatile Apfloat parsed;
 
         public Atom(String value) {
             this.value = value;
@@ -20,8 +33,25 @@ public abstract class LipsNotation {
         }
 
         @Override
-        public Apfloat eval() {
-            return new Apfloat(value, 1000);
+        public Apfloat eval(Map<String, Apfloat> env) {
+            Apfloat bound = env.get(value);
+            if (bound != null) {
+                return bound;
+            }
+            if (!Precision.isDefault()) {
+                long precision = Precision.current();
+                Apfloat named = Constants.named(value, precision);
+                return named != null ? named : Constants.literal(value, Precision.forLiteral(value, precision));
+            }
+            Apfloat p = parsed;
+            if (p == null) {
+                p = Constants.named(value, 1000);
+                if (p == null) {
+                    p = Constants.literal(value, 1000);
+                }
+                parsed = p;
+            }
+            return p;
         }
     }
 
@@ -50,46 +80,111 @@ public abstract class LipsNotation {
             return sb.toString();
         }
 
-        public Apfloat eval() {
+        @Override
+        public Apfloat eval(Map<String, Apfloat> env) {
+            Deadline.check();
             return switch (head) {
-                case "+" -> rest.get(0).eval().add(rest.get(1).eval());
+                case "+" -> rest.get(0).eval(env).add(rest.get(1).eval(env));
                 case "-" -> {
                     if (rest.size() == 1)
-                        yield rest.get(0).eval().negate();
-                    yield rest.get(0).eval().subtract(rest.get(1).eval());
+                        yield rest.get(0).eval(env).negate();
+                    yield rest.get(0).eval(env).subtract(rest.get(1).eval(env));
                 }
-                case "*" -> rest.get(0).eval().multiply(rest.get(1).eval());
+                case "*" -> rest.get(0).eval(env).multiply(rest.get(1).eval(env));
                 case "/" -> {
                     if (rest.size() == 1 || rest.get(1).toString().equals("0")) {
                         throw new RuntimeException("Cannot divide by 0.");
                     }
-                    yield rest.get(0).eval().divide(rest.get(1).eval());
+                    yield rest.get(0).eval(env).divide(rest.get(1).eval(env));
                 }
-                case "%" -> rest.get(0).eval().mod(rest.get(1).eval());
-                case "!" -> factorial(rest.get(0).eval());
-                case "^" -> ApfloatMath.pow(rest.get(0).eval(), rest.get(1).eval());
-                case "sin" -> ApfloatMath.sin(rest.get(0).eval());
-                case "cos" -> ApfloatMath.cos(rest.get(0).eval());
-                case "tan" -> ApfloatMath.tan(rest.get(0).eval());
+                case "%" -> rest.get(0).eval(env).mod(rest.get(1).eval(env));
+                case "!" -> factorial(rest.get(0).eval(env));
+                case "^" -> ApfloatMath.pow(rest.get(0).eval(env), rest.get(1).eval(env));
+                case "sin" -> ApfloatMath.sin(rest.get(0).eval(env));
+                case "cos" -> ApfloatMath.cos(rest.get(0).eval(env));
+                case "tan" -> ApfloatMath.tan(rest.get(0).eval(env));
                 case "log" -> {
                     // support log(x) -> natural log, and log(base, x) -> log base 'base' of x
                     if (rest.size() == 1) {
-                        yield ApfloatMath.log(rest.get(0).eval());
+                        yield ApfloatMath.log(rest.get(0).eval(env));
                     } else if (rest.size() == 2) {
-                        Apfloat base = rest.get(0).eval();
-                        Apfloat val = rest.get(1).eval();
-                        yield ApfloatMath.log(val).divide(ApfloatMath.log(base));
+                        Apfloat base = rest.get(0).eval(env);
+                        Apfloat val = rest.get(1).eval(env);
+                        yield ApfloatMath.log(val).divide(Constants.log(base));
                     } else {
                         throw new RuntimeException("log expects 1 or 2 arguments");
                     }
                 }
-                case "ln" -> ApfloatMath.log(rest.get(0).eval(), ApfloatMath.e(1000));
+                case "ln" -> ApfloatMath.log(rest.get(0).eval(env), Constants.e(Precision.current()));
                 default -> throw new RuntimeException("Unknown operator: " + head);
             };
         }
     }
 
-    private static Apfloat factorial(Apfloat x) {
+    /**
+     * A value computed ahead of time, e.g. a constant subtree folded by {@link TreeOptimizer}.
+     */
+    public static class Const extends LipsNotation {
+        private final Apfloat value;
+
+        public Const(Apfloat value) {
+            this.value = value;
+        }
+
+        public Apfloat value() { return value; }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+
+        @Override
+        public Apfloat eval(Map<String, Apfloat> env) {
+            return value;
+        }
+    }
+
+    /**
+     * Evaluates each binding once, in order, then the body with the bindings in scope.
+     * {@link TreeOptimizer} uses it to share common subexpressions; binding names start
+     * with '$', which the lexer never puts in an identifier.
+     */
+    public static class Let extends LipsNotation {
+        private final List<String> names;
+        private final List<LipsNotation> values;
+        private final LipsNotation body;
+
+        public Let(List<String> names, List<LipsNotation> values, LipsNotation body) {
+            this.names = names;
+            this.values = values;
+            this.body = body;
+        }
+
+        public List<String> names() { return names; }
+        public List<LipsNotation> values() { return values; }
+        public LipsNotation body() { return body; }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(let (");
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) sb.append(" ");
+                sb.append("(").append(names.get(i)).append(" ").append(values.get(i)).append(")");
+            }
+            return sb.append(") ").append(body).append(")").toString();
+        }
+
+        @Override
+        public Apfloat eval(Map<String, Apfloat> env) {
+            Map<String, Apfloat> scope = new HashMap<>(env);
+            for (int i = 0; i < names.size(); i++) {
+                scope.put(names.get(i), values.get(i).eval(scope));
+            }
+            return body.eval(scope);
+        }
+    }
+
+    static Apfloat factorial(Apfloat x) {
         if(x.compareTo(Apfloat.ZERO) < 0 || !x.isInteger()) {
             throw new RuntimeException("Invalid factorial: " + x);
         }
@@ -98,14 +193,10 @@ public abstract class LipsNotation {
             return Apfloat.ONE;
         }
 
-        Apfloat result = Apfloat.ONE;
-        Apfloat i = Apfloat.ONE;
-
-        while(i.compareTo(x) <= 0) {
-            result = result.multiply(i);
-            i = i.add(Apfloat.ONE);
+        if (x.compareTo(new Apfloat(Factorials.MAX_ARGUMENT)) > 0) {
+            throw new RuntimeException("Factorial argument too large: " + x);
         }
 
-        return result;
+        return Factorials.factorial(x.longValue());
     }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Apfloat evaluation that runs independent heavy operands on a fork/join pool. A node whose
+ * operands include at least two with an estimated cost ({@link CostModel}) of threshold or
+ * more forks all but one of those and computes the last itself; everything lighter is
+ * evaluated sequentially as usual. So {@code sin(1) + cos(2) + tan(3)} uses three cores,
+ * while {@code 1 + 2 * 3} never leaves the calling thread.
+ *
+ * Results are identical to {@link LipsNotation#eval()}: each node still applies its
+ * operator to the same operand values, only the order of computing operands changes.
+ */
+public final class ParallelEvaluator {
+
+    private final ForkJoinPool pool;
+    private final long threshold;
+
+    public ParallelEvaluator(ForkJoinPool pool, long threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    public Apfloat evaluate(LipsNotation tree) {
+        return evaluate(tree, Map.of());
+    }
+
+    public Apfloat evaluate(LipsNotation tree, Map<String, Apfloat> env) {
+        Map<LipsNotation, Long> costs = CostModel.subtreeCosts(tree, 1000);
+        // Fewer than two heavy operands anywhere means nothing to run side by side
+        if (costs.get(tree) < 2 * threshold) {
+            return tree.eval(env);
+        }
+        try {
+            return pool.invoke(new Task(tree, env, costs, Deadline.current(), Precision.current()));
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    private final class Task extends RecursiveTask<Apfloat> {
+        private final LipsNotation node;
+        private final Map<String, Apfloat> env;
+        private final Map<LipsNotation, Long> costs;
+        // Pool threads do not inherit the caller's deadline and precision, so they travel with the task
+        private final Deadline deadline;
+        private final long precision;
+
+        Task(LipsNotation node, Map<String, Apfloat> env, Map<LipsNotation, Long> costs, Deadline deadline,
+             long precision) {
+            this.node = node;
+            this.env = env;
+            this.costs = costs;
+            this.deadline = deadline;
+            this.precision = precision;
+        }
+
+        @Override
+        protected Apfloat compute() {
+            if (Precision.current() != precision) {
+                return Precision.at(precision, this::withDeadline);
+            }
+            return withDeadline();
+        }
+
+        private Apfloat withDeadline() {
+            if (deadline != null && Deadline.current() != deadline) {
+                return deadline.run(this::evaluate);
+            }
+            return evaluate();
+        }
+
+        private Apfloat evaluate() {
+            if (node instanceof LipsNotation.Let) {
+                return evaluateLet((LipsNotation.Let) node);
+            }
+            if (!(node instanceof LipsNotation.Cons) || cost(node) < threshold) {
+                return node.eval(env);
+            }
+            LipsNotation.Cons cons = (LipsNotation.Cons) node;
+            List<LipsNotation> rest = cons.rest();
+
+            int heavy = 0;
+            for (LipsNotation child : rest) {
+                if (cost(child) >= threshold) heavy++;
+            }
+
+            Apfloat[] values = new Apfloat[rest.size()];
+            List<Task> forked = new ArrayList<>(Math.max(heavy - 1, 0));
+            int[] forkedIndex = new int[Math.max(heavy - 1, 0)];
+            int lastHeavy = -1;
+            for (int i = 0; i < rest.size(); i++) {
+                LipsNotation child = rest.get(i);
+                if (cost(child) < threshold) continue;
+                if (heavy > 1 && forked.size() < heavy - 1) {
+                    Task task = new Task(child, env, costs, deadline, precision);
+                    forkedIndex[forked.size()] = i;
+                    forked.add(task);
+                    task.fork();
+                } else {
+                    lastHeavy = i;
+                }
+            }
+            // Light operands and the one heavy operand not forked, on this thread
+            for (int i = 0; i < rest.size(); i++) {
+                LipsNotation child = rest.get(i);
+                if (i == lastHeavy) {
+                    values[i] = new Task(child, env, costs, deadline, precision).evaluate();
+                } else if (cost(child) < threshold) {
+                    values[i] = child.eval(env);
+                }
+            }
+            for (int f = 0; f < forked.size(); f++) {
+                try {
+                    values[forkedIndex[f]] = forked.get(f).join();
+                } catch (RuntimeException e) {
+                    throw unwrap(e);
+                }
+            }
+            return apply(cons.head(), values);
+        }
+
+        private Apfloat evaluateLet(LipsNotation.Let let) {
+            // Bindings in order, each possibly in parallel inside; the map is only written
+            // between evaluations, never while tasks read it
+            Map<String, Apfloat> scope = new HashMap<>(env);
+            for (int i = 0; i < let.names().size(); i++) {
+                scope.put(let.names().get(i), new Task(let.values().get(i), scope, costs, deadline, precision).evaluate());
+            }
+            return new Task(let.body(), scope, costs, deadline, precision).evaluate();
+        }
+
+        private long cost(LipsNotation n) {
+            Long cost = costs.get(n);
+            return cost != null ? cost : 0;
+        }
+    }
+
+    // A task failing on another thread is rethrown as a copy of its exception wrapping the
+    // original; callers should see the original, message included
+    private static RuntimeException unwrap(RuntimeException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException && cause.getClass() == e.getClass()) {
+            return (RuntimeException) cause;
+        }
+        return e;
+    }
+
+    // Same operator semantics (and errors) as LipsNotation.Cons on already computed operands
+    private static Apfloat apply(String head, Apfloat[] values) {
+        List<LipsNotation> operands = new ArrayList<>(values.length);
+        for (Apfloat v : values) {
+            operands.add(new LipsNotation.Const(v));
+        }
+        return new LipsNotation.Cons(head, operands).eval();
+    }
+}
@@ -0,0 +1,274 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output of {@link Parser#parse(String)}: either a function definition (`f(x) = ...`,
+ * `y = ...`) kept as its RHS text, or a LipsNotation tree ready to be evaluated.
+ * Instances are immutable and safe to share between requests.
+ */
+public final class ParsedExpression {
+    private final String funcName;
+    private final String funcParam;
+    private final String funcExpr;
+    private final LipsNotation tree;
+    private final int nodeCount;
+    private final int depth;
+    private final int tokenCount;
+    private final long lexNanos;
+    private final long parseNanos;
+    private final Map<String, Integer> operatorCounts;
+    private final long cost;
+    private final List<String> variables;
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private volatile CompiledExpression compiled;
+    private volatile LipsNotation funcBody;
+    private volatile TreeOptimizer.Result optimized;
+    private volatile FlatTree flat;
+    private volatile byte[] canonicalDigest;
+
+    private ParsedExpression(String funcName, String funcParam, String funcExpr, LipsNotation tree,
+                             int tokenCount, long lexNanos, long parseNanos) {
+        this.funcName = funcName;
+        this.funcParam = funcParam;
+        this.funcExpr = funcExpr;
+        this.tree = tree;
+        this.nodeCount = tree == null ? 0 : TreeOptimizer.countNodes(tree);
+        this.depth = tree == null ? 0 : depth(tree);
+        this.tokenCount = tokenCount;
+        this.lexNanos = lexNanos;
+        this.parseNanos = parseNanos;
+        this.operatorCounts = tree == null ? Map.of() : countOperators(tree);
+        this.cost = tree == null ? 0 : CostModel.estimate(tree, 1000);
+        this.variables = tree == null ? List.of() : collectVariables(tree);
+    }
+
+    static ParsedExpression ofFunction(String funcName, String funcParam, String funcExpr) {
+        return new ParsedExpression(funcName, funcParam, funcExpr, null, 0, 0, 0);
+    }
+
+    static ParsedExpression ofTree(LipsNotation tree) {
+        return new ParsedExpression(null, null, null, tree, 0, 0, 0);
+    }
+
+    static ParsedExpression ofTree(LipsNotation tree, int tokenCount, long lexNanos, long parseNanos) {
+        return new ParsedExpression(null, null, null, tree, tokenCount, lexNanos, parseNanos);
+    }
+
+    public boolean isFunction() { return tree == null; }
+    public String funcName() { return funcName; }
+    public String funcParam() { return funcParam; }
+    public String funcExpr() { return funcExpr; }
+    public LipsNotation tree() { return tree; }
+
+    /**
+     * The tree after {@link TreeOptimizer}, computed on first use. This is what the Apfloat
+     * and compiled paths evaluate; the double fast path uses the raw {@link #tree()} so that
+     * constant expressions are not folded at full precision when doubles will do.
+     */
+    public LipsNotation optimized() {
+        TreeOptimizer.Result r = optimized;
+        if (r == null && tree != null) {
+            r = TreeOptimizer.optimize(tree);
+            optimized = r;
+        }
+        return r == null ? null : r.tree();
+    }
+
+    /**
+     * The raw tree as a {@link FlatTree}, converted on first use.
+     */
+    public FlatTree flat() {
+        FlatTree f = flat;
+        if (f == null && tree != null) {
+            f = FlatTree.of(tree);
+            flat = f;
+        }
+        return f;
+    }
+
+    /**
+     * {@link CanonicalForm} digest of the tree, computed on first use.
+     */
+    public byte[] canonicalDigest() {
+        byte[] d = canonicalDigest;
+        if (d == null && tree != null) {
+            d = CanonicalForm.digest(flat());
+            canonicalDigest = d;
+        }
+        return d == null ? null : d.clone();
+    }
+
+    /**
+     * Nodes removed by the optimiser, or 0 if the tree has not been optimised yet.
+     */
+    public int nodesRemoved() {
+        TreeOptimizer.Result r = optimized;
+        return r == null ? 0 : r.nodesRemoved();
+    }
+
+    /**
+     * Parsed RHS of a function definition, with the parameter left as a free identifier.
+     * Parsed on first use and then kept, so cached definitions are only parsed once.
+     */
+    public LipsNotation funcBody() {
+        if (!isFunction()) {
+            throw new IllegalStateException("Not a function definition");
+        }
+        LipsNotation body = funcBody;
+        if (body == null) {
+            body = Parser.expr(funcExpr);
+            funcBody = body;
+        }
+        return body;
+    }
+    public int nodeCount() { return nodeCount; }
+
+    /**
+     * Nesting depth of the tree: 1 for an atom, one more per level of operators. Everything
+     * done while parsing walks the tree with loops, but the evaluators recurse, so callers
+     * that evaluate should refuse trees deeper than their threads' stacks allow.
+     */
+    public int depth() { return depth; }
+    public int tokenCount() { return tokenCount; }
+    public long lexNanos() { return lexNanos; }
+    public long parseNanos() { return parseNanos; }
+
+    /**
+     * How often each operator head (+, ^, sin, !, ...) occurs in the tree.
+     */
+    public Map<String, Integer> operatorCounts() { return operatorCounts; }
+
+    /**
+     * Estimated Apfloat evaluation work, see {@link CostModel}.
+     */
+    public long cost() { return cost; }
+
+    /**
+     * Estimated work with the variables bound to the given values, which can be far more than
+     * {@link #cost()} (e.g. {@code x!} with a large x).
+     */
+    public long cost(Map<String, Apfloat> bindings) {
+        return tree == null || bindings.isEmpty() ? cost : CostModel.estimate(tree, 1000, bindings);
+    }
+
+    /**
+     * Free identifiers of the tree in alphabetical order, i.e. atoms that are neither numbers
+     * nor named constants. They need a binding for the expression to evaluate.
+     */
+    public List<String> variables() { return variables; }
+
+    /**
+     * Compiled form of the tree, or null until {@link #compile()} has been called.
+     */
+    public CompiledExpression compiled() { return compiled; }
+
+    /**
+     * Compile the tree with {@link ExpressionCompiler}. Idempotent; concurrent callers may
+     * both compile but end up using an equivalent result.
+     */
+    public CompiledExpression compile() {
+        CompiledExpression c = compiled;
+        if (c == null && tree != null) {
+            c = ExpressionCompiler.compile(optimized());
+            compiled = c;
+        }
+        return c;
+    }
+
+    /**
+     * Count one more evaluation of this instance and return the new total. Used to decide
+     * when an expression is hot enough to be worth compiling.
+     */
+    public int recordEvaluation() {
+        return evaluations.incrementAndGet();
+    }
+
+    /**
+     * Rough retained size used for cache eviction: one unit per tree node, or per
+     * character of the RHS for function definitions.
+     */
+    public int weight() {
+        return isFunction() ? Math.max(1, funcExpr.length()) : nodeCount;
+    }
+
+    // The walks below use loops rather than recursion, as a tree can be nested deeper than
+    // the thread stack (see IterativeParser)
+
+    /**
+     * Nesting depth of tree, see {@link #depth()}.
+     */
+    public static int depth(LipsNotation tree) {
+        int max = 0;
+        Deque<LipsNotation> nodes = new ArrayDeque<>();
+        Deque<Integer> levels = new ArrayDeque<>();
+        nodes.push(tree);
+        levels.push(1);
+        while (!nodes.isEmpty()) {
+            LipsNotation node = nodes.pop();
+            int level = levels.pop();
+            max = Math.max(max, level);
+            for (LipsNotation child : children(node)) {
+                nodes.push(child);
+                levels.push(level + 1);
+            }
+        }
+        return max;
+    }
+
+    private static List<LipsNotation> children(LipsNotation node) {
+        if (node instanceof LipsNotation.Cons) {
+            return ((LipsNotation.Cons) node).rest();
+        }
+        if (node instanceof LipsNotation.Let) {
+            LipsNotation.Let let = (LipsNotation.Let) node;
+            List<LipsNotation> children = new ArrayList<>(let.values());
+            children.add(let.body());
+            return children;
+        }
+        return List.of();
+    }
+
+    private static Map<String, Integer> countOperators(LipsNotation tree) {
+        Map<String, Integer> counts = new HashMap<>();
+        Deque<LipsNotation> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            LipsNotation node = pending.pop();
+            if (node instanceof LipsNotation.Cons) {
+                LipsNotation.Cons cons = (LipsNotation.Cons) node;
+                counts.merge(cons.head(), 1, Integer::sum);
+                cons.rest().forEach(pending::push);
+            }
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private static List<String> collectVariables(LipsNotation tree) {
+        TreeSet<String> names = new TreeSet<>();
+        Deque<LipsNotation> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            LipsNotation node = pending.pop();
+            if (node instanceof LipsNotation.Cons) {
+                ((LipsNotation.Cons) node).rest().forEach(pending::push);
+            } else if (node instanceof LipsNotation.Atom) {
+                String name = node.toString();
+                if (Character.isLetter(name.charAt(0)) && !Constants.isNamed(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return List.copyOf(names);
+    }
+}
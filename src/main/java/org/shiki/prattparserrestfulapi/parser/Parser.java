@@ -6,6 +6,7 @@ import org.apfloat.Apfloat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -16,16 +17,31 @@ public class Parser {
     private static final AtomicInteger labelIndex = new AtomicInteger(0);
 
     private static String nextLabel() {
-        int idx = labelIndex.getAndIncrement();
+        return label(labelIndex.getAndIncrement());
+    }
+
+    // A..Z, a..z, then P0, P1, ...
+    static String label(int idx) {
         if (idx < 26) return String.valueOf((char)('A' + idx));
         idx -= 26;
         if (idx < 26) return String.valueOf((char)('a' + idx));
         return "P" + idx; // fallback naming when beyond letters
     }
 
+    // Compiled once; these are matched against the LHS of every top-level assignment
+    private static final Pattern FUNC_PATTERN = Pattern.compile("^([A-Za-z][A-Za-z0-9_]*)\\s*\\(\\s*([A-Za-z])\\s*\\)$");
+    private static final Pattern VAR_PATTERN = Pattern.compile("^([A-Za-z][A-Za-z0-9_]*)$");
+
     public static EvalResult eval(String input) {
-        log.info("Starting evaluation for expression: {}", input);
-    // Do NOT reset the label sequence here — keep labels unique across requests
+        return evaluate(parse(input));
+    }
+
+    /**
+     * Lex and parse an expression without evaluating it. The result holds no per-request
+     * state, so it can be cached and evaluated any number of times.
+     */
+    public static ParsedExpression parse(String input) {
+        log.info("Parsing expression: {}", input);
 
         // Quick check: detect a top-level assignment like `y = ...` or `f(x) = ...`
         // We scan characters and find an '=' that is not inside parentheses.
@@ -39,20 +55,18 @@ public class Parser {
                 String rhs = input.substring(i + 1).trim();
 
                 // function form: name(param)
-                Pattern funcPat = Pattern.compile("^([A-Za-z][A-Za-z0-9_]*)\\s*\\(\\s*([A-Za-z])\\s*\\)$");
-                Matcher m = funcPat.matcher(lhs);
+                Matcher m = FUNC_PATTERN.matcher(lhs);
                 if (m.find()) {
                     String name = m.group(1);
                     String param = m.group(2);
-                    return EvalResult.ofFunction(name, param, rhs);
+                    return ParsedExpression.ofFunction(name, param, rhs);
                 }
 
                 // variable assignment like `y = expr` -> treat as function of x
-                Pattern varPat = Pattern.compile("^([A-Za-z][A-Za-z0-9_]*)$");
-                Matcher m2 = varPat.matcher(lhs);
+                Matcher m2 = VAR_PATTERN.matcher(lhs);
                 if (m2.find()) {
                     String name = m2.group(1);
-                    return EvalResult.ofFunction(name, "x", rhs);
+                    return ParsedExpression.ofFunction(name, "x", rhs);
                 }
 
                 // otherwise break and fall back to normal parsing
@@ -60,7 +74,33 @@ public class Parser {
             }
         }
 
-        LipsNotation ln = expr(input);
+        // Timed separately so lexing and parsing cost can be reported per phase
+        long start = System.nanoTime();
+        ArrayLexer lexer = new ArrayLexer(input);
+        long lexed = System.nanoTime();
+        LipsNotation tree = expr(lexer);
+        long parsed = System.nanoTime();
+        return ParsedExpression.ofTree(tree, lexer.size(), lexed - start, parsed - lexed);
+    }
+
+    public static EvalResult evaluate(ParsedExpression parsed) {
+        return evaluate(parsed, Map.of());
+    }
+
+    /**
+     * Evaluate with values for the expression's free variables. Bound expressions always run
+     * through the interpreter; the compiled form has its atoms baked in.
+     */
+    public static EvalResult evaluate(ParsedExpression parsed, Map<String, Apfloat> env) {
+        if (parsed.isFunction()) {
+            return EvalResult.ofFunction(parsed.funcName(), parsed.funcParam(), parsed.funcExpr());
+        }
+
+        // Folded constants and the compiled form are at the default precision; computing them
+        // only to round them away would cost more than evaluating the tree as written
+        boolean defaultPrecision = Precision.isDefault();
+        LipsNotation ln = defaultPrecision ? parsed.optimized() : parsed.tree();
+        // Do NOT reset the label sequence here — keep labels unique across requests
 
         // If the expression is a tuple like (x,y) we return an auto-labelled point
         if (ln instanceof LipsNotation.Cons) {
@@ -68,8 +108,8 @@ public class Parser {
 
             // tuple case produced by parser (head == "tuple")
             if ("tuple".equals(c.head()) && c.rest().size() == 2) {
-                Apfloat x = c.rest().get(0).eval();
-                Apfloat y = c.rest().get(1).eval();
+                Apfloat x = c.rest().get(0).eval(env);
+                Apfloat y = c.rest().get(1).eval(env);
                 String label = nextLabel();
                 return EvalResult.ofPoint(label, x, y);
             }
@@ -77,20 +117,112 @@ public class Parser {
             // Explicit labeled point: A(x,y)
             String head = c.head();
             if (head != null && head.matches("[A-Za-z]") && c.rest().size() == 2) {
-                Apfloat x = c.rest().get(0).eval();
-                Apfloat y = c.rest().get(1).eval();
+                Apfloat x = c.rest().get(0).eval(env);
+                Apfloat y = c.rest().get(1).eval(env);
                 return EvalResult.ofPoint(head, x, y);
             }
         }
 
-        // Fallback: numeric evaluation
-        Apfloat numeric = ln.eval();
+        // Fallback: numeric evaluation, through the compiled form once there is one
+        CompiledExpression compiled = parsed.compiled();
+        if (compiled != null && compiled.isCompiled() && env.isEmpty() && defaultPrecision) {
+            return EvalResult.ofNumber(compiled.evaluate(), EvalResult.ENGINE_COMPILED, null);
+        }
+        Apfloat numeric = ln.eval(env);
         return EvalResult.ofNumber(numeric);
     }
 
-    private static LipsNotation expr(String input) {
-        Lexer lexer = new Lexer(input);
-        return exprBP(lexer, 0);
+    /**
+     * Like {@link #evaluate(ParsedExpression)}, but numeric expressions are first computed in
+     * doubles. The double is returned when it is exact or its relative error bound is within
+     * {@code tolerance}; otherwise (or on overflow, NaN, identifiers, ...) the regular
+     * Apfloat path runs.
+     */
+    public static EvalResult evaluateFast(ParsedExpression parsed, double tolerance) {
+        if (parsed.isFunction() || isPoint(parsed.tree())) {
+            return evaluate(parsed);
+        }
+        try {
+            DoubleEvaluator.Result r = DoubleEvaluator.evaluate(parsed.tree());
+            if (r.errorBound() <= tolerance) {
+                return EvalResult.ofNumber(new Apfloat(r.value()), EvalResult.ENGINE_DOUBLE, r.errorBound());
+            }
+            log.debug("Double result for {} has error bound {} > {}, falling back", parsed.tree(), r.errorBound(), tolerance);
+        } catch (DoubleEvaluator.Unsupported e) {
+            log.debug("Double path unsupported for {}: {}", parsed.tree(), e.getMessage());
+        }
+        return evaluate(parsed);
+    }
+
+    /**
+     * Evaluate with independent heavy subtrees on evaluator's fork/join pool. Works on the
+     * raw tree: constant folding would compute those subtrees sequentially first.
+     * Definitions and points go through {@link #evaluate(ParsedExpression)}.
+     */
+    public static EvalResult evaluateParallel(ParsedExpression parsed, ParallelEvaluator evaluator) {
+        if (parsed.isFunction() || isPoint(parsed.tree())) {
+            return evaluate(parsed);
+        }
+        return EvalResult.ofNumber(evaluator.evaluate(parsed.tree()), EvalResult.ENGINE_PARALLEL, null);
+    }
+
+    /**
+     * Evaluate the {@link FlatTree} form of the expression. Definitions and points go
+     * through {@link #evaluate(ParsedExpression)}.
+     */
+    public static EvalResult evaluateFlat(ParsedExpression parsed) {
+        if (parsed.isFunction() || isPoint(parsed.tree())) {
+            return evaluate(parsed);
+        }
+        return EvalResult.ofNumber(parsed.flat().evaluate(), EvalResult.ENGINE_FLAT, null);
+    }
+
+    // Mirrors the tuple / labelled point detection in evaluate()
+    static boolean isPoint(LipsNotation ln) {
+        if (!(ln instanceof LipsNotation.Cons)) return false;
+        LipsNotation.Cons c = (LipsNotation.Cons) ln;
+        return c.rest().size() == 2 && ("tuple".equals(c.head()) || c.head().matches("[A-Za-z]"));
+    }
+
+    /**
+     * Parse an expression straight into a {@link FlatTree}, without building LipsNotation
+     * nodes first.
+     *
+     * @throws IllegalArgumentException for definitions, which have no flat form
+     */
+    public static FlatTree parseFlat(String input) {
+        if (input.indexOf('=') >= 0) {
+            throw new IllegalArgumentException("Definitions have no flat form: " + input);
+        }
+        FlatTree.Builder builder = new FlatTree.Builder();
+        ArrayLexer lexer = new ArrayLexer(input);
+        int root = IterativeParser.parse(lexer, builder);
+        requireEnd(lexer);
+        return builder.build(root);
+    }
+
+    static LipsNotation expr(String input) {
+        return expr(new ArrayLexer(input));
+    }
+
+    /**
+     * Parse one expression. An {@link ArrayLexer} goes through {@link IterativeParser}:
+     * linear time and no limit on nesting depth. The recursive parser below is kept for the
+     * token-list {@link Lexer} and as the reference the iterative one is tested against.
+     */
+    static LipsNotation expr(Lexer lexer) {
+        LipsNotation tree = lexer instanceof ArrayLexer ? IterativeParser.parse(lexer) : exprBP(lexer, 0);
+        requireEnd(lexer);
+        return tree;
+    }
+
+    // An expression stops at the first token that cannot continue it ("1 2", "2 x", "1)");
+    // anything left over is an error rather than silently dropped
+    private static void requireEnd(Lexer lexer) {
+        Token rest = lexer.peek();
+        if (rest.type != Token.Type.EoF) {
+            throw new RuntimeException("Unexpected token after the end of the expression: " + rest);
+        }
     }
 
     private static LipsNotation exprBP(Lexer lexer, int min_bp) {
@@ -265,33 +397,48 @@ public class Parser {
                 LipsNotation rhs = exprBP(lexer, infix_bp.r_bp);
                 lhs = new LipsNotation.Cons(next.value, Arrays.asList(lhs, rhs));
             }
+
+            // An atom right after a complete operand ("1 2", "sin 2") ends the expression;
+            // expr() reports it as left over
+            else {
+                break;
+            }
         }
 
         log.debug("Exiting exprBP, returning LHS: {}", lhs);
         return lhs;
     }
 
-    private static BindingPower postfix_binding_power(String op) {
+    // Shared instances so binding-power lookups do not allocate on every token
+    private static final BindingPower BP_FACTORIAL = new BindingPower(7, 0);
+    private static final BindingPower BP_SUM = new BindingPower(1, 3);
+    private static final BindingPower BP_PRODUCT = new BindingPower(3, 4);
+    private static final BindingPower BP_MOD = new BindingPower(4, 5);
+    private static final BindingPower BP_POW = new BindingPower(5, 6);
+    private static final BindingPower BP_SIGN = new BindingPower(0, 5);
+    private static final BindingPower BP_SUBSCRIPT = new BindingPower(0, 7);
+
+    static BindingPower postfix_binding_power(String op) {
         return switch (op) {
-            case "!"-> new BindingPower(7, 0);
+            case "!"-> BP_FACTORIAL;
             default -> null;
         };
     }
 
-    private static BindingPower infix_binding_power(String op) {
+    static BindingPower infix_binding_power(String op) {
         return switch (op) {
-            case "+", "-" -> new BindingPower(1, 3);
-            case "*", "/" -> new BindingPower(3, 4);
-            case "%" -> new BindingPower(4, 5);
-            case "^" -> new BindingPower(5, 6);
+            case "+", "-" -> BP_SUM;
+            case "*", "/" -> BP_PRODUCT;
+            case "%" -> BP_MOD;
+            case "^" -> BP_POW;
             default -> null;
         };
     }
 
-    private static BindingPower prefix_binding_power(String op) {
+    static BindingPower prefix_binding_power(String op) {
         return switch (op) {
-            case "+", "-" -> new BindingPower(0, 5);
-            case "_" -> new BindingPower(0, 7);
+            case "+", "-" -> BP_SIGN;
+            case "_" -> BP_SUBSCRIPT;
             default -> throw new RuntimeException("Bad op: " + op);
         };
     }
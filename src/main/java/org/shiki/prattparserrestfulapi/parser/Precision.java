@@ -0,0 +1,138 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+import java.math.RoundingMode;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Working precision, in significant digits, of the evaluation running on the current thread.
+ * Named constants are created at this precision, and Apfloat carries it through every
+ * operation, so asking for 12 digits computes sin, ln, ... with about 12 digits instead of
+ * computing 1000 and throwing most of them away. Integer literals are exact and get extra
+ * precision on top, see {@link #forLiteral}.
+ *
+ * Apfloat also tracks how many digits of a result are still significant, which drops when
+ * nearly equal values are subtracted. {@link #run(long, Supplier, ToLongFunction)} uses that
+ * to go to a higher precision when the first one was not enough.
+ *
+ * Without {@link #run} the precision is {@link #DEFAULT}, which is what the cached constants,
+ * constant folding and the compiled form are built for.
+ */
+public final class Precision {
+
+    public static final long DEFAULT = 1000;
+
+    // Digits computed beyond the ones asked for, so the last one rounds correctly
+    static final long GUARD_DIGITS = 10;
+
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private Precision() {}
+
+    public static long current() {
+        Long precision = CURRENT.get();
+        return precision != null ? precision : DEFAULT;
+    }
+
+    public static boolean isDefault() {
+        return CURRENT.get() == null;
+    }
+
+    /**
+     * Run work once at the precision for a result of digits significant digits, with no
+     * check that the result has them; for work whose result is not a number.
+     */
+    public static <T> T run(long digits, Supplier<T> work) {
+        return at(working(digits), work);
+    }
+
+    /**
+     * Run work for a result of digits significant digits. It runs first at digits plus
+     * {@link #GUARD_DIGITS}, and again at twice the precision for as long as significant says
+     * the result has fewer than digits left, e.g. 2^80 + 1 - 2^80, where the 1 is lost
+     * below 25 digits. A zero goes straight to {@link #DEFAULT}: it is usually a genuine
+     * zero, which doubling would re-run at every step. At DEFAULT the result is taken as it is.
+     */
+    public static <T> T run(long digits, Supplier<T> work, ToLongFunction<T> significant) {
+        long precision = working(digits);
+        while (true) {
+            T result = at(precision, work);
+            long left = precision >= DEFAULT ? digits : significant.applyAsLong(result);
+            if (left >= digits) {
+                return result;
+            }
+            precision = left == 0 ? DEFAULT : Math.min(precision * 2, DEFAULT);
+        }
+    }
+
+    /**
+     * Significant digits of value. Zero counts as none: at a reduced precision it may be all
+     * that is left of a difference whose digits cancelled, as in 1 + 10^-30 - 1.
+     */
+    public static long significant(Apfloat value) {
+        return value.signum() == 0 ? 0 : value.precision();
+    }
+
+    /**
+     * Significant digits of a number or of the less precise coordinate of a point; a
+     * function definition has no digits to lose.
+     */
+    public static long significant(EvalResult result) {
+        if (result.number() != null) {
+            return significant(result.number());
+        }
+        if (result.x() != null && result.y() != null) {
+            return Math.min(significant(result.x()), significant(result.y()));
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Working precision for a result of digits significant digits, before any retry.
+     */
+    public static long working(long digits) {
+        return Math.min(digits + GUARD_DIGITS, DEFAULT);
+    }
+
+    /**
+     * Precision for an integer literal at the given working precision. The literal is exact,
+     * so it can be given any precision of at least its length; its length plus the working
+     * precision keeps working-precision digits even when all of its own digits cancel, as in
+     * 100000000000000000000000001 - 100000000000000000000000000.
+     */
+    static long forLiteral(String text, long precision) {
+        return precision + text.length();
+    }
+
+    // Installs an exact working precision, e.g. the caller's on a fork/join worker
+    static <T> T at(long precision, Supplier<T> work) {
+        Long previous = CURRENT.get();
+        if (precision == DEFAULT) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(precision);
+        }
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * value rounded to digits significant digits; exact zero stays zero.
+     */
+    public static Apfloat round(Apfloat value, long digits, RoundingMode mode) {
+        if (value == null || value.signum() == 0) {
+            return value;
+        }
+        return ApfloatMath.roundToPrecision(value, digits, mode);
+    }
+}
@@ -3,6 +3,16 @@ package org.shiki.prattparserrestfulapi.parser;
 public class Token {
     enum Type {ATOM, OP, EoF}
 
+    // Tokens are immutable, so EOF and single-character ASCII operators are shared
+    private static final Token EOF = new Token(Type.EoF, "\0");
+    private static final Token[] ASCII_OPS = new Token[128];
+
+    static {
+        for (char c = 0; c < ASCII_OPS.length; c++) {
+            ASCII_OPS[c] = new Token(Type.OP, String.valueOf(c).intern());
+        }
+    }
+
     final Type type;
     final String value;
 
@@ -12,7 +22,7 @@ public class Token {
     }
 
     static Token eof() {
-        return new Token(Type.EoF, "\0");
+        return EOF;
     }
 
     static Token atom(String c) {
@@ -20,9 +30,16 @@ public class Token {
     }
 
     static Token op(String c) {
+        if (c.length() == 1 && c.charAt(0) < ASCII_OPS.length) {
+            return ASCII_OPS[c.charAt(0)];
+        }
         return new Token(Type.OP, c);
     }
 
+    static Token op(char c) {
+        return c < ASCII_OPS.length ? ASCII_OPS[c] : new Token(Type.OP, String.valueOf(c));
+    }
+
     @Override
     public String toString() {
         return "Token(" + type + ", '" + value + "')";
@@ -0,0 +1,225 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apfloat.Apfloat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a parsed tree before evaluation:
+ * <ul>
+ *     <li>constant subtrees are evaluated once and replaced by {@link LipsNotation.Const};</li>
+ *     <li>x*1, 1*x, x+0, 0+x, x-0, x/1 and x^1 become x;</li>
+ *     <li>structurally identical subtrees are merged, and those used more than once are
+ *     bound in a {@link LipsNotation.Let} so they are evaluated once per evaluation.</li>
+ * </ul>
+ * A subtree whose folding throws is left as it is, so the error still surfaces at
+ * evaluation time with the usual message; only running out of time propagates. Tuples and
+ * points keep their top-level shape; each component is optimised on its own.
+ */
+@Slf4j
+public final class TreeOptimizer {
+
+    private static final Set<String> FOLDABLE = Set.of(
+            "+", "-", "*", "/", "%", "!", "^", "sin", "cos", "tan", "log", "ln");
+
+    /**
+     * @param tree         the optimised tree
+     * @param nodesRemoved how many fewer nodes evaluation visits (shared subexpressions are
+     *                     counted once, references to them not at all)
+     */
+    public record Result(LipsNotation tree, int nodesRemoved) {}
+
+    private final Map<Object, LipsNotation> canonical = new HashMap<>();
+    private final Map<LipsNotation, Integer> uses = new IdentityHashMap<>();
+
+    private TreeOptimizer() {}
+
+    public static Result optimize(LipsNotation tree) {
+        int before = countNodes(tree);
+        LipsNotation optimized;
+        if (Parser.isPoint(tree)) {
+            LipsNotation.Cons point = (LipsNotation.Cons) tree;
+            List<LipsNotation> parts = new ArrayList<>(point.rest().size());
+            for (LipsNotation part : point.rest()) {
+                parts.add(new TreeOptimizer().run(part));
+            }
+            optimized = new LipsNotation.Cons(point.head(), parts);
+        } else {
+            optimized = new TreeOptimizer().run(tree);
+        }
+        int removed = before - countNodes(optimized);
+        log.debug("Optimised {} -> {} ({} nodes removed)", tree, optimized, removed);
+        return new Result(optimized, removed);
+    }
+
+    private LipsNotation run(LipsNotation tree) {
+        LipsNotation root = intern(simplify(tree));
+        countUses(root, new IdentityHashMap<>());
+
+        // Bind every non-leaf node referenced more than once. Post-order guarantees a
+        // binding only refers to bindings made before it.
+        List<String> names = new ArrayList<>();
+        List<LipsNotation> values = new ArrayList<>();
+        Map<LipsNotation, LipsNotation> replacements = new IdentityHashMap<>();
+        LipsNotation body = share(root, replacements, names, values);
+        if (names.isEmpty()) {
+            return body;
+        }
+        return new LipsNotation.Let(names, values, body);
+    }
+
+    // Bottom-up constant folding and algebraic identities
+    private static LipsNotation simplify(LipsNotation node) {
+        if (!(node instanceof LipsNotation.Cons)) {
+            return node;
+        }
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        List<LipsNotation> rest = new ArrayList<>(cons.rest().size());
+        boolean constant = FOLDABLE.contains(cons.head());
+        for (LipsNotation child : cons.rest()) {
+            LipsNotation simplified = simplify(child);
+            rest.add(simplified);
+            constant &= isConstant(simplified);
+        }
+        LipsNotation rebuilt = new LipsNotation.Cons(cons.head(), rest);
+
+        if (constant) {
+            try {
+                return new LipsNotation.Const(rebuilt.eval());
+            } catch (EvaluationCancelledException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                return rebuilt;
+            }
+        }
+
+        if (rest.size() == 2) {
+            LipsNotation a = rest.get(0);
+            LipsNotation b = rest.get(1);
+            switch (cons.head()) {
+                case "*":
+                    if (isValue(b, 1)) return a;
+                    if (isValue(a, 1)) return b;
+                    break;
+                case "+":
+                    if (isValue(b, 0)) return a;
+                    if (isValue(a, 0)) return b;
+                    break;
+                case "-":
+                    if (isValue(b, 0)) return a;
+                    break;
+                case "/":
+                case "^":
+                    if (isValue(b, 1)) return a;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return rebuilt;
+    }
+
+    private static boolean isConstant(LipsNotation node) {
+        if (node instanceof LipsNotation.Const) return true;
+        if (node instanceof LipsNotation.Atom) {
+            String s = node.toString();
+            return !s.isEmpty() && Character.isDigit(s.charAt(0));
+        }
+        return false;
+    }
+
+    private static boolean isValue(LipsNotation node, int expected) {
+        if (!isConstant(node)) return false;
+        try {
+            Apfloat v = node instanceof LipsNotation.Const ? ((LipsNotation.Const) node).value() : node.eval();
+            return v.equals(new Apfloat(expected));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // Hash-consing: structurally equal subtrees become the same object
+    private LipsNotation intern(LipsNotation node) {
+        Object key;
+        if (node instanceof LipsNotation.Cons) {
+            LipsNotation.Cons cons = (LipsNotation.Cons) node;
+            List<LipsNotation> rest = new ArrayList<>(cons.rest().size());
+            for (LipsNotation child : cons.rest()) {
+                rest.add(intern(child));
+            }
+            // Children are canonical already, so identity-based List.equals is structural
+            key = List.of(cons.head(), rest);
+            node = new LipsNotation.Cons(cons.head(), rest);
+        } else if (node instanceof LipsNotation.Const) {
+            key = List.of("const", ((LipsNotation.Const) node).value());
+        } else {
+            key = node.toString();
+        }
+        LipsNotation existing = canonical.putIfAbsent(key, node);
+        return existing != null ? existing : node;
+    }
+
+    private void countUses(LipsNotation node, Map<LipsNotation, Boolean> visited) {
+        if (!(node instanceof LipsNotation.Cons)) return;
+        for (LipsNotation child : ((LipsNotation.Cons) node).rest()) {
+            uses.merge(child, 1, Integer::sum);
+            if (visited.put(child, Boolean.TRUE) == null) {
+                countUses(child, visited);
+            }
+        }
+    }
+
+    private LipsNotation share(LipsNotation node, Map<LipsNotation, LipsNotation> replacements,
+                               List<String> names, List<LipsNotation> values) {
+        if (!(node instanceof LipsNotation.Cons)) return node;
+        LipsNotation done = replacements.get(node);
+        if (done != null) return done;
+
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        List<LipsNotation> rest = new ArrayList<>(cons.rest().size());
+        for (LipsNotation child : cons.rest()) {
+            rest.add(share(child, replacements, names, values));
+        }
+        LipsNotation rebuilt = new LipsNotation.Cons(cons.head(), rest);
+
+        LipsNotation replacement = rebuilt;
+        if (uses.getOrDefault(node, 0) > 1) {
+            String name = "$" + names.size();
+            names.add(name);
+            values.add(rebuilt);
+            replacement = new LipsNotation.Atom(name);
+        }
+        replacements.put(node, replacement);
+        return replacement;
+    }
+
+    // A loop rather than recursion: this runs on every parse, at any depth
+    static int countNodes(LipsNotation tree) {
+        int count = 0;
+        Deque<LipsNotation> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            LipsNotation node = pending.pop();
+            if (node instanceof LipsNotation.Let) {
+                LipsNotation.Let let = (LipsNotation.Let) node;
+                pending.push(let.body());
+                let.values().forEach(pending::push);
+            } else if (node instanceof LipsNotation.Cons) {
+                count++;
+                ((LipsNotation.Cons) node).rest().forEach(pending::push);
+            } else if (!(node instanceof LipsNotation.Atom && node.toString().startsWith("$"))) {
+                // References to shared subexpressions are just lookups
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,552 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Named definitions that can refer to each other, kept between requests:
+ * <ul>
+ *     <li>values, {@code a = 2 * b};</li>
+ *     <li>functions, {@code f(x) = x ^ 2 + a}, callable from other definitions as {@code f(3)};</li>
+ *     <li>points, {@code P(a, f(a))}, or {@code (1, 2)} with a label from this workspace's own
+ *     sequence rather than the global one.</li>
+ * </ul>
+ * Unlike a stateless evaluation, {@code y = ...} always names a value here; functions are
+ * written with their parameter.
+ *
+ * Every definition records the names it refers to. {@link #define} replaces one definition
+ * and returns it together with everything depending on it, directly or not, in topological
+ * order, and marks those as out of date; {@link #recompute} then evaluates everything out of
+ * date, each against the current values of what it depends on. Recomputations can therefore
+ * run in any order: whichever runs last still leaves every value current. Circular definitions are refused, and so are definitions that would grow
+ * past maxNodes once functions are inlined, since a chain of functions each calling the one
+ * before twice doubles with every link.
+ *
+ * Not thread-safe; callers serialise access per instance.
+ */
+public final class Workspace {
+
+    public enum Kind { VALUE, FUNCTION, POINT }
+
+    /**
+     * A definition and its latest result; result is null and error says why when it failed.
+     */
+    public record Entry(String name, Kind kind, String source, List<String> dependsOn, EvalResult result, String error) {}
+
+    /**
+     * Definitions to recompute after a change, in order, with their summed estimated cost.
+     * Also remembers the definitions from before the change, for {@link #undo}.
+     */
+    public static final class Change {
+        private final List<String> names;
+        private final long cost;
+        private final Map<String, Definition> before;
+        private final int labelIndexBefore;
+        private final Set<String> dirtyBefore;
+
+        private Change(List<String> names, long cost, Map<String, Definition> before, int labelIndexBefore,
+                       Set<String> dirtyBefore) {
+            this.names = names;
+            this.cost = cost;
+            this.before = before;
+            this.labelIndexBefore = labelIndexBefore;
+            this.dirtyBefore = dirtyBefore;
+        }
+
+        public List<String> names() { return names; }
+        public long cost() { return cost; }
+    }
+
+    /**
+     * Runs one definition's evaluation, estimated at cost with the current values of what it
+     * depends on; lets the caller add budget, deadline and metrics.
+     */
+    @FunctionalInterface
+    public interface Evaluation {
+        EvalResult run(ParsedExpression parsed, long cost, Supplier<EvalResult> work);
+    }
+
+    /**
+     * Thrown by {@link #define} when a definition, or one depending on it, would be larger
+     * than maxNodes with workspace functions inlined. The definition is not kept.
+     */
+    public static final class TooLarge extends RuntimeException {
+        private final long size;
+
+        TooLarge(long size, long maxNodes) {
+            super("Too large once functions are inlined (" + size + " nodes, limit " + maxNodes + ")");
+            this.size = size;
+        }
+
+        public long size() { return size; }
+    }
+
+    private static final Set<String> BUILTINS = Set.of("sin", "cos", "tan", "log", "ln", "tuple");
+
+    private static final class Definition {
+        final String name;
+        final Kind kind;
+        final String source;
+        // Value expression, function body, or the point's (head x y)
+        final LipsNotation body;
+        final String param;
+        final Set<String> references;
+        EvalResult result;
+        String error;
+
+        Definition(String name, Kind kind, String source, LipsNotation body, String param, Set<String> references) {
+            this.name = name;
+            this.kind = kind;
+            this.source = source;
+            this.body = body;
+            this.param = param;
+            this.references = references;
+        }
+    }
+
+    private final Evaluation evaluation;
+    private final int maxDepth;
+    private final long maxNodes;
+    private final Map<String, Definition> definitions = new LinkedHashMap<>();
+    // Changed since the last recompute
+    private final Set<String> dirty = new HashSet<>();
+    private int labelIndex;
+
+    public Workspace(Evaluation evaluation, int maxDepth) {
+        this(evaluation, maxDepth, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxDepth deepest definition accepted, also once functions are inlined; the
+     *                 evaluator recurses once per level
+     * @param maxNodes largest definition accepted once functions are inlined, checked before
+     *                 anything is inlined
+     */
+    public Workspace(Evaluation evaluation, int maxDepth, long maxNodes) {
+        this.evaluation = evaluation;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Add or replace the definition in text. Nothing is evaluated yet.
+     *
+     * @throws IllegalArgumentException if text is not a definition, is nested deeper than
+     *                                  maxDepth or would make a cycle
+     * @throws TooLarge                 if it or a dependent would be too large inlined
+     * @throws RuntimeException         if text does not parse
+     */
+    public Change define(String text) {
+        Map<String, Definition> before = new LinkedHashMap<>(definitions);
+        int labelIndexBefore = labelIndex;
+        Definition definition;
+        try {
+            definition = parseDefinition(text);
+        } catch (RuntimeException e) {
+            labelIndex = labelIndexBefore;
+            throw e;
+        }
+        String cycle = cycleThrough(definition);
+        if (cycle != null) {
+            labelIndex = labelIndexBefore;
+            throw new IllegalArgumentException("Circular definition: " + cycle);
+        }
+        definitions.put(definition.name, definition);
+        try {
+            return changeFrom(definition.name, true, before, labelIndexBefore);
+        } catch (TooLarge e) {
+            definitions.clear();
+            definitions.putAll(before);
+            labelIndex = labelIndexBefore;
+            throw e;
+        }
+    }
+
+    /**
+     * Remove a definition; its dependents have to be recomputed (and will fail).
+     *
+     * @return null if there is no such definition
+     */
+    public Change remove(String name) {
+        Map<String, Definition> before = new LinkedHashMap<>(definitions);
+        if (definitions.remove(name) == null) {
+            return null;
+        }
+        return changeFrom(name, false, before, labelIndex);
+    }
+
+    /**
+     * Take back change, which must be the latest one and not recomputed yet, e.g. because its
+     * recomputation could not be scheduled.
+     */
+    public void undo(Change change) {
+        definitions.clear();
+        definitions.putAll(change.before);
+        labelIndex = change.labelIndexBefore;
+        dirty.clear();
+        dirty.addAll(change.dirtyBefore);
+    }
+
+    /**
+     * Evaluate every definition changed since the last recompute, dependencies first, and
+     * return those of change that still exist. A change whose definitions a later one has
+     * already recomputed just gets their current entries.
+     */
+    public List<Entry> recompute(Change change) {
+        dirty.retainAll(definitions.keySet());
+        for (String name : order(dirty)) {
+            evaluate(definitions.get(name));
+        }
+        dirty.clear();
+        List<Entry> entries = new ArrayList<>(change.names().size());
+        for (String name : change.names()) {
+            Definition definition = definitions.get(name);
+            if (definition != null) {
+                entries.add(entry(definition));
+            }
+        }
+        return entries;
+    }
+
+    public Entry get(String name) {
+        Definition definition = definitions.get(name);
+        return definition == null ? null : entry(definition);
+    }
+
+    /**
+     * All definitions, in the order they were first defined.
+     */
+    public List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>(definitions.size());
+        for (Definition definition : definitions.values()) {
+            entries.add(entry(definition));
+        }
+        return entries;
+    }
+
+    public int size() {
+        return definitions.size();
+    }
+
+    private Definition parseDefinition(String text) {
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("Definition is empty");
+        }
+        ParsedExpression parsed = Parser.parse(text);
+        if (parsed.isFunction()) {
+            LipsNotation body = parsed.funcBody();
+            checkDepth(ParsedExpression.depth(body));
+            // Parser reads `y = ...` as a function of x; here only `f(x) = ...` is a function
+            boolean function = text.substring(0, text.indexOf('=')).indexOf('(') >= 0;
+            String param = function ? parsed.funcParam() : null;
+            Set<String> references = new TreeSet<>();
+            collectReferences(body, param, references);
+            return new Definition(parsed.funcName(), function ? Kind.FUNCTION : Kind.VALUE, text.trim(),
+                    body, param, references);
+        }
+        checkDepth(parsed.depth());
+        LipsNotation tree = parsed.tree();
+        if (!Parser.isPoint(tree)) {
+            throw new IllegalArgumentException("Not a definition (expected name = ..., f(x) = ... or a point): " + text);
+        }
+        LipsNotation.Cons point = (LipsNotation.Cons) tree;
+        String name = "tuple".equals(point.head()) ? nextLabel() : point.head();
+        Set<String> references = new TreeSet<>();
+        for (LipsNotation coordinate : point.rest()) {
+            collectReferences(coordinate, null, references);
+        }
+        return new Definition(name, Kind.POINT, text.trim(), point, null, references);
+    }
+
+    private void checkDepth(int depth) {
+        if (depth > maxDepth) {
+            throw new IllegalArgumentException("Definition nested too deeply (depth " + depth + ", limit " + maxDepth + ")");
+        }
+    }
+
+    // Auto labels skip names the client already uses
+    private String nextLabel() {
+        String label;
+        do {
+            label = Parser.label(labelIndex++);
+        } while (definitions.containsKey(label));
+        return label;
+    }
+
+    // Path back to definition's own name through what it refers to, or null
+    private String cycleThrough(Definition definition) {
+        Deque<List<String>> paths = new ArrayDeque<>();
+        Set<String> seen = new HashSet<>();
+        paths.push(List.of(definition.name));
+        while (!paths.isEmpty()) {
+            List<String> path = paths.pop();
+            String last = path.get(path.size() - 1);
+            Set<String> next = last.equals(definition.name) && path.size() == 1
+                    ? definition.references
+                    : referencesOf(last);
+            for (String reference : next) {
+                List<String> extended = new ArrayList<>(path);
+                extended.add(reference);
+                if (reference.equals(definition.name)) {
+                    return String.join(" -> ", extended);
+                }
+                if (seen.add(reference)) {
+                    paths.push(extended);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Set<String> referencesOf(String name) {
+        Definition definition = definitions.get(name);
+        return definition == null ? Set.of() : definition.references;
+    }
+
+    // The changed name (if still defined) and everything depending on it, dependencies first
+    private Change changeFrom(String changed, boolean includeChanged, Map<String, Definition> before,
+                              int labelIndexBefore) {
+        Set<String> affected = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(changed);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            for (Definition definition : definitions.values()) {
+                if (definition.references.contains(name) && affected.add(definition.name)) {
+                    queue.add(definition.name);
+                }
+            }
+        }
+        if (includeChanged) {
+            affected.add(changed);
+        }
+
+        // Priced in order, each with the estimated magnitudes of the values recomputed before it
+        List<String> order = order(affected);
+        Map<String, Double> magnitudes = currentMagnitudes();
+        long cost = 0;
+        for (String name : order) {
+            cost = saturatedAdd(cost, costOf(definitions.get(name), magnitudes));
+        }
+        Set<String> dirtyBefore = new HashSet<>(dirty);
+        dirty.addAll(affected);
+        return new Change(order, cost, before, labelIndexBefore, dirtyBefore);
+    }
+
+    // Kahn's algorithm on the affected subgraph; it is acyclic since define() refuses cycles
+    private List<String> order(Set<String> affected) {
+        Map<String, Integer> pending = new HashMap<>();
+        for (String name : affected) {
+            int count = 0;
+            for (String reference : definitions.get(name).references) {
+                if (affected.contains(reference) && !reference.equals(name)) count++;
+            }
+            pending.put(name, count);
+        }
+        List<String> order = new ArrayList<>(affected.size());
+        // Definition order among independent names keeps the result stable
+        for (String name : definitions.keySet()) {
+            if (pending.getOrDefault(name, -1) == 0) order.add(name);
+        }
+        for (int i = 0; i < order.size(); i++) {
+            String done = order.get(i);
+            for (String name : definitions.keySet()) {
+                Integer count = pending.get(name);
+                if (count != null && count > 0 && definitions.get(name).references.contains(done)) {
+                    pending.put(name, count - 1);
+                    if (count == 1) order.add(name);
+                }
+            }
+        }
+        return order;
+    }
+
+    private Map<String, Double> currentMagnitudes() {
+        Map<String, Double> magnitudes = new HashMap<>();
+        for (Definition definition : definitions.values()) {
+            if (definition.kind == Kind.VALUE && definition.result != null) {
+                magnitudes.put(definition.name, CostModel.log10(definition.result.number()));
+            }
+        }
+        return magnitudes;
+    }
+
+    // Also records the definition's estimated magnitude, if it is a value
+    private long costOf(Definition definition, Map<String, Double> magnitudes) {
+        if (definition.kind == Kind.FUNCTION) return 0;
+        try {
+            double[] estimate = CostModel.costAndMagnitude(resolved(definition), 1000, magnitudes);
+            if (definition.kind == Kind.VALUE) {
+                magnitudes.put(definition.name, estimate[1]);
+            }
+            return (long) estimate[0];
+        } catch (TooLarge e) {
+            throw e;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private void evaluate(Definition definition) {
+        definition.result = null;
+        definition.error = null;
+        if (definition.kind == Kind.FUNCTION) {
+            int eq = definition.source.indexOf('=');
+            definition.result = EvalResult.ofFunction(definition.name, definition.param,
+                    definition.source.substring(eq + 1).trim());
+            return;
+        }
+        try {
+            LipsNotation tree = resolved(definition);
+            Map<String, Apfloat> env = environment(tree);
+            ParsedExpression parsed = ParsedExpression.ofTree(tree);
+            // Names are priced by their values, not as order one: a = 3000000 makes a! expensive
+            long cost = CostModel.estimate(tree, 1000, env);
+            definition.result = evaluation.run(parsed, cost, () -> {
+                if (definition.kind == Kind.POINT) {
+                    LipsNotation.Cons point = (LipsNotation.Cons) tree;
+                    return EvalResult.ofPoint(definition.name,
+                            point.rest().get(0).eval(env), point.rest().get(1).eval(env));
+                }
+                return EvalResult.ofNumber(tree.eval(env));
+            });
+        } catch (RuntimeException e) {
+            definition.error = e.getMessage();
+        }
+    }
+
+    // Body with workspace functions inlined; a point becomes a tuple of its coordinates
+    private LipsNotation resolved(Definition definition) {
+        long size = inlinedSize(definition.body, new HashMap<>());
+        if (size > maxNodes) {
+            throw new TooLarge(size, maxNodes);
+        }
+        int[] fresh = new int[1];
+        if (definition.kind == Kind.POINT) {
+            List<LipsNotation> coordinates = new ArrayList<>(2);
+            for (LipsNotation coordinate : ((LipsNotation.Cons) definition.body).rest()) {
+                coordinates.add(resolve(coordinate, Map.of(), fresh, 2));
+            }
+            return new LipsNotation.Cons("tuple", coordinates);
+        }
+        return resolve(definition.body, Map.of(), fresh, 1);
+    }
+
+    // Values for the free names of a resolved tree, failing on any that has none
+    private Map<String, Apfloat> environment(LipsNotation tree) {
+        Set<String> names = new TreeSet<>();
+        collectReferences(tree, null, names);
+        Map<String, Apfloat> env = new HashMap<>();
+        for (String name : names) {
+            Definition definition = definitions.get(name);
+            if (definition == null) {
+                throw new IllegalArgumentException("Undefined name: " + name);
+            }
+            if (definition.kind != Kind.VALUE) {
+                throw new IllegalArgumentException(name + " is a " + definition.kind.name().toLowerCase() + ", not a value");
+            }
+            if (definition.result == null) {
+                throw new IllegalArgumentException("Depends on failed definition: " + name);
+            }
+            env.put(name, definition.result.number());
+        }
+        return env;
+    }
+
+    // Inline calls to workspace functions as let bindings; parameters get fresh '$' names so
+    // a function body never sees the caller's parameters. Inlining nests bodies inside each
+    // other, so the depth is checked again here.
+    private LipsNotation resolve(LipsNotation node, Map<String, String> renames, int[] fresh, int depth) {
+        if (depth > maxDepth) {
+            throw new IllegalArgumentException("Nested too deeply once functions are inlined (limit " + maxDepth + ")");
+        }
+        if (node instanceof LipsNotation.Atom) {
+            String renamed = renames.get(node.toString());
+            return renamed == null ? node : new LipsNotation.Atom(renamed);
+        }
+        if (!(node instanceof LipsNotation.Cons)) {
+            return node;
+        }
+        LipsNotation.Cons cons = (LipsNotation.Cons) node;
+        List<LipsNotation> rest = new ArrayList<>(cons.rest().size());
+        for (LipsNotation child : cons.rest()) {
+            rest.add(resolve(child, renames, fresh, depth + 1));
+        }
+        Definition function = definitions.get(cons.head());
+        if (function != null && function.kind == Kind.FUNCTION) {
+            if (rest.size() != 1) {
+                throw new IllegalArgumentException(function.name + " takes 1 argument, got " + rest.size());
+            }
+            String name = "$" + fresh[0]++;
+            return new LipsNotation.Let(List.of(name), rest,
+                    resolve(function.body, Map.of(function.param, name), fresh, depth + 1));
+        }
+        return new LipsNotation.Cons(cons.head(), rest);
+    }
+
+    // Nodes resolve() would produce for node, without building them; each function's inlined
+    // size is worked out once
+    private long inlinedSize(LipsNotation node, Map<String, Long> functionSizes) {
+        if (node instanceof LipsNotation.Cons) {
+            LipsNotation.Cons cons = (LipsNotation.Cons) node;
+            long size = 1;
+            for (LipsNotation child : cons.rest()) {
+                size = saturatedAdd(size, inlinedSize(child, functionSizes));
+            }
+            Definition function = definitions.get(cons.head());
+            if (function != null && function.kind == Kind.FUNCTION) {
+                Long body = functionSizes.get(function.name);
+                if (body == null) {
+                    body = inlinedSize(function.body, functionSizes);
+                    functionSizes.put(function.name, body);
+                }
+                size = saturatedAdd(size, body);
+            }
+            return size;
+        }
+        return 1;
+    }
+
+    // Identifiers and called names, minus built-ins, named constants, param and '$' bindings
+    private static void collectReferences(LipsNotation node, String param, Set<String> into) {
+        if (node instanceof LipsNotation.Atom) {
+            String name = node.toString();
+            if (Character.isLetter(name.charAt(0)) && !name.equals(param) && !Constants.isNamed(name)) {
+                into.add(name);
+            }
+        } else if (node instanceof LipsNotation.Cons) {
+            LipsNotation.Cons cons = (LipsNotation.Cons) node;
+            if (Character.isLetter(cons.head().charAt(0)) && !BUILTINS.contains(cons.head())) {
+                into.add(cons.head());
+            }
+            for (LipsNotation child : cons.rest()) {
+                collectReferences(child, param, into);
+            }
+        } else if (node instanceof LipsNotation.Let) {
+            LipsNotation.Let let = (LipsNotation.Let) node;
+            let.values().forEach(value -> collectReferences(value, param, into));
+            collectReferences(let.body(), param, into);
+        }
+    }
+
+    private static Entry entry(Definition definition) {
+        return new Entry(definition.name, definition.kind, definition.source,
+                List.copyOf(definition.references), definition.result, definition.error);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,109 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+/**
+ * The operations {@link Integrator} and {@link RootFinder} need, so each method is written
+ * once and runs either in doubles or in Apfloat at a fixed precision.
+ */
+interface Arithmetic<T> {
+
+    T of(double value);
+
+    T add(T a, T b);
+
+    T subtract(T a, T b);
+
+    T multiply(T a, T b);
+
+    T divide(T a, T b);
+
+    T abs(T a);
+
+    int signum(T a);
+
+    int compare(T a, T b);
+
+    /**
+     * Smallest relative difference between two values, i.e. the machine epsilon.
+     */
+    T epsilon();
+
+    Apfloat toApfloat(T a);
+
+    double toDouble(T a);
+
+    Arithmetic<Double> DOUBLE = new Arithmetic<>() {
+        @Override
+        public Double of(double value) { return value; }
+
+        @Override
+        public Double add(Double a, Double b) { return a + b; }
+
+        @Override
+        public Double subtract(Double a, Double b) { return a - b; }
+
+        @Override
+        public Double multiply(Double a, Double b) { return a * b; }
+
+        @Override
+        public Double divide(Double a, Double b) { return a / b; }
+
+        @Override
+        public Double abs(Double a) { return Math.abs(a); }
+
+        @Override
+        public int signum(Double a) { return (int) Math.signum(a); }
+
+        @Override
+        public int compare(Double a, Double b) { return Double.compare(a, b); }
+
+        @Override
+        public Double epsilon() { return Math.ulp(1.0); }
+
+        @Override
+        public Apfloat toApfloat(Double a) { return new Apfloat(a); }
+
+        @Override
+        public double toDouble(Double a) { return a; }
+    };
+
+    static Arithmetic<Apfloat> apfloat(long precision) {
+        Apfloat epsilon = ApfloatMath.scale(new Apfloat(1, precision), 1 - precision);
+        return new Arithmetic<>() {
+            @Override
+            public Apfloat of(double value) { return new Apfloat(value, precision); }
+
+            @Override
+            public Apfloat add(Apfloat a, Apfloat b) { return a.add(b); }
+
+            @Override
+            public Apfloat subtract(Apfloat a, Apfloat b) { return a.subtract(b); }
+
+            @Override
+            public Apfloat multiply(Apfloat a, Apfloat b) { return a.multiply(b); }
+
+            @Override
+            public Apfloat divide(Apfloat a, Apfloat b) { return a.divide(b); }
+
+            @Override
+            public Apfloat abs(Apfloat a) { return ApfloatMath.abs(a); }
+
+            @Override
+            public int signum(Apfloat a) { return a.signum(); }
+
+            @Override
+            public int compare(Apfloat a, Apfloat b) { return a.compareTo(b); }
+
+            @Override
+            public Apfloat epsilon() { return epsilon; }
+
+            @Override
+            public Apfloat toApfloat(Apfloat a) { return a; }
+
+            @Override
+            public double toDouble(Apfloat a) { return a.doubleValue(); }
+        };
+    }
+}
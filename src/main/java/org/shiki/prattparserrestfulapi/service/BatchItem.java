@@ -0,0 +1,17 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+
+/**
+ * One entry of a batch response. Exactly one of result and error is set.
+ */
+public record BatchItem(int index, EvalResult result, String error) {
+
+    public static BatchItem ok(int index, EvalResult result) {
+        return new BatchItem(index, result, null);
+    }
+
+    public static BatchItem error(int index, String error) {
+        return new BatchItem(index, null, error);
+    }
+}
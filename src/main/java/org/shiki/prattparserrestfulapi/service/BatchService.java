@@ -0,0 +1,175 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates many expressions per request, either as a JSON array or as a stream of lines.
+ * Every expression runs as its own task, on a virtual thread when the JVM has them
+ * (Java 21+) and on a fixed platform pool otherwise; a semaphore shared by all batches and
+ * streams caps how many evaluate at once.
+ */
+@Slf4j
+@Service
+public class BatchService {
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final ExpressionService expressionService;
+    private final ObjectMapper objectMapper;
+    private final int maxSize;
+    private final int streamWindow;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    public BatchService(ExpressionService expressionService, ObjectMapper objectMapper,
+                        @Value("${parser.batch.parallelism:64}") int parallelism,
+                        @Value("${parser.batch.max-size:10000}") int maxSize,
+                        @Value("${parser.stream.window:256}") int streamWindow) {
+        this.expressionService = expressionService;
+        this.objectMapper = objectMapper;
+        this.maxSize = maxSize;
+        this.streamWindow = streamWindow;
+        this.permits = new Semaphore(parallelism);
+        this.executor = newExecutor(parallelism);
+    }
+
+    public List<BatchItem> evaluateAll(List<String> expressions, EvaluationOptions options) {
+        if (expressions == null || expressions.isEmpty()) {
+            return List.of();
+        }
+        if (expressions.size() > maxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch size exceeds limit of " + maxSize);
+        }
+
+        List<CompletableFuture<BatchItem>> futures = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            int index = i;
+            String expr = expressions.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> evaluateItem(index, expr, options), executor));
+        }
+
+        // Futures are joined in submission order, so results come back in input order
+        List<BatchItem> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<BatchItem> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Read one expression per line from in and write one {@link BatchItem} JSON line per
+     * expression to out, in input order. At most parser.stream.window expressions are in
+     * flight; when the window is full, reading stops until the oldest result has been written,
+     * so a slow client (or slow evaluations) pushes back on the sender and memory stays flat.
+     * Blank lines are skipped but still count towards the index, which is the line number.
+     *
+     * @return number of expressions evaluated
+     */
+    public long evaluateStream(InputStream in, OutputStream out, EvaluationOptions options) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        ArrayDeque<CompletableFuture<BatchItem>> inFlight = new ArrayDeque<>(streamWindow);
+        long count = 0;
+        int lineNo = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = lineNo++;
+                if (line.isBlank()) continue;
+                if (inFlight.size() >= streamWindow) {
+                    write(out, inFlight.poll().join());
+                }
+                String expr = line;
+                inFlight.add(CompletableFuture.supplyAsync(() -> evaluateItem(index, expr, options), executor));
+                count++;
+                // Flush once everything submitted so far has been written, so a trickling
+                // client sees results without waiting for the window to fill
+                if (!reader.ready()) {
+                    while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                        write(out, inFlight.poll().join());
+                    }
+                    out.flush();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(out, inFlight.poll().join());
+            }
+            out.flush();
+        } finally {
+            // Client went away or writing failed: drop whatever is still queued
+            inFlight.forEach(f -> f.cancel(true));
+        }
+        log.debug("Streamed {} expressions", count);
+        return count;
+    }
+
+    private void write(OutputStream out, BatchItem item) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(item));
+        out.write(NEWLINE);
+    }
+
+    /**
+     * Evaluate a single expression under the shared parallelism cap, turning failures into an
+     * error item instead of failing the batch.
+     */
+    BatchItem evaluateItem(int index, String expr, EvaluationOptions options) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return BatchItem.error(index, "Interrupted");
+        }
+        try {
+            return BatchItem.ok(index, expressionService.evaluate(expr, options));
+        } catch (RuntimeException e) {
+            log.debug("Batch item {} failed: {}", index, e.getMessage());
+            String message = e instanceof ResponseStatusException ? ((ResponseStatusException) e).getReason() : e.getMessage();
+            return BatchItem.error(index, message != null ? message : e.getClass().getSimpleName());
+        } finally {
+            permits.release();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService newExecutor(int parallelism) {
+        // Looked up reflectively because the project still compiles for Java 17
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Batch evaluation on virtual threads (parallelism {})", parallelism);
+            return virtual;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            log.info("Virtual threads unavailable, batch evaluation on {} platform threads", parallelism);
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "batch-eval-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.IncrementalParser;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Live-editing sessions: the client sends text edits instead of the whole expression, and
+ * each session's {@link IncrementalParser} re-lexes, re-parses and re-evaluates only what
+ * the edit touched. Edits to one session are applied one at a time, in arrival order.
+ */
+@Service
+public class EditSessionService {
+
+    private final ExpressionService expressionService;
+    private final EvaluationExecutor executor;
+    private final Cache<String, IncrementalParser> sessions;
+
+    public EditSessionService(ExpressionService expressionService, EvaluationExecutor executor,
+                              @Value("${parser.session.max-sessions:1000}") long maxSessions,
+                              @Value("${parser.session.expire-after-access-minutes:30}") long expireMinutes) {
+        this.expressionService = expressionService;
+        this.executor = executor;
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                .build();
+    }
+
+    public CompletableFuture<SessionResult> open(String text, String client) {
+        String id = UUID.randomUUID().toString();
+        IncrementalParser session = new IncrementalParser(text == null ? "" : text);
+        synchronized (session) {
+            CompletableFuture<SessionResult> result = run(id, session, session::parse, client);
+            // Only kept once its first evaluation has been admitted
+            sessions.put(id, session);
+            return result;
+        }
+    }
+
+    public CompletableFuture<SessionResult> edit(String id, int offset, int deleted, String inserted, String client) {
+        IncrementalParser session = lookup(id);
+        synchronized (session) {
+            return run(id, session, () -> {
+                try {
+                    return session.edit(offset, deleted, inserted);
+                } catch (IllegalArgumentException e) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+                }
+            }, client);
+        }
+    }
+
+    public void close(String id) {
+        sessions.invalidate(id);
+    }
+
+    // Parses on the calling thread, so edits keep their order; evaluation goes to a lane.
+    // An edit that is refused (over budget, or 429/503) is taken back, so the client can
+    // resend it against the text it knows.
+    private CompletableFuture<SessionResult> run(String id, IncrementalParser session,
+                                                 Supplier<ParsedExpression> parse, String client) {
+        IncrementalParser.Checkpoint before = session.checkpoint();
+        ParsedExpression parsed;
+        try {
+            parsed = parse.get();
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(
+                    new SessionResult(id, session.text(), null, e.getMessage(), session.stats()));
+        }
+        // A later edit may be parsed before this one is evaluated, so its text and parse stats
+        // are taken now
+        String text = session.text();
+        IncrementalParser.Stats stats = session.stats();
+        try {
+            expressionService.checkBudget(parsed);
+            return executor.submit(client, parsed.cost(), () -> {
+                synchronized (session) {
+                    try {
+                        EvalResult result = expressionService.evaluateWith(parsed, () -> session.evaluate(parsed));
+                        return new SessionResult(id, text, result, null, evaluated(stats, session));
+                    } catch (ResponseStatusException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        return new SessionResult(id, text, null, e.getMessage(), evaluated(stats, session));
+                    }
+                }
+            });
+        } catch (ResponseStatusException e) {
+            session.restore(before);
+            throw e;
+        }
+    }
+
+    // Nodes evaluated is the only count that belongs to the evaluation that just ran
+    private static IncrementalParser.Stats evaluated(IncrementalParser.Stats parsed, IncrementalParser session) {
+        return parsed.withNodesEvaluated(session.stats().nodesEvaluated());
+    }
+
+    private IncrementalParser lookup(String id) {
+        IncrementalParser session = sessions.getIfPresent(id);
+        if (session == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired session: " + id);
+        }
+        return session;
+    }
+}
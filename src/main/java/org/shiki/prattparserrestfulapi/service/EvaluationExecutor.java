@@ -0,0 +1,179 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shiki.prattparserrestfulapi.parser.ParallelEvaluator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs single-expression evaluations off the servlet threads, in two bulkheads: a cheap lane
+ * for expressions whose estimated cost is at most parser.executor.cheap-max-cost, and an
+ * expensive lane for everything else, each with its own threads and bounded queue. A flood of
+ * heavy expressions can then only fill the expensive lane, and simple arithmetic keeps its
+ * latency.
+ *
+ * Admission is decided up front: a client over its in-flight limit gets 429, a full lane 503.
+ * Neither waits.
+ *
+ * Evaluations that ask for the parallel engine additionally fork their heavy subtrees onto a
+ * shared fork/join pool ({@link #parallel()}), sized separately from the lanes.
+ */
+@Slf4j
+@Component
+public class EvaluationExecutor implements MeterBinder {
+
+    public enum Lane { CHEAP, EXPENSIVE }
+
+    private final long cheapMaxCost;
+    private final int perClientLimit;
+    private final ThreadPoolExecutor cheap;
+    private final ThreadPoolExecutor expensive;
+    private final ParallelEvaluator parallel;
+    private final ExpressionMetrics metrics;
+    private final Map<String, Integer> inFlight = new ConcurrentHashMap<>();
+
+    public EvaluationExecutor(ExpressionMetrics metrics,
+                              @Value("${parser.executor.cheap-max-cost:10000}") long cheapMaxCost,
+                              @Value("${parser.executor.cheap.threads:8}") int cheapThreads,
+                              @Value("${parser.executor.cheap.queue:1000}") int cheapQueue,
+                              @Value("${parser.executor.expensive.threads:2}") int expensiveThreads,
+                              @Value("${parser.executor.expensive.queue:16}") int expensiveQueue,
+                              @Value("${parser.executor.per-client:32}") int perClientLimit,
+                              @Value("${parser.executor.parallel.threads:0}") int parallelThreads,
+                              @Value("${parser.executor.parallel.threshold:50000}") long parallelThreshold) {
+        this.metrics = metrics;
+        this.cheapMaxCost = cheapMaxCost;
+        this.perClientLimit = perClientLimit;
+        this.cheap = newLane("eval-cheap", cheapThreads, cheapQueue);
+        this.expensive = newLane("eval-expensive", expensiveThreads, expensiveQueue);
+        // 0 means one per core
+        int forkThreads = parallelThreads > 0 ? parallelThreads : Runtime.getRuntime().availableProcessors();
+        this.parallel = new ParallelEvaluator(new ForkJoinPool(forkThreads), parallelThreshold);
+        log.info("Evaluation lanes: cheap {} threads/{} queued, expensive {} threads/{} queued, parallel {} threads",
+                cheapThreads, cheapQueue, expensiveThreads, expensiveQueue, forkThreads);
+    }
+
+    public Lane classify(long cost) {
+        return cost <= cheapMaxCost ? Lane.CHEAP : Lane.EXPENSIVE;
+    }
+
+    public ParallelEvaluator parallel() {
+        return parallel;
+    }
+
+    /**
+     * Queue work on the lane for its cost, on behalf of client.
+     *
+     * @throws ResponseStatusException 429 if the client already has too many evaluations in
+     *                                 flight, 503 if the lane's queue is full
+     */
+    public <T> CompletableFuture<T> submit(String client, long cost, Supplier<T> work) {
+        admit(client);
+        Lane lane = classify(cost);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            // The slot is free before the caller hears back, so it can send the next request
+            (lane == Lane.CHEAP ? cheap : expensive).execute(() -> {
+                T result;
+                try {
+                    result = work.get();
+                } catch (Throwable t) {
+                    release(client);
+                    future.completeExceptionally(t);
+                    return;
+                }
+                release(client);
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            release(client);
+            metrics.recordRejection("busy");
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Server busy, " + lane.name().toLowerCase() + " evaluation queue is full");
+        }
+        return future;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindLane(registry, "cheap", cheap);
+        bindLane(registry, "expensive", expensive);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        cheap.shutdownNow();
+        expensive.shutdownNow();
+        parallel.pool().shutdownNow();
+    }
+
+    /**
+     * Take one of client's in-flight slots for work run elsewhere (e.g. a job), to be given
+     * back with {@link #release(String)} once it is done.
+     *
+     * @throws ResponseStatusException 429 if the client has no slot left
+     */
+    void admit(String client) {
+        if (!acquire(client)) {
+            metrics.recordRejection("client-limit");
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Too many concurrent evaluations (limit " + perClientLimit + ")");
+        }
+    }
+
+    private boolean acquire(String client) {
+        boolean[] admitted = {false};
+        inFlight.compute(client, (k, n) -> {
+            int count = n == null ? 0 : n;
+            if (count >= perClientLimit) {
+                return n;
+            }
+            admitted[0] = true;
+            return count + 1;
+        });
+        return admitted[0];
+    }
+
+    // Entries go away at zero, so the map only holds clients with work in flight
+    void release(String client) {
+        inFlight.computeIfPresent(client, (k, n) -> n <= 1 ? null : n - 1);
+    }
+
+    private static void bindLane(MeterRegistry registry, String lane, ThreadPoolExecutor executor) {
+        Gauge.builder("evaluation.lane.queued", executor, e -> e.getQueue().size())
+                .description("Evaluations waiting for a thread")
+                .tag("lane", lane)
+                .register(registry);
+        Gauge.builder("evaluation.lane.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Evaluations running")
+                .tag("lane", lane)
+                .register(registry);
+    }
+
+    private static ThreadPoolExecutor newLane(String name, int threads, int queue) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+}
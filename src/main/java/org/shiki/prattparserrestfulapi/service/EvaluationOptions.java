@@ -0,0 +1,66 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.shiki.prattparserrestfulapi.parser.Precision;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.RoundingMode;
+import java.util.Locale;
+
+/**
+ * Per-request evaluation settings.
+ *
+ * @param engine    APFLOAT always evaluates at full precision; AUTO tries doubles first and
+ *                  falls back to Apfloat when the double result is not good enough; PARALLEL
+ *                  evaluates at full precision with independent heavy subtrees on several cores;
+ *                  FLAT evaluates at full precision over the array form of the tree
+ * @param tolerance relative error bound a double result must meet under AUTO;
+ *                  null means the configured default
+ * @param digits    significant digits of the result, which is then also computed at about
+ *                  that precision; null means full precision
+ * @param rounding  how the result is rounded to digits
+ */
+public record EvaluationOptions(Engine engine, Double tolerance, Integer digits, RoundingMode rounding) {
+
+    public enum Engine {
+        APFLOAT, AUTO, PARALLEL, FLAT;
+
+        public static Engine parse(String value) {
+            if (value == null || value.isBlank()) return APFLOAT;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown engine: " + value);
+            }
+        }
+    }
+
+    public static EvaluationOptions defaults() {
+        return new EvaluationOptions(Engine.APFLOAT, null, null, RoundingMode.HALF_UP);
+    }
+
+    public static EvaluationOptions of(String engine, Double tolerance) {
+        return of(engine, tolerance, null, null);
+    }
+
+    public static EvaluationOptions of(String engine, Double tolerance, Integer digits, String rounding) {
+        if (digits != null && (digits < 1 || digits > Precision.DEFAULT)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "digits must be between 1 and " + Precision.DEFAULT);
+        }
+        return new EvaluationOptions(Engine.parse(engine), tolerance, digits, parseRounding(rounding));
+    }
+
+    // java.math.RoundingMode names, any case; half_up by default
+    private static RoundingMode parseRounding(String value) {
+        if (value == null || value.isBlank()) return RoundingMode.HALF_UP;
+        try {
+            RoundingMode mode = RoundingMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            if (mode == RoundingMode.UNNECESSARY) {
+                throw new IllegalArgumentException();
+            }
+            return mode;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown rounding: " + value);
+        }
+    }
+}
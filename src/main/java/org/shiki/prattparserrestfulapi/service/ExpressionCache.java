@@ -0,0 +1,99 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.shiki.prattparserrestfulapi.parser.Parser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Bounded, concurrent cache of parsed expressions keyed on normalized expression text.
+ * A hit skips lexing and parsing entirely; only evaluation is left to do.
+ * Hit/miss/eviction counts are published as the "expressions" cache metrics.
+ */
+@Slf4j
+@Component
+public class ExpressionCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final Cache<String, ParsedExpression> cache;
+
+    public ExpressionCache(@Value("${parser.cache.enabled:true}") boolean enabled,
+                           @Value("${parser.cache.max-weight:200000}") long maxWeight) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, ParsedExpression value) -> value.weight())
+                .recordStats()
+                .build();
+        log.info("Expression cache {} (max weight {})", enabled ? "enabled" : "disabled", maxWeight);
+    }
+
+    /**
+     * The parsed expression, from the cache if it is there.
+     *
+     * @throws ResponseStatusException 400 if the expression does not parse
+     */
+    public ParsedExpression get(String expression) {
+        try {
+            if (!enabled) {
+                return Parser.parse(expression);
+            }
+            // Parse failures are not cached
+            return cache.get(normalize(expression), Parser::parse);
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "expressions");
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    void cleanUp() {
+        cache.cleanUp();
+    }
+
+    /**
+     * The lexer skips whitespace but still uses it to separate atoms, so runs are collapsed
+     * to a single space rather than removed.
+     */
+    static String normalize(String expression) {
+        StringBuilder sb = new StringBuilder(expression.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-phase timings and shape statistics of evaluated expressions, published through
+ * Micrometer (so /actuator/metrics and /actuator/prometheus).
+ *
+ * Lex and parse times, token and node counts are recorded once per parsed expression, i.e.
+ * on a cache miss; evaluation time, operator counts and result size on every evaluation.
+ * Operator counts come precomputed with the ParsedExpression, so the hot path only bumps
+ * a few counters.
+ */
+@Component
+public class ExpressionMetrics {
+
+    // Heads the evaluator knows; anything else is user input and is counted as "other" to
+    // keep the number of time series bounded
+    private static final Set<String> OPERATORS = Set.of(
+            "+", "-", "*", "/", "%", "!", "^", "sin", "cos", "tan", "log", "ln", "tuple");
+    private static final String OTHER = "other";
+
+    private final MeterRegistry registry;
+    private final Timer lexTimer;
+    private final Timer parseTimer;
+    private final DistributionSummary tokens;
+    private final DistributionSummary nodes;
+    private final DistributionSummary resultDigits;
+    private final Map<String, Timer> evalTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> operatorCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+
+    public ExpressionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.lexTimer = Timer.builder("expression.lex")
+                .description("Time to lex an expression")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.parseTimer = Timer.builder("expression.parse")
+                .description("Time to build the tree from the tokens")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.tokens = DistributionSummary.builder("expression.tokens")
+                .description("Tokens per parsed expression")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.nodes = DistributionSummary.builder("expression.nodes")
+                .description("Tree nodes per parsed expression")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.resultDigits = DistributionSummary.builder("expression.result.digits")
+                .description("Significant digits of numeric results")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public Timer.Sample startEvaluation() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Record a freshly parsed expression. Function definitions are not lexed by the
+     * Pratt parser and are skipped.
+     */
+    public void recordParse(ParsedExpression parsed) {
+        if (parsed.isFunction()) {
+            return;
+        }
+        lexTimer.record(parsed.lexNanos(), TimeUnit.NANOSECONDS);
+        parseTimer.record(parsed.parseNanos(), TimeUnit.NANOSECONDS);
+        tokens.record(parsed.tokenCount());
+        nodes.record(parsed.nodeCount());
+    }
+
+    public void recordEvaluation(Timer.Sample sample, ParsedExpression parsed, EvalResult result) {
+        String engine = result.engine() != null ? result.engine() : result.kind();
+        sample.stop(evalTimers.computeIfAbsent(engine, this::evalTimer));
+        for (Map.Entry<String, Integer> e : parsed.operatorCounts().entrySet()) {
+            String op = OPERATORS.contains(e.getKey()) ? e.getKey() : OTHER;
+            operatorCounters.computeIfAbsent(op, this::operatorCounter).increment(e.getValue());
+        }
+        if (result.number() != null) {
+            resultDigits.record(result.number().size());
+        }
+    }
+
+    /**
+     * Count an expression refused for the given reason ("budget", "timeout", "cancelled", ...).
+     */
+    public void recordRejection(String reason) {
+        rejections.computeIfAbsent(reason, r -> Counter.builder("expression.rejected")
+                .description("Expressions refused before or during evaluation")
+                .tag("reason", r)
+                .register(registry)).increment();
+    }
+
+    private Timer evalTimer(String engine) {
+        return Timer.builder("expression.evaluate")
+                .description("Time to evaluate a parsed expression")
+                .tag("engine", engine)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter operatorCounter(String op) {
+        return Counter.builder("expression.operators")
+                .description("Operator occurrences in evaluated expressions")
+                .tag("op", op)
+                .register(registry);
+    }
+}
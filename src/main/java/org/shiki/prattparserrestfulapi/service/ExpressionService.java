@@ -1,14 +1,249 @@
 package org.shiki.prattparserrestfulapi.service;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apfloat.Apfloat;
+import org.shiki.prattparserrestfulapi.parser.Constants;
+import org.shiki.prattparserrestfulapi.parser.Deadline;
 import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.EvaluationCancelledException;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.shiki.prattparserrestfulapi.parser.Precision;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import org.shiki.prattparserrestfulapi.parser.Parser;
 
 @Service
 public class ExpressionService {
 
+    private final ExpressionCache expressionCache;
+    private final ExpressionMetrics metrics;
+    private final EvaluationExecutor executor;
+    private final ResultStore resultStore;
+    private final boolean compilerEnabled;
+    private final int compileThreshold;
+    private final double defaultTolerance;
+    private final long maxCost;
+    private final long timeoutMillis;
+    private final int maxDepth;
+
+    public ExpressionService(ExpressionCache expressionCache,
+                             ExpressionMetrics metrics,
+                             EvaluationExecutor executor,
+                             ResultStore resultStore,
+                             @Value("${parser.compiler.enabled:true}") boolean compilerEnabled,
+                             @Value("${parser.compiler.threshold:16}") int compileThreshold,
+                             @Value("${parser.fast-path.tolerance:1e-12}") double defaultTolerance,
+                             @Value("${parser.budget.max-cost:5000000}") long maxCost,
+                             @Value("${parser.budget.timeout-ms:10000}") long timeoutMillis,
+                             @Value("${parser.budget.max-depth:1000}") int maxDepth) {
+        this.expressionCache = expressionCache;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.resultStore = resultStore;
+        this.compilerEnabled = compilerEnabled;
+        this.compileThreshold = compileThreshold;
+        this.defaultTolerance = defaultTolerance;
+        this.maxCost = maxCost;
+        this.timeoutMillis = timeoutMillis;
+        this.maxDepth = maxDepth;
+    }
+
+    // Pay for e, pi, ln 2 and ln 10 at startup rather than in the first request that needs them
+    @PostConstruct
+    void warmUpConstants() {
+        Constants.warmUp(1000);
+    }
+
     public EvalResult evaluate(String expression) {
-        return Parser.eval(expression);
+        return evaluate(expression, EvaluationOptions.defaults());
+    }
+
+    public EvalResult evaluate(String expression, EvaluationOptions options) {
+        return evaluate(expressionCache.get(expression), options);
+    }
+
+    /**
+     * Evaluate on the {@link EvaluationExecutor} lane matching the expression's cost. Parsing
+     * (usually a cache hit) happens on the calling thread, so syntax errors still throw here.
+     */
+    public CompletableFuture<EvalResult> submit(String expression, EvaluationOptions options, String client) {
+        ParsedExpression parsed = expressionCache.get(expression);
+        checkBudget(parsed);
+        return executor.submit(client, parsed.cost(), () -> evaluate(parsed, options));
+    }
+
+    private EvalResult evaluate(ParsedExpression parsed, EvaluationOptions options) {
+        return evaluate(parsed, options, requestDeadline(), maxCost);
+    }
+
+    /**
+     * Evaluate under the given deadline and cost limit instead of the ones for a request, for
+     * work that is allowed to take longer (e.g. jobs). A null deadline means no time limit.
+     */
+    EvalResult evaluate(ParsedExpression parsed, EvaluationOptions options, Deadline deadline, long costLimit) {
+        int evaluations = admit(parsed, costLimit);
+        byte[] key = resultStore.keyFor(parsed, options);
+        Apfloat stored = key != null ? resultStore.get(key) : null;
+        if (stored != null) {
+            return guarded(parsed, null, () -> EvalResult.ofNumber(stored, EvalResult.ENGINE_STORED, null));
+        }
+        Integer digits = options.digits();
+        EvalResult result = digits == null
+                ? guarded(parsed, deadline, () -> evaluateParsed(parsed, options, evaluations))
+                : guarded(parsed, deadline, () -> Precision.run(digits, () -> evaluateParsed(parsed, options, evaluations),
+                        Precision::significant).rounded(digits, options.rounding()));
+        if (key != null && "number".equals(result.kind())) {
+            resultStore.put(key, result.number());
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate a parsed expression with values for its variables, under the same budget and
+     * deadline as any other evaluation. Always uses the Apfloat interpreter.
+     */
+    EvalResult evaluateBound(ParsedExpression parsed, Map<String, Apfloat> env) {
+        return evaluateBound(parsed, env, requestDeadline());
+    }
+
+    /**
+     * As {@link #evaluateBound(ParsedExpression, Map)}, under a deadline shared with other
+     * evaluations (e.g. the rest of a batch). A null deadline means no time limit.
+     */
+    EvalResult evaluateBound(ParsedExpression parsed, Map<String, Apfloat> env, Deadline deadline) {
+        admit(parsed, parsed.cost(env), maxCost);
+        return guarded(parsed, deadline, () -> Parser.evaluate(parsed, env));
+    }
+
+    /**
+     * Run an evaluation of parsed done some other way (e.g. incrementally) under the usual
+     * budget, deadline and metrics.
+     */
+    EvalResult evaluateWith(ParsedExpression parsed, Supplier<EvalResult> work) {
+        return evaluateWith(parsed, parsed.cost(), work);
+    }
+
+    /**
+     * As {@link #evaluateWith(ParsedExpression, Supplier)}, for work whose cost is known
+     * better than parsed's own estimate (e.g. with variables bound).
+     */
+    EvalResult evaluateWith(ParsedExpression parsed, long cost, Supplier<EvalResult> work) {
+        admit(parsed, cost, maxCost);
+        return guarded(parsed, requestDeadline(), work);
+    }
+
+    private int admit(ParsedExpression parsed, long costLimit) {
+        return admit(parsed, parsed.cost(), costLimit);
+    }
+
+    // Counts the evaluation and refuses it if it is over budget
+    private int admit(ParsedExpression parsed, long cost, long costLimit) {
+        // The first evaluation of an instance is the one that paid for lexing and parsing
+        int evaluations = parsed.recordEvaluation();
+        if (evaluations == 1) {
+            metrics.recordParse(parsed);
+        }
+        checkDepth(parsed);
+        checkBudget(cost, costLimit);
+        return evaluations;
+    }
+
+    void checkBudget(ParsedExpression parsed) {
+        checkBudget(parsed, maxCost);
+    }
+
+    void checkBudget(ParsedExpression parsed, long costLimit) {
+        checkDepth(parsed);
+        checkBudget(parsed.cost(), costLimit);
+    }
+
+    private void checkDepth(ParsedExpression parsed) {
+        checkDepth(parsed.depth());
+    }
+
+    /**
+     * Refuse a tree of the given nesting depth, e.g. the body of a function definition.
+     * Parsing takes any depth, but the evaluators recurse once per level.
+     *
+     * @throws ResponseStatusException 400
+     */
+    void checkDepth(int depth) {
+        if (depth > maxDepth) {
+            metrics.recordRejection("depth");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Expression nested too deeply (depth " + depth + ", limit " + maxDepth + ")");
+        }
+    }
+
+    /**
+     * Refuse work of the given estimated cost if it is over the request budget.
+     *
+     * @throws ResponseStatusException 422, as for an expression over budget
+     */
+    void checkBudget(long cost) {
+        checkBudget(cost, maxCost);
+    }
+
+    private void checkBudget(long cost, long costLimit) {
+        if (cost > costLimit) {
+            metrics.recordRejection("budget");
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_CONTENT,
+                    "Expression too expensive to evaluate (estimated cost " + cost + ", limit " + costLimit + ")");
+        }
+    }
+
+    long maxCost() {
+        return maxCost;
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * A fresh deadline of the request time limit, or null if there is none.
+     */
+    Deadline requestDeadline() {
+        return timeoutMillis > 0 ? Deadline.in(timeoutMillis) : null;
+    }
+
+    private EvalResult guarded(ParsedExpression parsed, Deadline deadline, Supplier<EvalResult> work) {
+        Timer.Sample sample = metrics.startEvaluation();
+        EvalResult result;
+        try {
+            result = deadline != null ? deadline.run(work) : work.get();
+        } catch (EvaluationCancelledException e) {
+            metrics.recordRejection(deadline != null && deadline.isCancelled() ? "cancelled" : "timeout");
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_CONTENT, e.getMessage());
+        }
+        metrics.recordEvaluation(sample, parsed, result);
+        return result;
+    }
+
+    private EvalResult evaluateParsed(ParsedExpression parsed, EvaluationOptions options, int evaluations) {
+        if (options.engine() == EvaluationOptions.Engine.AUTO) {
+            double tolerance = options.tolerance() != null ? options.tolerance() : defaultTolerance;
+            return Parser.evaluateFast(parsed, tolerance);
+        }
+        if (options.engine() == EvaluationOptions.Engine.PARALLEL) {
+            return Parser.evaluateParallel(parsed, executor.parallel());
+        }
+        if (options.engine() == EvaluationOptions.Engine.FLAT) {
+            return Parser.evaluateFlat(parsed);
+        }
+        // Only cached (hence shared) instances ever reach the threshold. Evaluations by the
+        // other engines count too, so the one at the threshold may not have come through here.
+        if (compilerEnabled && !parsed.isFunction() && evaluations >= compileThreshold && parsed.compiled() == null) {
+            parsed.compile();
+        }
+        return Parser.evaluate(parsed);
     }
 
 }
@@ -0,0 +1,386 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apfloat.Apfloat;
+import org.shiki.prattparserrestfulapi.parser.CostModel;
+import org.shiki.prattparserrestfulapi.parser.Deadline;
+import org.shiki.prattparserrestfulapi.parser.DoubleEvaluator;
+import org.shiki.prattparserrestfulapi.parser.EvaluationCancelledException;
+import org.shiki.prattparserrestfulapi.parser.LipsNotation;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.shiki.prattparserrestfulapi.parser.Precision;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Operations over parsed function definitions (`f(x) = ...`, `y = ...`). The definition is
+ * parsed once and its body evaluated in-process for every point: sampling, integration and
+ * root finding. The last two run in doubles or, with precision "apfloat", in Apfloat at about
+ * as many digits as the tolerance asks for relative to the size of the answer. All three run on
+ * the {@link EvaluationExecutor} lanes, priced at the cost of one evaluation times the number
+ * of evaluations needed or allowed, and fork onto its fork/join pool.
+ */
+@Slf4j
+@Service
+public class FunctionService {
+
+    // Points per fork/join leaf; small enough to balance, big enough to amortise forking
+    private static final int SAMPLE_CHUNK = 256;
+    private static final double DEFAULT_TOLERANCE = 1e-10;
+    // Bisection needs about log2(range / tolerance) steps, ~1000 at the finest Apfloat tolerance
+    private static final int MAX_ROOT_ITERATIONS = 10_000;
+    // Apfloat digits below which a double would do as well
+    private static final long MIN_DIGITS = 16;
+    // Precision at which the cost model prices a double evaluation: about a unit per node
+    private static final long DOUBLE_PRECISION = 1;
+    // Three points and the two quarter points, before Simpson can check itself
+    private static final int MIN_EVALUATIONS = 5;
+
+    private final ExpressionCache expressionCache;
+    private final ExpressionService expressionService;
+    private final EvaluationExecutor executor;
+    private final int maxSamples;
+    private final int maxEvaluations;
+    private final long timeoutMillis;
+
+    public FunctionService(ExpressionCache expressionCache, ExpressionService expressionService,
+                           EvaluationExecutor executor,
+                           @Value("${parser.sample.max-samples:100000}") int maxSamples,
+                           @Value("${parser.numeric.max-evaluations:1000000}") int maxEvaluations,
+                           @Value("${parser.budget.timeout-ms:10000}") long timeoutMillis) {
+        this.expressionCache = expressionCache;
+        this.expressionService = expressionService;
+        this.executor = executor;
+        this.maxSamples = maxSamples;
+        this.maxEvaluations = maxEvaluations;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * The function at samples evenly spaced points from {@code from} to {@code to}. Points
+     * where it cannot be evaluated are reported with the reason and do not stop the others.
+     * Runs on an evaluation lane, priced at the cost of one evaluation times samples.
+     */
+    public CompletableFuture<SampleResult> sample(String function, double from, double to, int samples, String client) {
+        if (samples < 1 || samples > maxSamples) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "samples must be between 1 and " + maxSamples);
+        }
+        checkRange(from, to);
+        ParsedExpression parsed = parseFunction(function);
+        LipsNotation body = parsed.funcBody();
+        String param = parsed.funcParam();
+        long perPoint = (long) estimate(parsed, DOUBLE_PRECISION, from, to)[0];
+        long cost = perPoint > Long.MAX_VALUE / samples ? Long.MAX_VALUE : perPoint * samples;
+        expressionService.checkBudget(cost);
+
+        return executor.submit(client, cost, () -> withinTimeLimit(deadline -> {
+            double[] xs = new double[samples];
+            double[] ys = new double[samples];
+            String[] errors = new String[samples];
+            double step = samples == 1 ? 0 : (to - from) / (samples - 1);
+            executor.parallel().pool().invoke(new SampleTask(body, param, deadline, from, step, xs, ys, errors, 0, samples));
+
+            int[] failed = IntStream.range(0, samples).filter(i -> errors[i] != null).toArray();
+            log.debug("Sampled {} at {} points, {} failed", function, samples, failed.length);
+            return new SampleResult(parsed.funcName(), param, xs, ys, failed,
+                    Arrays.stream(failed).mapToObj(i -> errors[i]).toArray(String[]::new));
+        }));
+    }
+
+    /**
+     * Integral of the function from {@code from} to {@code to} within about tolerance
+     * (absolute; null means 1e-10), by adaptive Simpson quadrature. Runs on an evaluation lane
+     * and is allowed as many evaluations of the function as the budget pays for.
+     */
+    public CompletableFuture<IntegralResult> integrate(String function, double from, double to, Double tolerance,
+                                                       String precision, String client) {
+        checkRange(from, to);
+        double tol = checkTolerance(tolerance);
+        boolean apfloat = useApfloat(precision);
+        ParsedExpression parsed = parseFunction(function);
+        double[] estimate = estimate(parsed, DOUBLE_PRECISION, from, to);
+        // The integral is at most the largest |f| times the width of the range
+        long digits = digitsFor(tol, estimate[1] + Math.log10(Math.abs(to - from)));
+        if (apfloat) {
+            estimate = estimate(parsed, Precision.working(digits), from, to);
+        }
+        long perEvaluation = (long) estimate[0];
+        int evaluations = affordableEvaluations(perEvaluation, maxEvaluations);
+        return executor.submit(client, perEvaluation * evaluations, () -> withinTimeLimit(deadline -> {
+            if (apfloat) {
+                Arithmetic<Apfloat> arithmetic = Arithmetic.apfloat(Precision.working(digits));
+                return integrate(parsed, arithmetic, apfloatFunction(parsed, digits, deadline), from, to, tol,
+                        evaluations, "apfloat");
+            }
+            return integrate(parsed, Arithmetic.DOUBLE, doubleFunction(parsed, deadline), from, to, tol,
+                    evaluations, "double");
+        }));
+    }
+
+    /**
+     * A root of the function between {@code from} and {@code to}, where it must change sign,
+     * to within tolerance (null means 1e-10). method is "brent" (default) or "bisection".
+     * Runs on an evaluation lane, with as many iterations as the budget pays for.
+     */
+    public CompletableFuture<RootResult> findRoot(String function, double from, double to, Double tolerance,
+                                                  String method, String precision, String client) {
+        checkRange(from, to);
+        double tol = checkTolerance(tolerance);
+        boolean apfloat = useApfloat(precision);
+        RootFinder.Method m;
+        try {
+            m = RootFinder.Method.parse(method);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        ParsedExpression parsed = parseFunction(function);
+        // The root is no bigger than the ends of the range
+        long digits = digitsFor(tol, log10Bound(from, to));
+        long perEvaluation = (long) estimate(parsed, apfloat ? Precision.working(digits) : DOUBLE_PRECISION, from, to)[0];
+        // Two evaluations at the ends of the range, then one per iteration
+        int evaluations = affordableEvaluations(perEvaluation, MAX_ROOT_ITERATIONS + 2);
+        return executor.submit(client, perEvaluation * evaluations, () -> withinTimeLimit(deadline -> {
+            try {
+                if (apfloat) {
+                    Arithmetic<Apfloat> arithmetic = Arithmetic.apfloat(Precision.working(digits));
+                    return findRoot(parsed, arithmetic, apfloatFunction(parsed, digits, deadline), from, to, tol, m,
+                            evaluations - 2, "apfloat");
+                }
+                return findRoot(parsed, Arithmetic.DOUBLE, doubleFunction(parsed, deadline), from, to, tol, m,
+                        evaluations - 2, "double");
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }));
+    }
+
+    private <T> IntegralResult integrate(ParsedExpression parsed, Arithmetic<T> arithmetic, UnaryOperator<T> f,
+                                         double from, double to, double tolerance, int evaluations, String precision) {
+        Integrator.Result<T> r = new Integrator<>(arithmetic, f, evaluations, executor.parallel().pool())
+                .integrate(arithmetic.of(from), arithmetic.of(to), arithmetic.of(tolerance));
+        log.debug("Integrated {} over [{}, {}] with {} evaluations", parsed.funcName(), from, to, r.evaluations());
+        return new IntegralResult(parsed.funcName(), parsed.funcParam(), arithmetic.toApfloat(r.value()),
+                r.errorEstimate(), r.evaluations(), r.converged(), precision);
+    }
+
+    private <T> RootResult findRoot(ParsedExpression parsed, Arithmetic<T> arithmetic, UnaryOperator<T> f,
+                                    double from, double to, double tolerance, RootFinder.Method method,
+                                    int iterations, String precision) {
+        RootFinder.Result<T> r = RootFinder.find(arithmetic, f, arithmetic.of(from), arithmetic.of(to),
+                arithmetic.of(tolerance), method, iterations);
+        log.debug("Found root of {} in [{}, {}] after {} iterations", parsed.funcName(), from, to, r.iterations());
+        return new RootResult(parsed.funcName(), parsed.funcParam(), arithmetic.toApfloat(r.root()),
+                arithmetic.toApfloat(r.value()), r.iterations(), method.name().toLowerCase(Locale.ROOT), precision);
+    }
+
+    // Failures become IllegalStateException; running out of time stays a cancellation
+    private static UnaryOperator<Double> doubleFunction(ParsedExpression parsed, Deadline deadline) {
+        LipsNotation body = parsed.funcBody();
+        String param = parsed.funcParam();
+        return x -> within(deadline, () -> {
+            try {
+                return evaluateAt(body, param, x);
+            } catch (EvaluationCancelledException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw notDefined(parsed, x);
+            }
+        });
+    }
+
+    private static UnaryOperator<Apfloat> apfloatFunction(ParsedExpression parsed, long digits, Deadline deadline) {
+        LipsNotation body = parsed.funcBody();
+        String param = parsed.funcParam();
+        // Installed per call, since the integrator calls from pool threads
+        return x -> within(deadline, () -> Precision.run(digits, () -> {
+            try {
+                return body.eval(Map.of(param, x));
+            } catch (EvaluationCancelledException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw notDefined(parsed, x);
+            }
+        }));
+    }
+
+    // The time limit starts when the work does rather than when it was queued. Failures and
+    // running out of time or evaluations are 422s.
+    private <R> R withinTimeLimit(Function<Deadline, R> work) {
+        Deadline deadline = timeoutMillis > 0 ? Deadline.in(timeoutMillis) : null;
+        try {
+            return work.apply(deadline);
+        } catch (IllegalStateException | EvaluationCancelledException e) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_CONTENT, e.getMessage());
+        }
+    }
+
+    /**
+     * Estimated cost of one evaluation of the body at the given precision and a bound on log10
+     * of its magnitude, with the parameter anywhere between from and to. Refuses bodies nested
+     * too deeply to evaluate.
+     */
+    private double[] estimate(ParsedExpression parsed, long precision, double from, double to) {
+        LipsNotation body = parsed.funcBody();
+        expressionService.checkDepth(ParsedExpression.depth(body));
+        return CostModel.costAndMagnitude(body, precision, Map.of(parsed.funcParam(), log10Bound(from, to)));
+    }
+
+    // As many evaluations as the budget pays for, up to limit; refused if that is too few to
+    // get anywhere
+    private int affordableEvaluations(long perEvaluation, int limit) {
+        long affordable = expressionService.maxCost() / Math.max(perEvaluation, 1);
+        if (affordable < MIN_EVALUATIONS) {
+            expressionService.checkBudget(perEvaluation > Long.MAX_VALUE / MIN_EVALUATIONS
+                    ? Long.MAX_VALUE : perEvaluation * MIN_EVALUATIONS);
+        }
+        return (int) Math.min(limit, affordable);
+    }
+
+    private static double log10Bound(double from, double to) {
+        return Math.max(Math.log10(Math.max(Math.abs(from), Math.abs(to))), 0);
+    }
+
+    private static <T> T within(Deadline deadline, Supplier<T> work) {
+        return deadline == null ? work.get() : deadline.run(work);
+    }
+
+    private static IllegalStateException notDefined(ParsedExpression parsed, Object x) {
+        return new IllegalStateException(parsed.funcName() + " cannot be evaluated at " + parsed.funcParam() + " = " + x);
+    }
+
+    private static void checkRange(double from, double to) {
+        if (!Double.isFinite(from) || !Double.isFinite(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Range bounds must be finite");
+        }
+    }
+
+    private static double checkTolerance(Double tolerance) {
+        if (tolerance == null) return DEFAULT_TOLERANCE;
+        if (!(tolerance > 0) || !Double.isFinite(tolerance)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "tolerance must be a positive number");
+        }
+        return tolerance;
+    }
+
+    private static boolean useApfloat(String precision) {
+        if (precision == null || precision.isBlank() || precision.equalsIgnoreCase("double")) return false;
+        if (precision.equalsIgnoreCase("apfloat")) return true;
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown precision: " + precision);
+    }
+
+    /**
+     * Significant digits to resolve an absolute tolerance on a value up to 10^log10Magnitude,
+     * plus a few for cancellation in the sums.
+     */
+    static long digitsFor(double tolerance, double log10Magnitude) {
+        double digits = Math.ceil(log10Magnitude - Math.log10(tolerance)) + 5;
+        return (long) Math.max(MIN_DIGITS, Math.min(digits, Precision.DEFAULT));
+    }
+
+    ParsedExpression parseFunction(String function) {
+        if (function == null || function.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "function is required");
+        }
+        ParsedExpression parsed = expressionCache.get(function);
+        if (!parsed.isFunction()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a function definition: " + function);
+        }
+        // The body is parsed on first use; parse it now so that its syntax errors are 400s too
+        try {
+            parsed.funcBody();
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return parsed;
+    }
+
+    /**
+     * Doubles first; if they cannot give a trustworthy value, retry in Apfloat seeded with the
+     * double argument.
+     *
+     * @throws RuntimeException where neither worked, e.g. a domain error, or the value does
+     *                          not fit in a double
+     */
+    static double evaluateAt(LipsNotation body, String param, double x) {
+        try {
+            return DoubleEvaluator.evaluate(body, Map.of(param, x)).value();
+        } catch (DoubleEvaluator.Unsupported e) {
+            // fall through to Apfloat
+        }
+        double y = body.eval(Map.of(param, new Apfloat(x))).doubleValue();
+        if (!Double.isFinite(y)) {
+            throw new ArithmeticException("Value out of range for a double");
+        }
+        return y;
+    }
+
+    private static final class SampleTask extends RecursiveAction {
+        private final LipsNotation body;
+        private final String param;
+        private final Deadline deadline;
+        private final double from;
+        private final double step;
+        private final double[] xs;
+        private final double[] ys;
+        private final String[] errors;
+        private final int lo;
+        private final int hi;
+
+        SampleTask(LipsNotation body, String param, Deadline deadline, double from, double step,
+                   double[] xs, double[] ys, String[] errors, int lo, int hi) {
+            this.body = body;
+            this.param = param;
+            this.deadline = deadline;
+            this.from = from;
+            this.step = step;
+            this.xs = xs;
+            this.ys = ys;
+            this.errors = errors;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= SAMPLE_CHUNK) {
+                // Installed per leaf, since leaves run on pool threads
+                within(deadline, () -> {
+                    for (int i = lo; i < hi; i++) {
+                        Deadline.check();
+                        sample(i);
+                    }
+                    return null;
+                });
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SampleTask(body, param, deadline, from, step, xs, ys, errors, lo, mid),
+                    new SampleTask(body, param, deadline, from, step, xs, ys, errors, mid, hi));
+        }
+
+        private void sample(int i) {
+            double x = from + i * step;
+            xs[i] = x;
+            try {
+                ys[i] = evaluateAt(body, param, x);
+            } catch (EvaluationCancelledException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                ys[i] = Double.NaN;
+                errors[i] = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            }
+        }
+    }
+}
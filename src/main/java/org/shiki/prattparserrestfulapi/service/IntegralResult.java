@@ -0,0 +1,11 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.apfloat.Apfloat;
+
+/**
+ * Definite integral of a function. errorEstimate is the estimated absolute error; converged
+ * is false when some part of the range could not be brought within the tolerance (e.g. near
+ * a singularity), in which case value is the best estimate found.
+ */
+public record IntegralResult(String name, String param, Apfloat value, double errorEstimate,
+                             int evaluations, boolean converged, String precision) {}
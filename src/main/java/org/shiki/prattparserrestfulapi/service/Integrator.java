@@ -0,0 +1,160 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Adaptive Simpson quadrature. An interval whose Simpson estimate does not agree with the sum
+ * of its two halves within the tolerance is split, and each half gets half the tolerance. The
+ * halves are independent, so the top {@link #FORK_DEPTH} levels are forked onto the given
+ * pool and deeper levels run on whichever worker got there.
+ *
+ * One instance per integral; f must be safe to call from several threads.
+ */
+final class Integrator<T> {
+
+    /**
+     * The integral, an estimate of its absolute error, and how many times f was called.
+     * converged is false when some interval hit {@link #MAX_DEPTH} before meeting its
+     * tolerance (e.g. at a singularity).
+     */
+    record Result<T>(T value, double errorEstimate, int evaluations, boolean converged) {}
+
+    // 2^12 intervals is plenty of parallelism; below that forking costs more than it saves
+    private static final int FORK_DEPTH = 12;
+    // Past 2^-50 of the interval the estimates are rounding noise
+    private static final int MAX_DEPTH = 50;
+
+    private final Arithmetic<T> arithmetic;
+    private final UnaryOperator<T> f;
+    private final int maxEvaluations;
+    private final ForkJoinPool pool;
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private final AtomicBoolean converged = new AtomicBoolean(true);
+    private final T two;
+    private final T four;
+    private final T six;
+    private final T fifteen;
+
+    Integrator(Arithmetic<T> arithmetic, UnaryOperator<T> f, int maxEvaluations, ForkJoinPool pool) {
+        this.arithmetic = arithmetic;
+        this.f = f;
+        this.maxEvaluations = maxEvaluations;
+        this.pool = pool;
+        this.two = arithmetic.of(2);
+        this.four = arithmetic.of(4);
+        this.six = arithmetic.of(6);
+        this.fifteen = arithmetic.of(15);
+    }
+
+    /**
+     * Integral of f from a to b within about tolerance (absolute).
+     *
+     * @throws IllegalStateException if f fails somewhere or more than maxEvaluations calls
+     *                               are needed
+     */
+    Result<T> integrate(T a, T b, T tolerance) {
+        T m = midpoint(a, b);
+        T fa = evaluate(a);
+        T fm = evaluate(m);
+        T fb = evaluate(b);
+        Task root = new Task(a, b, fa, fm, fb, simpson(a, b, fa, fm, fb), tolerance, 0);
+        Part<T> whole;
+        try {
+            whole = pool.invoke(root);
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+        return new Result<>(whole.value(), arithmetic.toDouble(whole.error()), evaluations.get(), converged.get());
+    }
+
+    private record Part<T>(T value, T error) {}
+
+    private final class Task extends RecursiveTask<Part<T>> {
+        private final T a;
+        private final T b;
+        private final T fa;
+        private final T fm;
+        private final T fb;
+        private final T whole;
+        private final T tolerance;
+        private final int depth;
+
+        Task(T a, T b, T fa, T fm, T fb, T whole, T tolerance, int depth) {
+            this.a = a;
+            this.b = b;
+            this.fa = fa;
+            this.fm = fm;
+            this.fb = fb;
+            this.whole = whole;
+            this.tolerance = tolerance;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Part<T> compute() {
+            T m = midpoint(a, b);
+            T lm = midpoint(a, m);
+            T rm = midpoint(m, b);
+            T flm = evaluate(lm);
+            T frm = evaluate(rm);
+            T left = simpson(a, m, fa, flm, fm);
+            T right = simpson(m, b, fm, frm, fb);
+            T delta = arithmetic.subtract(arithmetic.add(left, right), whole);
+
+            boolean within = arithmetic.compare(arithmetic.abs(delta), arithmetic.multiply(fifteen, tolerance)) <= 0;
+            if (within || depth >= MAX_DEPTH) {
+                if (!within) {
+                    converged.set(false);
+                }
+                // Richardson extrapolation; the correction is also the error estimate
+                T correction = arithmetic.divide(delta, fifteen);
+                return new Part<>(arithmetic.add(arithmetic.add(left, right), correction), arithmetic.abs(correction));
+            }
+
+            T half = arithmetic.divide(tolerance, two);
+            Task leftTask = new Task(a, m, fa, flm, fm, left, half, depth + 1);
+            Task rightTask = new Task(m, b, fm, frm, fb, right, half, depth + 1);
+            Part<T> l;
+            Part<T> r;
+            if (depth < FORK_DEPTH) {
+                rightTask.fork();
+                l = leftTask.compute();
+                r = rightTask.join();
+            } else {
+                l = leftTask.compute();
+                r = rightTask.compute();
+            }
+            return new Part<>(arithmetic.add(l.value(), r.value()), arithmetic.add(l.error(), r.error()));
+        }
+    }
+
+    private T evaluate(T x) {
+        if (evaluations.incrementAndGet() > maxEvaluations) {
+            throw new IllegalStateException("Integral did not converge within " + maxEvaluations + " evaluations");
+        }
+        return f.apply(x);
+    }
+
+    private T midpoint(T a, T b) {
+        return arithmetic.divide(arithmetic.add(a, b), two);
+    }
+
+    // (b - a) / 6 * (f(a) + 4 f(m) + f(b))
+    private T simpson(T a, T b, T fa, T fm, T fb) {
+        T sum = arithmetic.add(arithmetic.add(fa, arithmetic.multiply(four, fm)), fb);
+        return arithmetic.multiply(arithmetic.divide(arithmetic.subtract(b, a), six), sum);
+    }
+
+    // A task that failed on another thread is rethrown as a copy wrapping the original
+    private static RuntimeException unwrap(RuntimeException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException && cause.getClass() == e.getClass()) {
+            return (RuntimeException) cause;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,238 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shiki.prattparserrestfulapi.parser.Deadline;
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluations that may run for longer than an HTTP request should be held open: the client
+ * submits, gets a job id straight away, and polls (or long-polls) for the result.
+ *
+ * Jobs run on their own bounded pool, separate from the request lanes, with their own time
+ * and cost limits (parser.jobs.*). A queued or running job holds one of its client's
+ * {@link EvaluationExecutor} slots, like any other evaluation in flight.
+ *
+ * Queued and running jobs are kept apart from finished ones and are never evicted. A finished
+ * job is kept for the configured TTL, then forgotten; when there are more than
+ * parser.jobs.max-jobs finished ones, some go early. Cancelling a running job cancels its
+ * {@link Deadline}, so it unwinds at the next check.
+ */
+@Slf4j
+@Service
+public class JobService {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    private final ExpressionService expressionService;
+    private final ExpressionCache expressionCache;
+    private final EvaluationExecutor executor;
+    private final ThreadPoolExecutor workers;
+    // Bounded by the pool's threads and queue
+    private final Map<String, Job> active = new ConcurrentHashMap<>();
+    private final Cache<String, Job> finishedJobs;
+    private final long timeoutMillis;
+    private final long maxCost;
+    private final long maxWaitMillis;
+
+    public JobService(ExpressionService expressionService, ExpressionCache expressionCache, EvaluationExecutor executor,
+                      @Value("${parser.jobs.threads:2}") int threads,
+                      @Value("${parser.jobs.queue:100}") int queue,
+                      @Value("${parser.jobs.max-jobs:10000}") long maxJobs,
+                      @Value("${parser.jobs.ttl-minutes:10}") long ttlMinutes,
+                      @Value("${parser.jobs.timeout-ms:300000}") long timeoutMillis,
+                      @Value("${parser.jobs.max-cost:500000000}") long maxCost,
+                      @Value("${parser.jobs.max-wait-ms:20000}") long maxWaitMillis) {
+        this.expressionService = expressionService;
+        this.expressionCache = expressionCache;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+        this.maxCost = maxCost;
+        this.maxWaitMillis = maxWaitMillis;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "eval-job-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.finishedJobs = Caffeine.newBuilder()
+                .maximumSize(maxJobs)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .build();
+    }
+
+    /**
+     * Parse the expression and queue it on behalf of client. Syntax errors and expressions
+     * over the job cost limit are refused here rather than becoming failed jobs.
+     *
+     * @throws ResponseStatusException 400 if it does not parse, 422 if over budget, 429 if
+     *                                 the client has too much in flight, 503 if the job
+     *                                 queue is full
+     */
+    public JobStatus submit(String expression, EvaluationOptions options, String client) {
+        if (expression == null || expression.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "expr is required");
+        }
+        ParsedExpression parsed = expressionCache.get(expression);
+        expressionService.checkBudget(parsed, maxCost);
+
+        executor.admit(client);
+        Job job = new Job(UUID.randomUUID().toString(), expression, parsed, options, client);
+        active.put(job.id, job);
+        try {
+            workers.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            active.remove(job.id);
+            executor.release(client);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, job queue is full");
+        }
+        log.debug("Queued job {} for {}", job.id, expression);
+        return job.status();
+    }
+
+    public JobStatus get(String id) {
+        return lookup(id).status();
+    }
+
+    /**
+     * The job's status once it has finished or waitMillis (at most parser.jobs.max-wait-ms)
+     * has passed, whichever comes first. Does not hold a thread while waiting.
+     */
+    public CompletableFuture<JobStatus> await(String id, long waitMillis) {
+        Job job = lookup(id);
+        long wait = Math.min(Math.max(waitMillis, 0), maxWaitMillis);
+        if (wait == 0 || job.done.isDone()) {
+            return CompletableFuture.completedFuture(job.status());
+        }
+        return job.done.copy()
+                .completeOnTimeout(null, wait, TimeUnit.MILLISECONDS)
+                .thenApply(ignored -> job.status());
+    }
+
+    /**
+     * Cancel a queued or running job; a finished one is left as it is.
+     */
+    public JobStatus cancel(String id) {
+        Job job = lookup(id);
+        cancel(job);
+        return job.status();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void run(Job job) {
+        Deadline deadline = Deadline.in(timeoutMillis);
+        synchronized (job) {
+            if (job.state != State.QUEUED) {
+                return;
+            }
+            job.state = State.RUNNING;
+            job.started = Instant.now();
+            job.deadline = deadline;
+        }
+        try {
+            EvalResult result = expressionService.evaluate(job.parsed, job.options, deadline, maxCost);
+            finish(job, State.RUNNING, State.SUCCEEDED, result, null);
+        } catch (ResponseStatusException e) {
+            finish(job, State.RUNNING, deadline.isCancelled() ? State.CANCELLED : State.FAILED, null, e.getReason());
+        } catch (RuntimeException e) {
+            finish(job, State.RUNNING, State.FAILED, null, e.getMessage());
+        }
+    }
+
+    private void cancel(Job job) {
+        // A queued job is done with; its worker will find it cancelled and skip it
+        if (finish(job, State.QUEUED, State.CANCELLED, null, "Cancelled before it started")) {
+            return;
+        }
+        synchronized (job) {
+            if (job.state == State.RUNNING) {
+                job.deadline.cancel();
+            }
+        }
+    }
+
+    // Moves job from one state to a final one; false if it was not in from any more
+    private boolean finish(Job job, State from, State to, EvalResult result, String error) {
+        synchronized (job) {
+            if (job.state != from) {
+                return false;
+            }
+            job.state = to;
+            job.result = result;
+            job.error = error;
+            job.finished = Instant.now();
+        }
+        // Into the finished jobs before out of the active ones, so lookups always find it
+        finishedJobs.put(job.id, job);
+        active.remove(job.id);
+        executor.release(job.client);
+        job.done.complete(null);
+        log.debug("Job {} {}", job.id, to);
+        return true;
+    }
+
+    private Job lookup(String id) {
+        Job job = active.get(id);
+        if (job == null) {
+            job = finishedJobs.getIfPresent(id);
+        }
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No job " + id + " (unknown or expired)");
+        }
+        return job;
+    }
+
+    private static final class Job {
+        final String id;
+        final String expression;
+        final ParsedExpression parsed;
+        final EvaluationOptions options;
+        final String client;
+        final Instant submitted = Instant.now();
+        // Completed once the job has reached a final state, for long polls
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // Guarded by this
+        State state = State.QUEUED;
+        Instant started;
+        Instant finished;
+        EvalResult result;
+        String error;
+        Deadline deadline;
+
+        Job(String id, String expression, ParsedExpression parsed, EvaluationOptions options, String client) {
+            this.id = id;
+            this.expression = expression;
+            this.parsed = parsed;
+            this.options = options;
+            this.client = client;
+        }
+
+        synchronized JobStatus status() {
+            return new JobStatus(id, expression, state, result, error, submitted, started, finished);
+        }
+    }
+}
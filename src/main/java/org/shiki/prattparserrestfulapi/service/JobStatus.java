@@ -0,0 +1,12 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of an evaluation job. result is set once state is SUCCEEDED; error holds the
+ * reason for FAILED and CANCELLED. started and finished are null until the job gets there.
+ */
+public record JobStatus(String id, String expression, JobService.State state, EvalResult result, String error,
+                        Instant submitted, Instant started, Instant finished) {}
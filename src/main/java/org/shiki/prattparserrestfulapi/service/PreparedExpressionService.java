@@ -0,0 +1,162 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apfloat.Apfloat;
+import org.shiki.prattparserrestfulapi.parser.Deadline;
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Expressions with free variables, parsed once and then evaluated many times by handle id
+ * with different bindings. Handles live in a bounded registry and are evicted when it is
+ * full or when they have not been used for a while; an evicted id answers 404.
+ */
+@Service
+public class PreparedExpressionService {
+
+    private final ExpressionCache expressionCache;
+    private final ExpressionService expressionService;
+    private final EvaluationExecutor executor;
+    private final int maxBatch;
+    private final Cache<String, Prepared> handles;
+
+    private record Prepared(PreparedHandle handle, ParsedExpression parsed) {}
+
+    public PreparedExpressionService(ExpressionCache expressionCache, ExpressionService expressionService,
+                                     EvaluationExecutor executor,
+                                     @Value("${parser.prepared.max-handles:10000}") long maxHandles,
+                                     @Value("${parser.prepared.expire-after-access-minutes:60}") long expireMinutes,
+                                     @Value("${parser.batch.max-size:10000}") int maxBatch) {
+        this.expressionCache = expressionCache;
+        this.expressionService = expressionService;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.handles = Caffeine.newBuilder()
+                .maximumSize(maxHandles)
+                .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                .build();
+    }
+
+    public PreparedHandle prepare(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expression is required");
+        }
+        ParsedExpression parsed = expressionCache.get(expression);
+        if (parsed.isFunction()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Function definitions cannot be prepared");
+        }
+        expressionService.checkBudget(parsed);
+        PreparedHandle handle = new PreparedHandle(UUID.randomUUID().toString(), expression, parsed.variables());
+        handles.put(handle.id(), new Prepared(handle, parsed));
+        return handle;
+    }
+
+    public PreparedHandle describe(String id) {
+        return lookup(id).handle();
+    }
+
+    public CompletableFuture<EvalResult> evaluate(String id, Map<String, String> bindings, String client) {
+        Prepared prepared = lookup(id);
+        Map<String, Apfloat> env = bind(prepared, bindings);
+        // Priced with the bound values: x! is cheap for x = 3 and not for x = 3000000
+        long cost = prepared.parsed().cost(env);
+        expressionService.checkBudget(cost);
+        return executor.submit(client, cost, () -> expressionService.evaluateBound(prepared.parsed(), env));
+    }
+
+    /**
+     * Evaluate once per binding set, in order; a failing set is reported in its item and does
+     * not stop the others. The whole batch gets one request time limit: sets still waiting
+     * when it runs out fail with the timeout, rather than each getting a time limit of its own.
+     */
+    public CompletableFuture<List<BatchItem>> evaluateAll(String id, List<Map<String, String>> bindings, String client) {
+        Prepared prepared = lookup(id);
+        if (bindings == null || bindings.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        if (bindings.size() > maxBatch) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch size exceeds limit of " + maxBatch);
+        }
+        // Sets that do not bind or are over budget fail in their own item, and cost nothing
+        long cost = 0;
+        for (Map<String, String> set : bindings) {
+            try {
+                long one = prepared.parsed().cost(bind(prepared, set));
+                if (one <= expressionService.maxCost()) {
+                    cost = saturatedAdd(cost, one);
+                }
+            } catch (ResponseStatusException e) {
+                // reported when the set is evaluated
+            }
+        }
+        return executor.submit(client, cost, () -> {
+            // Started on the lane thread, so time spent queued does not count
+            Deadline deadline = expressionService.requestDeadline();
+            List<BatchItem> results = new ArrayList<>(bindings.size());
+            for (int i = 0; i < bindings.size(); i++) {
+                try {
+                    Map<String, Apfloat> env = bind(prepared, bindings.get(i));
+                    results.add(BatchItem.ok(i, expressionService.evaluateBound(prepared.parsed(), env, deadline)));
+                } catch (ResponseStatusException e) {
+                    results.add(BatchItem.error(i, e.getReason()));
+                } catch (RuntimeException e) {
+                    results.add(BatchItem.error(i, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                }
+            }
+            return results;
+        });
+    }
+
+    public void remove(String id) {
+        handles.invalidate(id);
+    }
+
+    long size() {
+        handles.cleanUp();
+        return handles.estimatedSize();
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private Prepared lookup(String id) {
+        Prepared prepared = handles.getIfPresent(id);
+        if (prepared == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired handle: " + id);
+        }
+        return prepared;
+    }
+
+    // Every variable needs a value; bindings for names the expression does not use are ignored
+    private static Map<String, Apfloat> bind(Prepared prepared, Map<String, String> bindings) {
+        List<String> variables = prepared.handle().variables();
+        Map<String, Apfloat> env = new HashMap<>(variables.size() * 2);
+        for (String name : variables) {
+            String value = bindings != null ? bindings.get(name) : null;
+            if (value == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing value for variable " + name);
+            }
+            try {
+                env.put(name, new Apfloat(value.trim(), 1000));
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid value for variable " + name + ": " + value);
+            }
+        }
+        return env;
+    }
+}
@@ -0,0 +1,9 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import java.util.List;
+
+/**
+ * A prepared expression: evaluate it by id with a value for each of its variables.
+ */
+public record PreparedHandle(String id, String expr, List<String> variables) {
+}
@@ -0,0 +1,476 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apfloat.Apfloat;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Results of expensive evaluations kept in a memory-mapped file, so a restarted instance
+ * serves them without computing them again. Entries are addressed by the expression's
+ * {@link ParsedExpression#canonicalDigest() canonical digest} plus the requested digits and
+ * rounding; only closed expressions (no variables) at or above parser.result-store.min-cost
+ * that evaluate to a number are stored.
+ *
+ * The file is a log of records, each {@code [length][crc32][key][value]}. A record is written
+ * in full, then a zero length after it, and only then its own length, so after a crash the
+ * scan on startup stops at the last complete record; a torn one fails its CRC. Once the log
+ * is three quarters full it is compacted in the background: the most recently used entries,
+ * up to half the size, are copied to a new file along with anything stored meanwhile, and
+ * that file then replaces the old one with an atomic rename. Results that arrive while the
+ * log is completely full are not stored; a compaction that fails is logged and tried again
+ * on a later put.
+ *
+ * Values are stored as their precision plus their decimal text packed two characters per
+ * byte, which is exact and about half the size of the text.
+ *
+ * Off by default (parser.result-store.enabled). All methods are synchronized; the store is
+ * only consulted for expressions expensive enough that this does not matter. Compaction
+ * copies records without the lock, which only covers taking a snapshot of the index and
+ * swapping the files.
+ */
+@Slf4j
+@Component
+public class ResultStore implements MeterBinder {
+
+    private static final int MAGIC = 0x50524331; // "PRC1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int KEY = 32;
+    // length and crc32 before the key
+    private static final int RECORD_HEADER = 8;
+    // Nibble codes for the characters of Apfloat.toString(); 15 pads an odd length
+    private static final String NIBBLES = "0123456789.-e";
+    private static final int PAD = 15;
+    // Records stored during a compaction are copied without the lock until fewer bytes than this are left
+    private static final int CATCH_UP = 64 * 1024;
+
+    private final boolean enabled;
+    private final Path path;
+    private final int capacity;
+    private final long minCost;
+    private final Map<ByteBuffer, Entry> index = new HashMap<>();
+    private final ExecutorService compactor;
+    private Future<?> compaction;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+    private long tick;
+    private long hits;
+    private long misses;
+
+    private static final class Entry {
+        final int offset;
+        long lastUsed;
+
+        Entry(int offset, long lastUsed) {
+            this.offset = offset;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    public ResultStore(@Value("${parser.result-store.enabled:false}") boolean enabled,
+                       @Value("${parser.result-store.path:data/result-store.bin}") String path,
+                       @Value("${parser.result-store.max-bytes:268435456}") long maxBytes,
+                       @Value("${parser.result-store.min-cost:10000}") long minCost) {
+        if (maxBytes < HEADER + RECORD_HEADER + KEY || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("parser.result-store.max-bytes must be between "
+                    + (HEADER + RECORD_HEADER + KEY) + " and " + Integer.MAX_VALUE);
+        }
+        this.enabled = enabled;
+        this.path = Path.of(path);
+        this.capacity = (int) maxBytes;
+        this.minCost = minCost;
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "result-store-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (enabled) {
+            open();
+            log.info("Result store {}: {} entries, {} of {} bytes used", this.path, index.size(), end, capacity);
+        }
+    }
+
+    /**
+     * A store that never holds anything, for wiring services up without a file.
+     */
+    static ResultStore disabled() {
+        return new ResultStore(false, "", HEADER + RECORD_HEADER + KEY, 0);
+    }
+
+    /**
+     * Key under which the result of evaluating parsed with options is stored, or null if it
+     * is not worth storing (cheap, has variables, a definition, or a double approximation).
+     */
+    public byte[] keyFor(ParsedExpression parsed, EvaluationOptions options) {
+        if (!enabled || parsed.isFunction() || !parsed.variables().isEmpty() || parsed.cost() < minCost
+                || options.engine() == EvaluationOptions.Engine.AUTO) {
+            return null;
+        }
+        MessageDigest sha = sha256();
+        sha.update(parsed.canonicalDigest());
+        // Rounding only matters when the result is rounded
+        Integer digits = options.digits();
+        RoundingMode rounding = digits == null ? null : options.rounding();
+        sha.update((digits + "/" + rounding).getBytes(StandardCharsets.UTF_8));
+        return sha.digest();
+    }
+
+    public synchronized Apfloat get(byte[] key) {
+        if (!enabled) return null;
+        Entry entry = index.get(ByteBuffer.wrap(key));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.lastUsed = ++tick;
+        int length = buffer.getInt(entry.offset);
+        byte[] value = new byte[length - KEY];
+        buffer.get(entry.offset + RECORD_HEADER + KEY, value);
+        return decode(value);
+    }
+
+    public synchronized void put(byte[] key, Apfloat value) {
+        if (!enabled || index.containsKey(ByteBuffer.wrap(key))) return;
+        byte[] encoded = encode(value);
+        int size = RECORD_HEADER + KEY + encoded.length;
+        // A record that would fill more than the half a compaction keeps is not worth it
+        if (size > (capacity - HEADER) / 2) return;
+        if (end + size + 4 > capacity) {
+            startCompaction();
+            return;
+        }
+        append(buffer, end, key, encoded);
+        index.put(ByteBuffer.wrap(key.clone()), new Entry(end, ++tick));
+        end += size;
+        if (end > HEADER + (capacity - HEADER) / 4 * 3) {
+            startCompaction();
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) return;
+        Gauge.builder("result.store.entries", this, ResultStore::size)
+                .description("Results in the persistent result store")
+                .register(registry);
+        Gauge.builder("result.store.bytes", this, s -> s.usedBytes())
+                .description("Bytes of the result store file in use")
+                .register(registry);
+        FunctionCounter.builder("result.store.lookups", this, s -> s.lookups(true))
+                .description("Result store lookups")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("result.store.lookups", this, s -> s.lookups(false))
+                .description("Result store lookups")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    /**
+     * Wait for the compaction in progress, if any, to finish.
+     */
+    void awaitCompaction() throws InterruptedException, ExecutionException {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running != null) {
+            running.get();
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        compactor.shutdownNow();
+        if (channel == null) return;
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Closing result store {}: {}", path, e.getMessage());
+        }
+        channel = null;
+    }
+
+    private synchronized int usedBytes() {
+        return end;
+    }
+
+    private synchronized long lookups(boolean hit) {
+        return hit ? hits : misses;
+    }
+
+    private void open() {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            map(path);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // New file, or one this version cannot read: start over
+                if (buffer.getInt(0) != 0) {
+                    log.warn("Result store {} has an unknown format, discarding it", path);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(HEADER, 0);
+                end = HEADER;
+                return;
+            }
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open result store " + path, e);
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Sparse on the usual file systems, so the full size costs nothing until written
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    // Index every complete record; the first bad or missing one marks the end of the log
+    private void recover() {
+        int offset = HEADER;
+        while (offset + RECORD_HEADER <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= KEY || offset + RECORD_HEADER + length > capacity) break;
+            byte[] body = new byte[length];
+            buffer.get(offset + RECORD_HEADER, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                log.warn("Result store {}: torn record at {}, dropping the rest of the log", path, offset);
+                break;
+            }
+            byte[] key = new byte[KEY];
+            System.arraycopy(body, 0, key, 0, KEY);
+            index.put(ByteBuffer.wrap(key), new Entry(offset, 0));
+            offset += RECORD_HEADER + length;
+        }
+        end = offset;
+    }
+
+    private void startCompaction() {
+        if (channel == null || (compaction != null && !compaction.isDone())) return;
+        compaction = compactor.submit(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot compact result store {}: {}", path, e.toString());
+            }
+        });
+    }
+
+    // Keep the most recently used entries up to half the capacity, in a new file swapped in atomically.
+    // Runs on the compactor thread; records are never changed once written, so they are read without the lock
+    private void compact() throws IOException {
+        MappedByteBuffer source;
+        List<Map.Entry<ByteBuffer, Entry>> entries;
+        int from;
+        synchronized (this) {
+            if (channel == null) return;
+            source = buffer;
+            from = end;
+            entries = new ArrayList<>();
+            for (Map.Entry<ByteBuffer, Entry> e : index.entrySet()) {
+                entries.add(Map.entry(e.getKey(), new Entry(e.getValue().offset, e.getValue().lastUsed)));
+            }
+        }
+        entries.sort(Comparator.comparingLong((Map.Entry<ByteBuffer, Entry> e) -> e.getValue().lastUsed).reversed());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            target.putInt(0, MAGIC);
+            target.putInt(4, VERSION);
+            target.putInt(HEADER, 0);
+            Map<ByteBuffer, Integer> kept = new HashMap<>();
+            int budget = HEADER + (capacity - HEADER) / 2;
+            int offset = HEADER;
+            for (Map.Entry<ByteBuffer, Entry> e : entries) {
+                int size = RECORD_HEADER + source.getInt(e.getValue().offset);
+                if (offset + size > budget) continue;
+                offset = copy(source, e.getValue().offset, target, offset, kept);
+            }
+            // Then whatever was stored meanwhile, finishing under the lock once little is left
+            while (true) {
+                int to;
+                synchronized (this) {
+                    if (channel == null) return;
+                    if (end - from <= CATCH_UP) {
+                        offset = copyAll(source, from, end, target, offset, kept);
+                        target.force();
+                        swap(tmp, out, target, offset, kept);
+                        out = null;
+                        return;
+                    }
+                    to = end;
+                }
+                offset = copyAll(source, from, to, target, offset, kept);
+                from = to;
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    // Records between from and to, as far as they fit
+    private int copyAll(ByteBuffer source, int from, int to, ByteBuffer target, int offset,
+                        Map<ByteBuffer, Integer> kept) {
+        for (int at = from; at < to; at += RECORD_HEADER + source.getInt(at)) {
+            if (offset + RECORD_HEADER + source.getInt(at) + 4 > capacity) break;
+            offset = copy(source, at, target, offset, kept);
+        }
+        return offset;
+    }
+
+    private static int copy(ByteBuffer source, int at, ByteBuffer target, int offset, Map<ByteBuffer, Integer> kept) {
+        int length = source.getInt(at);
+        byte[] key = new byte[KEY];
+        source.get(at + RECORD_HEADER, key);
+        byte[] value = new byte[length - KEY];
+        source.get(at + RECORD_HEADER + KEY, value);
+        append(target, offset, key, value);
+        kept.put(ByteBuffer.wrap(key), offset);
+        return offset + RECORD_HEADER + length;
+    }
+
+    // Under the lock: the new file takes the old one's name, and the index follows it
+    private void swap(Path tmp, FileChannel out, MappedByteBuffer target, int offset,
+                      Map<ByteBuffer, Integer> kept) throws IOException {
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Closing result store {}: {}", path, e.getMessage());
+        }
+        channel = out;
+        buffer = target;
+        log.info("Compacted result store {}: kept {} of {} entries", path, kept.size(), index.size());
+        Map<ByteBuffer, Entry> moved = new HashMap<>();
+        kept.forEach((key, at) -> moved.put(key, new Entry(at, index.get(key).lastUsed)));
+        index.clear();
+        index.putAll(moved);
+        end = offset;
+    }
+
+    // Body, then the terminator after it, then the length that makes it visible
+    private static void append(ByteBuffer target, int offset, byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        target.put(offset + RECORD_HEADER, key);
+        target.put(offset + RECORD_HEADER + KEY, value);
+        target.putInt(offset + 4, (int) crc.getValue());
+        int next = offset + RECORD_HEADER + KEY + value.length;
+        if (next + 4 <= target.capacity()) {
+            target.putInt(next, 0);
+        }
+        target.putInt(offset, KEY + value.length);
+    }
+
+    // Precision as a varint, then the text of the value two characters per byte
+    static byte[] encode(Apfloat value) {
+        String text = value.toString();
+        long precision = value.precision();
+        byte[] out = new byte[10 + (text.length() + 1) / 2];
+        int n = 0;
+        while ((precision & ~0x7FL) != 0) {
+            out[n++] = (byte) ((precision & 0x7F) | 0x80);
+            precision >>>= 7;
+        }
+        out[n++] = (byte) precision;
+        for (int i = 0; i < text.length(); i += 2) {
+            int high = nibble(text.charAt(i));
+            int low = i + 1 < text.length() ? nibble(text.charAt(i + 1)) : PAD;
+            out[n++] = (byte) (high << 4 | low);
+        }
+        byte[] packed = new byte[n];
+        System.arraycopy(out, 0, packed, 0, n);
+        return packed;
+    }
+
+    static Apfloat decode(byte[] bytes) {
+        long precision = 0;
+        int shift = 0;
+        int i = 0;
+        byte b;
+        do {
+            b = bytes[i++];
+            precision |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        StringBuilder text = new StringBuilder((bytes.length - i) * 2);
+        for (; i < bytes.length; i++) {
+            text.append(NIBBLES.charAt((bytes[i] >> 4) & 0xF));
+            int low = bytes[i] & 0xF;
+            if (low != PAD) {
+                text.append(NIBBLES.charAt(low));
+            }
+        }
+        return new Apfloat(text.toString(), precision);
+    }
+
+    private static int nibble(char c) {
+        int code = NIBBLES.indexOf(c);
+        if (code < 0) {
+            throw new IllegalArgumentException("Cannot pack '" + c + "' of a result");
+        }
+        return code;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import java.util.Locale;
+import java.util.function.UnaryOperator;
+
+/**
+ * Root of a function inside a bracket [a, b] where it changes sign. Bisection halves the
+ * bracket every step; Brent's method takes secant or inverse quadratic steps while they shrink
+ * the bracket fast enough and falls back to bisection otherwise, so it is never much slower
+ * than bisection and usually much faster.
+ */
+final class RootFinder {
+
+    enum Method {
+        BRENT, BISECTION;
+
+        static Method parse(String value) {
+            if (value == null || value.isBlank()) return BRENT;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown method: " + value);
+            }
+        }
+    }
+
+    /**
+     * The root, f at the root, and the number of steps after the first two evaluations.
+     */
+    record Result<T>(T root, T value, int iterations) {}
+
+    private RootFinder() {}
+
+    /**
+     * @throws IllegalArgumentException if f(a) and f(b) have the same sign
+     * @throws IllegalStateException    if f fails somewhere or the bracket is not within
+     *                                  tolerance after maxIterations steps
+     */
+    static <T> Result<T> find(Arithmetic<T> arithmetic, UnaryOperator<T> f, T a, T b, T tolerance,
+                              Method method, int maxIterations) {
+        T fa = f.apply(a);
+        if (arithmetic.signum(fa) == 0) return new Result<>(a, fa, 0);
+        T fb = f.apply(b);
+        if (arithmetic.signum(fb) == 0) return new Result<>(b, fb, 0);
+        if (arithmetic.signum(fa) == arithmetic.signum(fb)) {
+            throw new IllegalArgumentException("The function must have opposite signs at the two ends of the range");
+        }
+        return method == Method.BISECTION
+                ? bisection(arithmetic, f, a, b, fa, tolerance, maxIterations)
+                : brent(arithmetic, f, a, b, fa, fb, tolerance, maxIterations);
+    }
+
+    private static <T> Result<T> bisection(Arithmetic<T> arithmetic, UnaryOperator<T> f, T a, T b, T fa,
+                                           T tolerance, int maxIterations) {
+        T two = arithmetic.of(2);
+        for (int i = 1; i <= maxIterations; i++) {
+            T m = arithmetic.divide(arithmetic.add(a, b), two);
+            T fm = f.apply(m);
+            T halfWidth = arithmetic.abs(arithmetic.divide(arithmetic.subtract(b, a), two));
+            // The midpoint stops moving once a and b are adjacent numbers
+            if (arithmetic.signum(fm) == 0 || arithmetic.compare(halfWidth, tolerance) <= 0
+                    || arithmetic.compare(m, a) == 0 || arithmetic.compare(m, b) == 0) {
+                return new Result<>(m, fm, i);
+            }
+            if (arithmetic.signum(fm) == arithmetic.signum(fa)) {
+                a = m;
+                fa = fm;
+            } else {
+                b = m;
+            }
+        }
+        throw notConverged(maxIterations);
+    }
+
+    // Brent (1973) as in Numerical Recipes' zbrent: b is the best estimate, [b, c] the bracket
+    // and a the previous b
+    private static <T> Result<T> brent(Arithmetic<T> ar, UnaryOperator<T> f, T a, T b, T fa, T fb,
+                                       T tolerance, int maxIterations) {
+        T zero = ar.of(0);
+        T one = ar.of(1);
+        T two = ar.of(2);
+        T three = ar.of(3);
+        T half = ar.divide(one, two);
+        T c = b;
+        T fc = fb;
+        T d = zero;
+        T e = zero;
+        for (int i = 1; i <= maxIterations; i++) {
+            if (ar.signum(fb) == ar.signum(fc)) {
+                // Root is between a and b
+                c = a;
+                fc = fa;
+                d = ar.subtract(b, a);
+                e = d;
+            }
+            if (ar.compare(ar.abs(fc), ar.abs(fb)) < 0) {
+                a = b;
+                b = c;
+                c = a;
+                fa = fb;
+                fb = fc;
+                fc = fa;
+            }
+            T tol1 = ar.add(ar.multiply(ar.multiply(two, ar.epsilon()), ar.abs(b)), ar.multiply(half, tolerance));
+            T xm = ar.multiply(half, ar.subtract(c, b));
+            if (ar.compare(ar.abs(xm), tol1) <= 0 || ar.signum(fb) == 0) {
+                return new Result<>(b, fb, i - 1);
+            }
+            if (ar.compare(ar.abs(e), tol1) >= 0 && ar.compare(ar.abs(fa), ar.abs(fb)) > 0) {
+                T s = ar.divide(fb, fa);
+                T p;
+                T q;
+                if (ar.compare(a, c) == 0) {
+                    // Secant step
+                    p = ar.multiply(ar.multiply(two, xm), s);
+                    q = ar.subtract(one, s);
+                } else {
+                    // Inverse quadratic interpolation
+                    q = ar.divide(fa, fc);
+                    T r = ar.divide(fb, fc);
+                    p = ar.multiply(s, ar.subtract(
+                            ar.multiply(ar.multiply(ar.multiply(two, xm), q), ar.subtract(q, r)),
+                            ar.multiply(ar.subtract(b, a), ar.subtract(r, one))));
+                    q = ar.multiply(ar.multiply(ar.subtract(q, one), ar.subtract(r, one)), ar.subtract(s, one));
+                }
+                if (ar.signum(p) > 0) {
+                    q = ar.subtract(zero, q);
+                }
+                p = ar.abs(p);
+                T min1 = ar.subtract(ar.multiply(ar.multiply(three, xm), q), ar.abs(ar.multiply(tol1, q)));
+                T min2 = ar.abs(ar.multiply(e, q));
+                T limit = ar.compare(min1, min2) < 0 ? min1 : min2;
+                if (ar.compare(ar.multiply(two, p), limit) < 0) {
+                    // Accept the interpolation
+                    e = d;
+                    d = ar.divide(p, q);
+                } else {
+                    d = xm;
+                    e = d;
+                }
+            } else {
+                // Bounds shrinking too slowly, bisect
+                d = xm;
+                e = d;
+            }
+            a = b;
+            fa = fb;
+            if (ar.compare(ar.abs(d), tol1) > 0) {
+                b = ar.add(b, d);
+            } else {
+                b = ar.signum(xm) >= 0 ? ar.add(b, tol1) : ar.subtract(b, tol1);
+            }
+            fb = f.apply(b);
+        }
+        throw notConverged(maxIterations);
+    }
+
+    private static IllegalStateException notConverged(int maxIterations) {
+        return new IllegalStateException("No root within tolerance after " + maxIterations + " iterations");
+    }
+}
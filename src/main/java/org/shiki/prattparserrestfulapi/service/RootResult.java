@@ -0,0 +1,9 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.apfloat.Apfloat;
+
+/**
+ * A root of a function and the function's value there, found with method in iterations steps.
+ */
+public record RootResult(String name, String param, Apfloat root, Apfloat value, int iterations,
+                         String method, String precision) {}
@@ -0,0 +1,8 @@
+package org.shiki.prattparserrestfulapi.service;
+
+/**
+ * Samples of a function over a range. x and y are parallel arrays. failed lists the indices
+ * where the function could not be evaluated (domain errors, values out of range for a double,
+ * ...), and errors the reason for each, in the same order; y is NaN there.
+ */
+public record SampleResult(String name, String param, double[] x, double[] y, int[] failed, String[] errors) {}
@@ -0,0 +1,11 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.shiki.prattparserrestfulapi.parser.IncrementalParser;
+
+/**
+ * State of an editing session after an edit. While the text does not parse (or fails to
+ * evaluate) result is null and error says why.
+ */
+public record SessionResult(String id, String text, EvalResult result, String error, IncrementalParser.Stats stats) {
+}
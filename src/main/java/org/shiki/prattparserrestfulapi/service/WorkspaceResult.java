@@ -0,0 +1,12 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.shiki.prattparserrestfulapi.parser.Workspace;
+
+import java.util.List;
+
+/**
+ * Definitions of a workspace: all of them when listing, otherwise those a change
+ * recomputed, in the order they were computed.
+ */
+public record WorkspaceResult(String id, List<Workspace.Entry> entries) {
+}
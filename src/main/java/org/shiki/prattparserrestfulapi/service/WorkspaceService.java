@@ -0,0 +1,130 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.shiki.prattparserrestfulapi.parser.Workspace;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-client workspaces of named values, functions and points ({@link Workspace}). Changing
+ * a definition recomputes only what depends on it. Changes to one workspace are applied in
+ * arrival order; the recomputation runs on an evaluation lane, each definition under the
+ * usual budget and deadline. A definition that would exceed the budget in size alone once
+ * functions are inlined is refused up front with 422.
+ */
+@Service
+public class WorkspaceService {
+
+    private final ExpressionService expressionService;
+    private final EvaluationExecutor executor;
+    private final Cache<String, Workspace> workspaces;
+    private final int maxDefinitions;
+
+    public WorkspaceService(ExpressionService expressionService, EvaluationExecutor executor,
+                            @Value("${parser.workspace.max-workspaces:1000}") long maxWorkspaces,
+                            @Value("${parser.workspace.max-definitions:1000}") int maxDefinitions,
+                            @Value("${parser.workspace.expire-after-access-minutes:60}") long expireMinutes) {
+        this.expressionService = expressionService;
+        this.executor = executor;
+        this.maxDefinitions = maxDefinitions;
+        this.workspaces = Caffeine.newBuilder()
+                .maximumSize(maxWorkspaces)
+                .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                .build();
+    }
+
+    public WorkspaceResult open() {
+        String id = UUID.randomUUID().toString();
+        Workspace workspace = new Workspace((parsed, cost, work) -> {
+            try {
+                return expressionService.evaluateWith(parsed, cost, work);
+            } catch (ResponseStatusException e) {
+                // Over budget or out of time: that definition fails, the others still run
+                throw new IllegalStateException(e.getReason());
+            }
+        }, expressionService.maxDepth(), expressionService.maxCost());
+        workspaces.put(id, workspace);
+        return new WorkspaceResult(id, workspace.entries());
+    }
+
+    public WorkspaceResult get(String id) {
+        Workspace workspace = lookup(id);
+        synchronized (workspace) {
+            return new WorkspaceResult(id, workspace.entries());
+        }
+    }
+
+    /**
+     * Add or replace one definition; the result lists it and every recomputed dependent.
+     */
+    public CompletableFuture<WorkspaceResult> define(String id, String definition, String client) {
+        Workspace workspace = lookup(id);
+        synchronized (workspace) {
+            Workspace.Change change;
+            try {
+                change = workspace.define(definition);
+            } catch (Workspace.TooLarge e) {
+                // Every node costs at least one, so it is over budget before it is even built
+                expressionService.checkBudget(e.size());
+                throw e;
+            } catch (RuntimeException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+            // Only a new name can overflow it; redefining one is always allowed
+            if (workspace.size() > maxDefinitions) {
+                workspace.undo(change);
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Workspace is full (" + maxDefinitions + " definitions)");
+            }
+            return recompute(id, workspace, change, client);
+        }
+    }
+
+    public CompletableFuture<WorkspaceResult> remove(String id, String name, String client) {
+        Workspace workspace = lookup(id);
+        synchronized (workspace) {
+            Workspace.Change change = workspace.remove(name);
+            if (change == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No definition named " + name);
+            }
+            return recompute(id, workspace, change, client);
+        }
+    }
+
+    public void close(String id) {
+        workspaces.invalidate(id);
+    }
+
+    // The graph changes on the calling thread, so changes keep their order; a change whose
+    // recomputation is refused (429, 503) is taken back, so the client can simply retry.
+    // Recomputations may finish out of order on different lanes, which is fine since each
+    // one evaluates everything changed so far, not just its own change
+    private CompletableFuture<WorkspaceResult> recompute(String id, Workspace workspace,
+                                                        Workspace.Change change, String client) {
+        try {
+            return executor.submit(client, change.cost(), () -> {
+                synchronized (workspace) {
+                    return new WorkspaceResult(id, workspace.recompute(change));
+                }
+            });
+        } catch (RuntimeException e) {
+            workspace.undo(change);
+            throw e;
+        }
+    }
+
+    private Workspace lookup(String id) {
+        Workspace workspace = workspaces.getIfPresent(id);
+        if (workspace == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired workspace: " + id);
+        }
+        return workspace;
+    }
+}
@@ -0,0 +1,36 @@
+package org.shiki.prattparserrestfulapi.utils;
+
+import org.apfloat.Apfloat;
+import org.springframework.boot.jackson.JacksonComponent;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.ValueSerializer;
+import tools.jackson.dataformat.cbor.CBORGenerator;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes results as numbers. In JSON that is the decimal text, as before. In CBOR
+ * ({@code Accept: application/cbor}) it is a decimal fraction (tag 4): a binary mantissa and
+ * a base-10 exponent, about 0.42 bytes per digit instead of one. A value whose exponent does
+ * not fit the int scale of a BigDecimal is written as its decimal text instead.
+ */
+@JacksonComponent
+public class ApfloatSerializer extends ValueSerializer<Apfloat> {
+
+    @Override
+    public void serialize(Apfloat value, JsonGenerator gen, SerializationContext ctxt) {
+        if (gen instanceof CBORGenerator) {
+            BigDecimal decimal;
+            try {
+                decimal = new BigDecimal(value.toString());
+            } catch (NumberFormatException e) {
+                gen.writeString(value.toString());
+                return;
+            }
+            gen.writeNumber(decimal);
+        } else {
+            gen.writeNumber(value.toString());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.shiki.prattparserrestfulapi.utils;
+
+import org.springframework.boot.http.converter.autoconfigure.ServerHttpMessageConvertersCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.JacksonCborHttpMessageConverter;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+@Configuration
+public class CborConfig {
+
+    // The default CBOR converter builds its own mapper, without ApfloatSerializer. Replacing it
+    // in its own slot keeps JSON first, so CBOR is only used when the client asks for it.
+    @Bean
+    public ServerHttpMessageConvertersCustomizer cborConverterCustomizer(CBORMapper cborMapper) {
+        return builder -> builder.withCborConverter(new JacksonCborHttpMessageConverter(cborMapper));
+    }
+}
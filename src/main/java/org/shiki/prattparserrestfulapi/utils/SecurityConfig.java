@@ -21,9 +21,15 @@ public class SecurityConfig {
                         // Allow ALL requests (GET and POST) to the expression/evaluate endpoint
                         .requestMatchers("/api/v1/expression/evaluate/**").permitAll()
 
+                        // Evaluation jobs: submit, poll and cancel
+                        .requestMatchers("/api/v1/expression/jobs/**").permitAll()
+
                         // You should also allow the Actuator health checks
                         .requestMatchers("/actuator/**").permitAll()
 
+                        // Error dispatches carry the real status (422, 429, 503); without this they turn into 403
+                        .requestMatchers("/error").permitAll()
+
                         // Require authentication for all other requests
                         .anyRequest().authenticated()
                 );
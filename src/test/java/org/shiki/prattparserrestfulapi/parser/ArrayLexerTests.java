@@ -0,0 +1,83 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrayLexerTests {
+
+    private static final String[] INPUTS = {
+            "", "1 + 4 + 5 + 3", "-4 + 6 / 2 * 3 - 1", "log_2(8)", "A(1, 2)", "(3, (1 + 2) * 4)",
+            "sin(x)^2 + cos(x)^2", "  12ab\t* 7! ", "f(x) = x ^ 2"
+    };
+
+    @Test
+    void TestSameTokensAsLexer() {
+        for (String input : INPUTS) {
+            Lexer expected = new Lexer(input);
+            ArrayLexer actual = new ArrayLexer(input);
+            while (true) {
+                Token e = expected.peek();
+                assertEquals(e.toString(), actual.peek().toString(), input);
+                assertEquals(expected.hasTopLevelCommaUntilClosingParen(), actual.hasTopLevelCommaUntilClosingParen(), input);
+                assertEquals(e.toString(), actual.next().toString(), input);
+                if (expected.next().type == Token.Type.EoF) break;
+            }
+        }
+    }
+
+    @Test
+    void TestOperatorAndEofTokensAreShared() {
+        ArrayLexer lexer = new ArrayLexer("1 + 2 + 3");
+        lexer.next();
+        Token plus = lexer.next();
+        lexer.next();
+        assertSame(plus, lexer.next());
+        lexer.next();
+        assertSame(lexer.next(), lexer.peek());
+    }
+
+    @Test
+    void TestEditMatchesFreshLex() {
+        Random random = new Random(42);
+        String alphabet = "12ab (),+*!^ _";
+        for (String input : INPUTS) {
+            ArrayLexer lexer = new ArrayLexer(input);
+            for (int round = 0; round < 200; round++) {
+                String text = lexer.input();
+                int offset = random.nextInt(text.length() + 1);
+                int deleted = random.nextInt(Math.min(3, text.length() - offset) + 1);
+                StringBuilder inserted = new StringBuilder();
+                for (int i = random.nextInt(3); i > 0; i--) {
+                    inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                lexer = ArrayLexer.edit(lexer, offset, deleted, inserted.toString());
+                assertSameTokens(new ArrayLexer(lexer.input()), lexer);
+            }
+        }
+    }
+
+    @Test
+    void TestEditReusesTokensAwayFromTheChange() {
+        ArrayLexer lexer = new ArrayLexer("1 + 2 * 3 + 4 * 5");
+        ArrayLexer edited = ArrayLexer.edit(lexer, 4, 1, "22");
+
+        assertEquals("1 + 22 * 3 + 4 * 5", edited.input());
+        // '1', '+' before and everything from '*' on after
+        assertEquals(edited.size() - 1, edited.reused());
+    }
+
+    // Consumes actual; the next edit does not depend on its position
+    private static void assertSameTokens(ArrayLexer expected, ArrayLexer actual) {
+        assertEquals(expected.size(), actual.size(), expected.input());
+        while (true) {
+            Token e = expected.peek();
+            assertEquals(e.toString(), actual.peek().toString(), expected.input());
+            assertEquals(expected.hasTopLevelCommaUntilClosingParen(), actual.hasTopLevelCommaUntilClosingParen(), expected.input());
+            actual.next();
+            if (expected.next().type == Token.Type.EoF) break;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CanonicalFormTests {
+
+    private static byte[] digest(String input) {
+        return Parser.parse(input).canonicalDigest();
+    }
+
+    @Test
+    void TestOperandOrderOfPlusAndTimesIgnored() {
+        assertArrayEquals(digest("2 * (1 + x)"), digest("(x + 1) * 2"));
+        assertArrayEquals(digest("sin(a * b) + 3!"), digest("3! + sin(b * a)"));
+    }
+
+    @Test
+    void TestEverythingElseCounts() {
+        assertFalse(Arrays.equals(digest("2 - 1"), digest("1 - 2")));
+        assertFalse(Arrays.equals(digest("2 ^ 3"), digest("3 ^ 2")));
+        assertFalse(Arrays.equals(digest("(a + b) + c"), digest("a + (b + c)")));
+        assertFalse(Arrays.equals(digest("1 + 2"), digest("12")));
+        assertFalse(Arrays.equals(digest("sin(1)"), digest("cos(1)")));
+    }
+}
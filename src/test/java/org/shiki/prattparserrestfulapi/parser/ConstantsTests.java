@@ -0,0 +1,31 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantsTests {
+
+    @Test
+    void TestConstantsArePooledPerPrecision() {
+        assertSame(Constants.e(1000), Constants.e(1000));
+        assertEquals(ApfloatMath.pi(50), Constants.pi(50));
+        assertNotEquals(Constants.pi(50), Constants.pi(60));
+        assertSame(Constants.literal("12345", 1000), Constants.literal("12345", 1000));
+    }
+
+    @Test
+    void TestLogBaseUsesPooledLogarithms() {
+        assertSame(Constants.ln2(1000), Constants.log(new Apfloat("2", 1000)));
+        assertEquals(ApfloatMath.log(new Apfloat("10", 1000)), Constants.log(new Apfloat("10", 1000)));
+        assertEquals(new Apfloat(3), ApfloatMath.roundToPrecision(Parser.eval("log_2(8)").number(), 20, java.math.RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void TestNamedConstantsInExpressions() {
+        assertEquals(Constants.pi(1000).multiply(new Apfloat(2)), Parser.eval("2 * pi").number());
+        assertEquals(ApfloatMath.log(Constants.e(1000), Constants.e(1000)), Parser.eval("ln(e)").number());
+    }
+}
@@ -0,0 +1,43 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CostModelTests {
+
+    private static long cost(String expr) {
+        return CostModel.estimate(Parser.expr(expr), 1000);
+    }
+
+    @Test
+    void TestArithmeticIsCheap() {
+        assertTrue(cost("1 + 2 * 3 - 4 / 5") < 100);
+        assertTrue(cost("20! * 30!") < 100);
+    }
+
+    @Test
+    void TestFactorialGrowsWithArgument() {
+        assertTrue(cost("5000!") < cost("20000!"));
+        assertTrue(cost("20000!") < cost("99999!"));
+        assertTrue(cost("(10^6)!") > 10_000_000);
+    }
+
+    @Test
+    void TestNestedFactorialIsEstimatedFromValue() {
+        // 10! = 3628800, so 10!! is far beyond anything evaluable
+        assertTrue(cost("10!!") > 1_000_000_000L);
+        assertEquals(Long.MAX_VALUE, cost("(10^20)!"));
+    }
+
+    @Test
+    void TestBoundVariablesArePricedByValue() {
+        LipsNotation tree = Parser.expr("x! + 1");
+        assertTrue(CostModel.estimate(tree, 1000) < 100);
+        assertEquals(CostModel.estimate(Parser.expr("3000000! + 1"), 1000),
+                CostModel.estimate(tree, 1000, Map.of("x", new Apfloat(3000000))));
+    }
+}
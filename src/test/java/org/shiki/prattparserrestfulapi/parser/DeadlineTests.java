@@ -0,0 +1,30 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineTests {
+
+    @Test
+    void TestExpiredDeadlineStopsEvaluation() {
+        Deadline deadline = Deadline.in(0);
+        assertThrows(EvaluationCancelledException.class, () -> deadline.run(() -> Parser.eval("1 + 2")));
+    }
+
+    @Test
+    void TestCancelledDuringFactorial() {
+        Deadline deadline = Deadline.in(60_000);
+        deadline.cancel();
+        // Parallel product: the deadline has to reach the pool threads too
+        assertThrows(EvaluationCancelledException.class, () -> deadline.run(() -> Factorials.factorial(200_000)));
+    }
+
+    @Test
+    void TestDeadlineIsRemovedAfterRun() {
+        Deadline.in(60_000).run(() -> Parser.eval("2 ^ 10"));
+
+        assertNull(Deadline.current());
+        assertEquals("1.024e3", Parser.eval("2 ^ 10").number().toString());
+    }
+}
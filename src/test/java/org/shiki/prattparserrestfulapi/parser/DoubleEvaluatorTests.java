@@ -0,0 +1,53 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DoubleEvaluatorTests {
+
+    private static DoubleEvaluator.Result eval(String expr) {
+        return DoubleEvaluator.evaluate(Parser.parse(expr).tree());
+    }
+
+    @Test
+    void TestIntegerArithmeticIsExact() {
+        DoubleEvaluator.Result r = eval("2 + 3 * 4 - 5");
+        assertEquals(9, r.value());
+        assertTrue(r.isExact());
+
+        assertTrue(eval("2 ^ 52 + 1").isExact());
+        assertTrue(eval("20 / 2 / 2").isExact());
+        assertTrue(eval("10!").isExact());
+        assertFalse(eval("1 / 3").isExact());
+    }
+
+    @Test
+    void TestErrorBoundHolds() {
+        String[] exprs = {"1 / 3 * 7", "sin(1) + cos(2)", "log(3, 81)", "ln(10) * 2 ^ 0", "tan(1) / 7", "2 ^ 70 + 1", "25!"};
+        for (String expr : exprs) {
+            DoubleEvaluator.Result r = eval(expr);
+            Apfloat exact = Parser.parse(expr).tree().eval();
+            Apfloat error = ApfloatMath.abs(new Apfloat(r.value()).subtract(exact)).divide(ApfloatMath.abs(exact));
+            assertTrue(error.doubleValue() <= r.errorBound(), expr + ": " + error + " > " + r.errorBound());
+        }
+    }
+
+    @Test
+    void TestUnsupportedInputsFallBack() {
+        assertThrows(DoubleEvaluator.Unsupported.class, () -> eval("x + 1"));
+        assertThrows(DoubleEvaluator.Unsupported.class, () -> eval("200!"));
+        assertThrows(DoubleEvaluator.Unsupported.class, () -> eval("10 ^ 400"));
+        assertThrows(DoubleEvaluator.Unsupported.class, () -> eval("1 / 0"));
+    }
+
+    @Test
+    void TestEvaluateFastReportsEngine() {
+        assertEquals(EvalResult.ENGINE_DOUBLE, Parser.evaluateFast(Parser.parse("2 + 3 * 4"), 0).engine());
+        assertEquals(EvalResult.ENGINE_APFLOAT, Parser.evaluateFast(Parser.parse("1 / 3"), 0).engine());
+        assertEquals(EvalResult.ENGINE_DOUBLE, Parser.evaluateFast(Parser.parse("1 / 3"), 1e-12).engine());
+        assertEquals(EvalResult.ENGINE_APFLOAT, Parser.evaluateFast(Parser.parse("30!"), 0).engine());
+    }
+}
@@ -0,0 +1,36 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTests {
+
+    private static LipsNotation tree(String expr) {
+        return Parser.parse(expr).tree();
+    }
+
+    @Test
+    void TestCompiledMatchesInterpreter() {
+        String[] exprs = {
+                "2 + 3 * 4 - 5", "-4 + 6 / 2 * 3 - 1", "2 ^ 10 % 7", "5!", "sin(1) + cos(2) * tan(3)",
+                "log(8)", "log_2(8)", "log(3, 81)", "ln(10)", "-(1 - 2) / 3"
+        };
+        for (String expr : exprs) {
+            LipsNotation ln = tree(expr);
+            CompiledExpression compiled = ExpressionCompiler.compile(ln);
+            assertTrue(compiled.isCompiled(), expr);
+            assertEquals(ln.eval(), compiled.evaluate(), expr);
+        }
+    }
+
+    @Test
+    void TestUnsupportedTreeFallsBackToInterpreter() {
+        CompiledExpression compiled = ExpressionCompiler.compile(tree("1 / 0"));
+        assertFalse(compiled.isCompiled());
+        RuntimeException e = assertThrows(RuntimeException.class, compiled::evaluate);
+        assertEquals("Cannot divide by 0.", e.getMessage());
+
+        assertFalse(ExpressionCompiler.compile(tree("x + 1")).isCompiled());
+    }
+}
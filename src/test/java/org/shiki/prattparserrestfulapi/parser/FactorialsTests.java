@@ -0,0 +1,37 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FactorialsTests {
+
+    // The loop LipsNotation.factorial used before the table / binary splitting engine
+    private static Apfloat naive(long n) {
+        Apfloat result = Apfloat.ONE;
+        for (long i = 2; i <= n; i++) {
+            result = result.multiply(new Apfloat(i, Apfloat.INFINITE));
+        }
+        return result;
+    }
+
+    @Test
+    void TestMatchesNaiveProduct() {
+        for (long n : new long[]{2, 5, 20, 255, 256, 300, 1000, 5000}) {
+            assertEquals(naive(n), Factorials.factorial(n), "n = " + n);
+        }
+    }
+
+    @Test
+    void TestFormatUnchanged() {
+        assertEquals("1.2e2", Parser.eval("5!").number().toString());
+        assertEquals("1", Parser.eval("1!").number().toString());
+    }
+
+    @Test
+    void TestInvalidArguments() {
+        assertThrows(RuntimeException.class, () -> Parser.eval("(0 - 3)!"));
+        assertThrows(RuntimeException.class, () -> Factorials.factorial(Factorials.MAX_ARGUMENT + 1));
+    }
+}
@@ -0,0 +1,94 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatTreeTests {
+
+    private static final String[] EXPRESSIONS = {
+            "1 + 4 + 5 + 3", "-4 + 6 / 2 * 3 - 1", "log_2(8)", "log_(1 + 1)(8)", "log(100)", "ln(e)",
+            "sin(1)^2 + cos(1)^2", "tan(pi / 4)", "2 ^ 3 ^ 2", "-2 ^ 2", "3!! + 1", "17 % 5", "2 * pi * 1000"
+    };
+
+    @Test
+    void TestSameValuesAsTree() {
+        for (String input : EXPRESSIONS) {
+            LipsNotation tree = Parser.expr(input);
+            assertEquals(tree.eval(), FlatTree.of(tree).evaluate(), input);
+            assertEquals(tree.eval(), Parser.parseFlat(input).evaluate(), input);
+        }
+    }
+
+    @Test
+    void TestRoundTrip() {
+        for (String input : EXPRESSIONS) {
+            LipsNotation tree = Parser.expr(input);
+            assertEquals(tree.toString(), FlatTree.of(tree).toLipsNotation().toString(), input);
+            assertEquals(tree.toString(), Parser.parseFlat(input).toString(), input);
+        }
+    }
+
+    @Test
+    void TestConstNodesKeepTheirValue() {
+        Apfloat third = new Apfloat(1).divide(new Apfloat(3, 50));
+        LipsNotation tree = new LipsNotation.Cons("*", List.of(new LipsNotation.Const(third), new LipsNotation.Atom("3")));
+
+        FlatTree flat = FlatTree.of(tree);
+
+        assertEquals(tree.eval(), flat.evaluate());
+        assertInstanceOf(LipsNotation.Const.class, ((LipsNotation.Cons) flat.toLipsNotation()).rest().get(0));
+    }
+
+    @Test
+    void TestFunctionNamesAreNotNodes() {
+        // sin and the log base's name are heads, not atoms of their own
+        assertEquals(2, Parser.parseFlat("sin(1)").size());
+        assertEquals(3, Parser.parseFlat("log_2(8)").size());
+    }
+
+    @Test
+    void TestBindings() {
+        FlatTree flat = Parser.parseFlat("x ^ 2 + x");
+
+        assertEquals(new Apfloat(12), flat.evaluate(Map.of("x", new Apfloat(3))));
+        assertThrows(NumberFormatException.class, flat::evaluate);
+    }
+
+    @Test
+    void TestSameErrorsAsTree() {
+        String[] inputs = {"1 / 0", "log()", "f(2)", "(1, 2) + 1", "(-1)!", "12ab"};
+        for (String input : inputs) {
+            RuntimeException expected = assertThrows(RuntimeException.class, () -> Parser.expr(input).eval(), input);
+            RuntimeException actual = assertThrows(RuntimeException.class, () -> Parser.parseFlat(input).evaluate(), input);
+            assertEquals(expected.getMessage(), actual.getMessage(), input);
+        }
+    }
+
+    @Test
+    void TestDefinitionsHaveNoFlatForm() {
+        assertThrows(IllegalArgumentException.class, () -> Parser.parseFlat("f(x) = x"));
+    }
+
+    @Test
+    void TestDeepNesting() {
+        int depth = 100_000;
+        FlatTree flat = Parser.parseFlat("1 + (".repeat(depth) + "1" + ")".repeat(depth));
+
+        assertEquals(2 * depth + 1, flat.size());
+        assertEquals(new Apfloat(depth + 1), flat.evaluate());
+    }
+
+    @Test
+    void TestEvaluateFlat() {
+        EvalResult result = Parser.evaluateFlat(Parser.parse("2 ^ 10"));
+
+        assertEquals(EvalResult.ENGINE_FLAT, result.engine());
+        assertEquals(new Apfloat(1024), result.number());
+        assertEquals("point", Parser.evaluateFlat(Parser.parse("(1, 2)")).kind());
+    }
+}
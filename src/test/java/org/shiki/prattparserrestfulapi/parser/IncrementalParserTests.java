@@ -0,0 +1,55 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalParserTests {
+
+    @Test
+    void TestEditsEvaluateLikeFullParse() {
+        IncrementalParser session = new IncrementalParser("sin(1) + 2 * 3");
+        session.evaluate(session.parse());
+
+        String[][] edits = {
+                // offset, deleted, inserted
+                {"13", "1", "4"},
+                {"0", "0", "5! - "},
+                {"11", "0", " * 2"},
+                {"0", "2", "3"},
+        };
+        for (String[] e : edits) {
+            ParsedExpression parsed = session.edit(Integer.parseInt(e[0]), Integer.parseInt(e[1]), e[2]);
+            assertEquals(Parser.eval(session.text()).number(), session.evaluate(parsed).number(), session.text());
+        }
+        assertEquals("3 - sin(1) * 2 + 2 * 4", session.text());
+    }
+
+    @Test
+    void TestOnlyChangedSubtreesAreEvaluated() {
+        IncrementalParser session = new IncrementalParser("sin(1) * cos(2) + 3");
+        session.evaluate(session.parse());
+
+        session.evaluate(session.edit(18, 1, "4"));
+
+        IncrementalParser.Stats stats = session.stats();
+        // (+ (* (sin 1) (cos 2)) 4): the new literal and the sum
+        assertEquals(2, stats.nodesEvaluated());
+        assertTrue(stats.nodesReused() >= 5);
+        assertTrue(stats.tokensReused() >= 8);
+    }
+
+    @Test
+    void TestUnparsableIntermediateTextKeepsValues() {
+        IncrementalParser session = new IncrementalParser("sin(1) + 2");
+        session.evaluate(session.parse());
+
+        assertThrows(RuntimeException.class, () -> session.edit(10, 0, " +"));
+        ParsedExpression parsed = session.edit(12, 0, " 3");
+
+        assertEquals("sin(1) + 2 + 3", session.text());
+        assertEquals(Parser.eval("sin(1) + 2 + 3").number(), session.evaluate(parsed).number());
+        // The old root is the left operand of the new one
+        assertEquals(2, session.stats().nodesEvaluated());
+    }
+}
@@ -0,0 +1,106 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IterativeParserTests {
+
+    private static final String[] PIECES = {
+            "1", "23", "x", "f", "log", "sin", "A", "_", "(", ")", ",", "+", "-", "*", "/", "%", "^", "!", " "
+    };
+
+    // Tree text or error message, whichever the parser produces
+    private static String outcome(Lexer lexer) {
+        try {
+            return Parser.expr(lexer).toString();
+        } catch (RuntimeException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    @Test
+    void TestSameOutcomeAsRecursiveParser() {
+        String[] inputs = {
+                "", "1 + 4 + 5 + 3", "-4 + 6 / 2 * 3 - 1", "log_2(8)", "log_(1 + 1)(8, 2)", "log_2", "A(1, 2)",
+                "(3, (1 + 2) * 4)", "sin(x)^2 + cos(x)^2", "2 ^ 3 ^ 2", "-2 ^ 2", "3!! + 1", "f()", "(f)(2)",
+                "1 2", "sin 2", "(1", "1 +", "f(1", "log_", "(1,2", "- * 1", ")", "1 )", "1 , 2", "((1, 2), (3))"
+        };
+        for (String input : inputs) {
+            assertEquals(outcome(new Lexer(input)), outcome(new ArrayLexer(input)), input);
+        }
+    }
+
+    @Test
+    void TestTrailingTokensAreRefused() {
+        for (String input : new String[] {"1 2", "2 x", "sin 2", "1 )", "(1 + 2) 3"}) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> Parser.parse(input), input);
+            assertTrue(e.getMessage().startsWith("Unexpected token after the end of the expression"), e.getMessage());
+            assertThrows(RuntimeException.class, () -> Parser.parseFlat(input), input);
+        }
+        assertEquals("3", Parser.eval("1 + 2").number().toString());
+    }
+
+    @Test
+    void TestRandomTokenSequences() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20_000; round++) {
+            StringBuilder input = new StringBuilder();
+            for (int i = random.nextInt(16); i > 0; i--) {
+                input.append(PIECES[random.nextInt(PIECES.length)]).append(' ');
+            }
+            String text = input.toString();
+            assertEquals(outcome(new Lexer(text)), outcome(new ArrayLexer(text)), text);
+        }
+    }
+
+    @Test
+    void TestDeepNestingHasNoDepthLimit() {
+        int depth = 200_000;
+        LipsNotation tree = Parser.expr("1 + (".repeat(depth) + "1" + ")".repeat(depth));
+
+        // Walked with a loop; toString() would recurse
+        int levels = 0;
+        while (tree instanceof LipsNotation.Cons) {
+            LipsNotation.Cons cons = (LipsNotation.Cons) tree;
+            assertEquals("+", cons.head());
+            tree = cons.rest().get(1);
+            levels++;
+        }
+        assertEquals(depth, levels);
+        assertEquals("1", Parser.expr("(".repeat(depth) + "1" + ")".repeat(depth)).toString());
+        assertEquals("(- (- (- 1)))", Parser.expr("- - - 1").toString());
+    }
+
+    @Test
+    void TestParseHasNoDepthLimit() {
+        // Node counts, cost and variables are all worked out while parsing
+        int depth = 20_000;
+        ParsedExpression parsed = Parser.parse("1 + (".repeat(depth) + "x" + ")".repeat(depth));
+
+        assertEquals(depth + 1, parsed.depth());
+        assertEquals(2 * depth + 1, parsed.nodeCount());
+        assertEquals(depth, parsed.operatorCounts().get("+"));
+        assertEquals(List.of("x"), parsed.variables());
+        assertTrue(parsed.cost() > depth);
+    }
+
+    @Test
+    void TestLinearInInputLength() {
+        // Nested tuples made the forward comma scan quadratic. Counted in lexer steps rather
+        // than timed, so a busy machine cannot fail it.
+        String[] inputs = {
+                "(1, ".repeat(64_000) + "1" + ")".repeat(64_000),
+                "1 + (".repeat(64_000) + "1" + ")".repeat(64_000),
+                "f(".repeat(64_000) + "1" + ")".repeat(64_000)
+        };
+        for (String input : inputs) {
+            ArrayLexer lexer = new ArrayLexer(input);
+            Parser.expr(lexer);
+            assertTrue(lexer.examined() <= 4L * lexer.size(), lexer.examined() + " steps for " + lexer.size() + " tokens");
+        }
+    }
+}
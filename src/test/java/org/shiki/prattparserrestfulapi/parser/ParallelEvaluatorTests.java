@@ -0,0 +1,74 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelEvaluatorTests {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    // Threshold 0 forks every operand, so every node goes through the parallel path
+    private static final ParallelEvaluator EVERYTHING = new ParallelEvaluator(POOL, 0);
+
+    @AfterAll
+    static void shutdown() {
+        POOL.shutdownNow();
+    }
+
+    @Test
+    void TestSameResultsAsSequential() {
+        String[] inputs = {
+                "1 + 4 + 5 + 3", "-4 + 6 / 2 * 3 - 1", "sin(1) + cos(2) * tan(3)", "log_2(8) + ln(10)",
+                "2 ^ 100 - 3 ^ 50", "20! - 18!", "(1 + 2) * (3 + 4) / 7"
+        };
+        for (String input : inputs) {
+            EvalResult parallel = Parser.evaluateParallel(Parser.parse(input), EVERYTHING);
+            assertEquals(Parser.eval(input).number(), parallel.number(), input);
+            assertEquals(EvalResult.ENGINE_PARALLEL, parallel.engine(), input);
+        }
+    }
+
+    @Test
+    void TestSharedSubexpressionsWithVariables() {
+        // The optimizer turns the repeated sin(x) into a let binding
+        LipsNotation tree = Parser.parse("sin(x) * sin(x) + sin(x)").optimized();
+        Map<String, Apfloat> env = Map.of("x", new Apfloat(2, 100));
+        assertEquals(tree.eval(env), EVERYTHING.evaluate(tree, env));
+    }
+
+    @Test
+    void TestSameErrorsAsSequential() {
+        RuntimeException expected = assertThrows(RuntimeException.class, () -> Parser.eval("(1 + 2) / (3 - 3)"));
+        RuntimeException actual = assertThrows(RuntimeException.class,
+                () -> Parser.evaluateParallel(Parser.parse("(1 + 2) / (3 - 3)"), EVERYTHING));
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    @Test
+    void TestCheapExpressionStaysSequential() {
+        ParallelEvaluator evaluator = new ParallelEvaluator(POOL, 50_000);
+        long before = POOL.getStealCount() + POOL.getQueuedTaskCount();
+
+        assertEquals(Parser.eval("1 + 2 * 3").number(), evaluator.evaluate(Parser.parse("1 + 2 * 3").tree()));
+        assertEquals(before, POOL.getStealCount() + POOL.getQueuedTaskCount());
+    }
+
+    @Test
+    void TestDeadlineReachesForkedTasks() {
+        Deadline deadline = Deadline.in(60_000);
+        deadline.cancel();
+        LipsNotation tree = Parser.parse("sin(1) + cos(2)").tree();
+        assertThrows(EvaluationCancelledException.class, () -> deadline.run(() -> EVERYTHING.evaluate(tree)));
+    }
+
+    @Test
+    void TestPointsAndDefinitionsFallBack() {
+        assertEquals("f", Parser.evaluateParallel(Parser.parse("f(x) = x ^ 2"), EVERYTHING).label());
+        assertNotEquals(EvalResult.ENGINE_PARALLEL, Parser.evaluateParallel(Parser.parse("(1, 2)"), EVERYTHING).engine());
+    }
+}
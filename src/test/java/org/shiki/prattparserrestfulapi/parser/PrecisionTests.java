@@ -0,0 +1,72 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import java.math.RoundingMode;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrecisionTests {
+
+    @Test
+    void TestLiteralsAndConstantsUseWorkingPrecision() {
+        Apfloat value = Precision.run(20, () -> Parser.eval("pi + 1 / 3").number());
+
+        assertEquals(20 + Precision.GUARD_DIGITS, value.precision());
+        assertEquals(Precision.DEFAULT, Parser.eval("pi + 1 / 3").number().precision());
+        assertTrue(Precision.isDefault());
+    }
+
+    @Test
+    void TestCancellationIsRetriedAtHigherPrecision() {
+        // Every digit of these results cancels at 5 + GUARD_DIGITS digits
+        assertEquals("1", atFiveDigits("100000000000000000000000001 - 100000000000000000000000000"));
+        assertEquals("1", atFiveDigits("2^80 + 1 - 2^80"));
+        assertEquals("1e-30", atFiveDigits("1 + 10^(0-30) - 1"));
+        assertEquals("3.3333e-31", atFiveDigits("1 + 10^(0-30) / 3 - 1"));
+        // A genuine zero stays zero, once DEFAULT confirms it
+        assertEquals("0", atFiveDigits("sin(1) - sin(1)"));
+        assertEquals("3.1416", atFiveDigits("pi"));
+    }
+
+    @Test
+    void TestZeroIsConfirmedOnceAtFullPrecision() {
+        AtomicInteger runs = new AtomicInteger();
+        EvalResult zero = Precision.run(5, () -> {
+            runs.incrementAndGet();
+            return Parser.eval("1000! - 1000!");
+        }, Precision::significant);
+
+        assertEquals(0, zero.number().signum());
+        // Once at 5 + GUARD_DIGITS, once at DEFAULT, nothing in between
+        assertEquals(2, runs.get());
+    }
+
+    private static String atFiveDigits(String expression) {
+        EvalResult result = Precision.run(5, () -> Parser.eval(expression), Precision::significant);
+        return result.rounded(5, RoundingMode.HALF_UP).number().toString();
+    }
+
+    @Test
+    void TestForkedTasksKeepPrecision() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ParallelEvaluator evaluator = new ParallelEvaluator(pool, 0);
+            Apfloat value = Precision.run(20, () -> evaluator.evaluate(Parser.parse("sin(1) + ln(3)").tree()));
+            assertEquals(20 + Precision.GUARD_DIGITS, value.precision());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void TestRound() {
+        assertEquals("1.24", Precision.round(new Apfloat("1.235", 10), 3, RoundingMode.HALF_UP).toString(true));
+        assertEquals("1.23", Precision.round(new Apfloat("1.235", 10), 3, RoundingMode.DOWN).toString(true));
+        assertEquals(Apfloat.ZERO, Precision.round(Apfloat.ZERO, 3, RoundingMode.HALF_UP));
+        assertNull(Precision.round(null, 3, RoundingMode.HALF_UP));
+    }
+}
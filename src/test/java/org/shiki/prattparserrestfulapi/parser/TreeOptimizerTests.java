@@ -0,0 +1,58 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeOptimizerTests {
+
+    private static TreeOptimizer.Result optimize(String expr) {
+        return TreeOptimizer.optimize(Parser.parse(expr).tree());
+    }
+
+    @Test
+    void TestConstantTreeFoldsToSingleNode() {
+        TreeOptimizer.Result r = optimize("sin(2^10) * sin(2^10) + sin(2^10)");
+
+        assertInstanceOf(LipsNotation.Const.class, r.tree());
+        assertEquals(Parser.parse("sin(2^10) * sin(2^10) + sin(2^10)").tree().eval(), r.tree().eval());
+        assertEquals(13, r.nodesRemoved());
+    }
+
+    @Test
+    void TestIdentitiesAreRemoved() {
+        assertEquals("x", optimize("x * 1 + 0").tree().toString());
+        assertEquals("x", optimize("(x - 0) ^ 1 / 1").tree().toString());
+        assertEquals("(+ x 6)", optimize("x + 2 * 3 * 1").tree().toString());
+    }
+
+    @Test
+    void TestRepeatedSubtreesAreShared() {
+        TreeOptimizer.Result r = optimize("sin(x) * sin(x) + sin(x)");
+
+        assertEquals("(let (($0 (sin x))) (+ (* $0 $0) $0))", r.tree().toString());
+        assertEquals(4, r.nodesRemoved());
+        Map<String, Apfloat> env = Map.of("x", new Apfloat("0.5", 50));
+        assertEquals(Parser.parse("sin(x) * sin(x) + sin(x)").tree().eval(env), r.tree().eval(env));
+    }
+
+    @Test
+    void TestFailingSubtreeIsKeptForEvaluation() {
+        LipsNotation tree = optimize("2 + 1 / 0").tree();
+
+        RuntimeException e = assertThrows(RuntimeException.class, tree::eval);
+        assertEquals("Cannot divide by 0.", e.getMessage());
+    }
+
+    @Test
+    void TestPointShapeIsKept() {
+        EvalResult result = Parser.eval("B(1 + 1, 2 * 3)");
+
+        assertEquals("point", result.kind());
+        assertEquals("B", result.label());
+        assertEquals(6, result.y().intValue());
+    }
+}
@@ -0,0 +1,167 @@
+package org.shiki.prattparserrestfulapi.parser;
+
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspaceTests {
+
+    private final List<String> evaluated = new ArrayList<>();
+    private final Workspace workspace = new Workspace((parsed, cost, work) -> work.get(), 1000);
+
+    private List<Workspace.Entry> define(String text) {
+        List<Workspace.Entry> entries = workspace.recompute(workspace.define(text));
+        entries.forEach(e -> evaluated.add(e.name()));
+        return entries;
+    }
+
+    private Apfloat value(String name) {
+        return workspace.get(name).result().number();
+    }
+
+    @Test
+    void TestDefinitionsReferToEachOther() {
+        define("a = 3");
+        define("f(x) = x ^ 2 + a");
+        define("b = f(2) * 2");
+        define("P(a, f(a))");
+
+        assertEquals(new Apfloat(14), value("b"));
+        Workspace.Entry point = workspace.get("P");
+        assertEquals(new Apfloat(3), point.result().x());
+        assertEquals(new Apfloat(12), point.result().y());
+        assertEquals(List.of("f"), workspace.get("b").dependsOn());
+        assertEquals(List.of("a"), workspace.get("f").dependsOn());
+        assertEquals(Workspace.Kind.FUNCTION, workspace.get("f").kind());
+    }
+
+    @Test
+    void TestChangeRecomputesOnlyDependentsInOrder() {
+        define("a = 1");
+        define("b = a + 1");
+        define("c = b * 2");
+        define("d = 5");
+        define("e = c + b");
+        evaluated.clear();
+
+        define("b = a + 10");
+
+        assertEquals(List.of("b", "c", "e"), evaluated);
+        assertEquals(new Apfloat(33), value("e"));
+        assertEquals(new Apfloat(5), value("d"));
+    }
+
+    @Test
+    void TestFunctionParametersAreNotCaptured() {
+        define("x = 100");
+        define("f(t) = t + x");
+        define("g(x) = f(1) * x");
+        define("v = g(2)");
+
+        assertEquals(new Apfloat(202), value("v"));
+    }
+
+    @Test
+    void TestCircularDefinitionIsRefused() {
+        define("a = 1");
+        define("b = a + 1");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> workspace.define("a = b"));
+        assertEquals("Circular definition: a -> b -> a", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> workspace.define("f(x) = f(x - 1)"));
+        // The old definition is still in place
+        assertEquals(new Apfloat(2), value("b"));
+    }
+
+    @Test
+    void TestDepthIsLimitedAlsoAfterInlining() {
+        Workspace shallow = new Workspace((parsed, cost, work) -> work.get(), 10);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> shallow.define("a = " + "-(".repeat(20) + "1" + ")".repeat(20)));
+        assertEquals("Definition nested too deeply (depth 21, limit 10)", e.getMessage());
+
+        // Each body is shallow enough on its own, not with the others inlined into it
+        shallow.recompute(shallow.define("f(x) = -(-(-(-(x))))"));
+        shallow.recompute(shallow.define("b = f(f(1))"));
+        assertEquals(new Apfloat(1), shallow.get("b").result().number());
+        shallow.recompute(shallow.define("c = f(f(f(f(f(f(1))))))"));
+        assertEquals("Nested too deeply once functions are inlined (limit 10)", shallow.get("c").error());
+    }
+
+    @Test
+    void TestSizeIsLimitedBeforeInlining() {
+        Workspace small = new Workspace((parsed, cost, work) -> work.get(), 1000, 1000);
+        small.recompute(small.define("f0(x) = x + 1"));
+        // Each function calls the one before twice, doubling the inlined size every time
+        for (int i = 1; i <= 60; i++) {
+            small.recompute(small.define("f" + i + "(x) = f" + (i - 1) + "(f" + (i - 1) + "(x))"));
+        }
+        small.recompute(small.define("a = f6(1)"));
+        assertEquals(new Apfloat(65), small.get("a").result().number());
+
+        Workspace.TooLarge e = assertThrows(Workspace.TooLarge.class, () -> small.define("b = f60(1)"));
+        assertTrue(e.size() > 1000);
+        assertNull(small.get("b"));
+
+        // Also when a change makes a dependent too large; the old definition stays
+        assertThrows(Workspace.TooLarge.class, () -> small.define("f0(x) = x" + " + 1".repeat(10)));
+        assertEquals("f0(x) = x + 1", small.get("f0").source());
+        assertEquals(62, small.size());
+    }
+
+    @Test
+    void TestRecomputationsCanRunOutOfOrder() {
+        define("a = 1");
+        define("b = a + 1");
+        Workspace.Change first = workspace.define("a = 5");
+        Workspace.Change second = workspace.define("c = b * 2");
+
+        // The later change runs first and still sees the earlier one
+        assertEquals(new Apfloat(12), workspace.recompute(second).get(0).result().number());
+        List<Workspace.Entry> late = workspace.recompute(first);
+        assertEquals(List.of("a", "b"), late.stream().map(Workspace.Entry::name).toList());
+        assertEquals(new Apfloat(6), late.get(1).result().number());
+        assertEquals(new Apfloat(12), value("c"));
+    }
+
+    @Test
+    void TestMissingNamesFailUntilDefined() {
+        define("b = a * 2");
+        assertEquals("Undefined name: a", workspace.get("b").error());
+
+        define("c = b + 1");
+        assertEquals("Depends on failed definition: b", workspace.get("c").error());
+
+        define("a = 4");
+        assertEquals(new Apfloat(9), value("c"));
+
+        workspace.recompute(workspace.remove("a"));
+        assertNotNull(workspace.get("c").error());
+        assertNull(workspace.remove("a"));
+    }
+
+    @Test
+    void TestTuplesAreLabelledPerWorkspace() {
+        define("A = 1");
+        define("(1, 2)");
+        define("(A, 3)");
+
+        Workspace other = new Workspace((parsed, cost, work) -> work.get(), 1000);
+        other.recompute(other.define("(5, 6)"));
+
+        // "A" is taken, so the sequence continues with B
+        assertNotNull(workspace.get("B"));
+        assertEquals(new Apfloat(1), workspace.get("C").result().x());
+        assertNotNull(other.get("A"));
+    }
+
+    @Test
+    void TestPlainExpressionIsNotADefinition() {
+        assertThrows(IllegalArgumentException.class, () -> workspace.define("1 + 2"));
+        assertEquals(0, workspace.size());
+    }
+}
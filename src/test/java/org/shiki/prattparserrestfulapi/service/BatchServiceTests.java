@@ -0,0 +1,59 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchServiceTests {
+
+    private final ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+    private final ExpressionService expressionService = new ExpressionService(new ExpressionCache(true, 1000),
+            metrics, new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000),
+            ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+    private final BatchService batchService = new BatchService(expressionService, JsonMapper.builder().build(), 4, 100, 2);
+
+    @AfterEach
+    void shutdown() {
+        batchService.shutdown();
+    }
+
+    @Test
+    void TestResultsInInputOrderWithPerItemErrors() {
+        List<BatchItem> items = batchService.evaluateAll(List.of("1 + 1", "1 / 0", "2 * 3", "x"), EvaluationOptions.defaults());
+
+        assertEquals(4, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(i, items.get(i).index());
+        }
+        assertEquals(2, items.get(0).result().number().intValue());
+        assertEquals("Cannot divide by 0.", items.get(1).error());
+        assertEquals(6, items.get(2).result().number().intValue());
+        assertNull(items.get(3).result());
+        assertNotNull(items.get(3).error());
+    }
+
+    @Test
+    void TestStreamWritesOneLinePerExpressionInOrder() throws Exception {
+        String input = "1 + 1\n\n2 * 3\n1 / 0\n4 - 1\n5!\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long count = batchService.evaluateStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out,
+                EvaluationOptions.defaults());
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(5, count);
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].startsWith("{\"index\":0,"), lines[0]);
+        assertTrue(lines[1].startsWith("{\"index\":2,"), lines[1]);
+        assertTrue(lines[2].contains("Cannot divide by 0."), lines[2]);
+        assertTrue(lines[4].startsWith("{\"index\":5,"), lines[4]);
+    }
+}
@@ -0,0 +1,91 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EditSessionServiceTests {
+
+    private final ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+    // Two evaluations in flight per client
+    private final EvaluationExecutor executor = new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 2, 2, 50_000);
+    private final ExpressionService expressionService = new ExpressionService(new ExpressionCache(true, 1000), metrics,
+            executor, ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+    private final EditSessionService sessions = new EditSessionService(expressionService, executor, 10, 30);
+
+    @Test
+    void TestRefusedEditIsTakenBack() throws InterruptedException {
+        String id = sessions.open("1 + 2", "a").join().id();
+
+        // Occupy both of the client's slots, so the next edit cannot be scheduled
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            executor.submit("a", 0, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+        }
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> sessions.edit(id, 5, 0, "0", "a"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+        release.countDown();
+
+        // Resending the same edit applies it once
+        SessionResult retried = null;
+        while (retried == null) {
+            try {
+                retried = sessions.edit(id, 5, 0, "0", "a").join();
+            } catch (ResponseStatusException busy) {
+                Thread.sleep(5);
+            }
+        }
+        assertEquals("1 + 20", retried.text());
+        assertEquals("2.1e1", retried.result().number().toString());
+    }
+
+    @Test
+    void TestEditOverBudgetIsTakenBack() {
+        String id = sessions.open("1 + 2", "a").join().id();
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> sessions.edit(id, 0, 5, "3000000!", "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+        assertEquals("1 + 4", sessions.edit(id, 4, 1, "4", "a").join().text());
+    }
+
+    @Test
+    void TestResultCarriesTheStatsOfItsOwnEdit() {
+        EvaluationExecutor lanes = new EvaluationExecutor(metrics, 10_000, 1, 10, 1, 2, 4, 2, 50_000);
+        EditSessionService service = new EditSessionService(new ExpressionService(new ExpressionCache(true, 1000),
+                metrics, lanes, ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000), lanes, 10, 30);
+        String id = service.open("1 + 2", "a").join().id();
+
+        // Hold the only cheap thread, so both edits are parsed before either is evaluated
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.submit("b", 0, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        CompletableFuture<SessionResult> first = service.edit(id, 5, 0, " + 3", "a");
+        CompletableFuture<SessionResult> second = service.edit(id, 9, 0, " + 4", "a");
+        release.countDown();
+
+        assertEquals("1 + 2 + 3", first.join().text());
+        assertEquals(5, first.join().stats().tokens());
+        assertEquals("6", first.join().result().number().toString());
+        assertEquals(7, second.join().stats().tokens());
+    }
+}
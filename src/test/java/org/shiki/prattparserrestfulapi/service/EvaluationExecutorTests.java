@@ -0,0 +1,58 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationExecutorTests {
+
+    // One thread and one queue slot per lane, two evaluations in flight per client
+    private final EvaluationExecutor executor = new EvaluationExecutor(
+            new ExpressionMetrics(new SimpleMeterRegistry()), 100, 1, 1, 1, 1, 2, 1, 50_000);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void TestPerClientLimit() {
+        executor.submit("a", 1, this::block);
+        executor.submit("a", 1, this::block);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> executor.submit("a", 1, this::block));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+        // Other clients are unaffected
+        assertDoesNotThrow(() -> executor.submit("b", 1_000, () -> 1));
+    }
+
+    @Test
+    void TestFullExpensiveLaneDoesNotBlockCheapLane() throws Exception {
+        executor.submit("a", 1_000, this::block);
+        executor.submit("b", 1_000, this::block);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> executor.submit("c", 1_000, this::block));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+
+        CompletableFuture<Integer> cheap = executor.submit("c", 1, () -> 42);
+        assertEquals(42, cheap.get());
+    }
+
+    private int block() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,38 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.junit.jupiter.api.Test;
+import org.shiki.prattparserrestfulapi.parser.ParsedExpression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCacheTests {
+
+    @Test
+    void TestNormalize() {
+        assertEquals("1 + 2", ExpressionCache.normalize("  1   +\t2 "));
+        assertEquals("sin(1)", ExpressionCache.normalize("sin(1)"));
+    }
+
+    @Test
+    void TestRepeatedExpressionHitsCache() {
+        ExpressionCache cache = new ExpressionCache(true, 1000);
+        ParsedExpression first = cache.get("2 + 3 * 4");
+        ParsedExpression second = cache.get("2 +  3 * 4");
+
+        assertSame(first, second);
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    void TestWeightBoundEvicts() {
+        ExpressionCache cache = new ExpressionCache(true, 10);
+        for (int i = 0; i < 20; i++) {
+            cache.get(i + " + " + i + " * " + i);
+        }
+        cache.cleanUp();
+
+        assertTrue(cache.size() * 5 <= 10);
+        assertTrue(cache.stats().evictionCount() > 0);
+    }
+}
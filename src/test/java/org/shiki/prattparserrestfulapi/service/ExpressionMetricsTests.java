@@ -0,0 +1,36 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExpressionMetrics metrics = new ExpressionMetrics(registry);
+    private final ExpressionService expressionService = new ExpressionService(new ExpressionCache(true, 1000),
+            metrics, new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000),
+            ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+
+    @Test
+    void TestParseRecordedOncePerCachedExpression() {
+        expressionService.evaluate("1 + 2 * 3");
+        expressionService.evaluate("1 + 2 * 3");
+
+        assertEquals(1, registry.get("expression.lex").timer().count());
+        assertEquals(1, registry.get("expression.parse").timer().count());
+        assertEquals(5.0, registry.get("expression.tokens").summary().totalAmount());
+        assertEquals(2, registry.get("expression.evaluate").tag("engine", "apfloat").timer().count());
+    }
+
+    @Test
+    void TestOperatorCounts() {
+        expressionService.evaluate("sin(1) + sin(2) ^ 2");
+        expressionService.evaluate("A(1, 2)");
+
+        assertEquals(2.0, registry.get("expression.operators").tag("op", "sin").counter().count());
+        assertEquals(1.0, registry.get("expression.operators").tag("op", "^").counter().count());
+        assertEquals(1.0, registry.get("expression.operators").tag("op", "other").counter().count());
+    }
+}
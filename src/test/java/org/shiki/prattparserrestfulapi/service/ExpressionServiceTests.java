@@ -0,0 +1,140 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shiki.prattparserrestfulapi.parser.EvalResult;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.RoundingMode;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionServiceTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private ExpressionService service(long maxCost, long timeoutMillis) {
+        return service(maxCost, timeoutMillis, ResultStore.disabled());
+    }
+
+    private ExpressionService service(long maxCost, long timeoutMillis, ResultStore resultStore) {
+        ExpressionMetrics metrics = new ExpressionMetrics(registry);
+        return new ExpressionService(new ExpressionCache(true, 1000), metrics,
+                new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000), resultStore,
+                true, 16, 1e-12, maxCost, timeoutMillis, 1000);
+    }
+
+    @Test
+    void TestOverBudgetIsRejectedUpFront() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> service(5_000_000, 10_000).evaluate("(10^6)!"));
+
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+        assertEquals(1.0, registry.get("expression.rejected").tag("reason", "budget").counter().count());
+    }
+
+    @Test
+    void TestDeadlineAbandonsEvaluation() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> service(Long.MAX_VALUE, 1).evaluate("50000!"));
+
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+        assertTrue(e.getReason().contains("time limit"));
+    }
+
+    @Test
+    void TestWithinLimitsEvaluates() {
+        assertEquals("1.2e2", service(5_000_000, 10_000).evaluate("5!").number().toString());
+    }
+
+    @Test
+    void TestDeepNestingIsRefusedUpFront() {
+        ExpressionService service = service(5_000_000, 10_000);
+        // Parses fine, but deeper than the recursive evaluators can go
+        String deep = "1 + (".repeat(5_000) + "1" + ")".repeat(5_000);
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> service.submit(deep, EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        assertEquals(1.0, registry.get("expression.rejected").tag("reason", "depth").counter().count());
+
+        // At the limit every engine evaluates on a lane thread
+        String limit = "1 + (".repeat(999) + "1" + ")".repeat(999);
+        for (String engine : new String[] {null, "auto", "flat", "parallel"}) {
+            EvalResult result = service.submit(limit, EvaluationOptions.of(engine, null), "a").join();
+            assertEquals(1000, result.number().intValue(), engine);
+        }
+    }
+
+    @Test
+    void TestDigitsAndRounding() {
+        ExpressionService service = service(5_000_000, 10_000);
+
+        EvalResult third = service.evaluate("2 / 3", EvaluationOptions.of(null, null, 5, "down"));
+        assertEquals("6.6666e-1", third.number().toString());
+        EvalResult point = service.evaluate("(1 / 3, 2 / 3)", EvaluationOptions.of(null, null, 3, null));
+        assertEquals("6.67e-1", point.y().toString());
+
+        // Computed at about the asked precision, yet the same digits as full precision rounded
+        Apfloat full = service.evaluate("sin(3) * ln(7) + pi").number();
+        Apfloat twelve = service.evaluate("sin(3) * ln(7) + pi", EvaluationOptions.of(null, null, 12, null)).number();
+        assertEquals(ApfloatMath.roundToPrecision(full, 12, RoundingMode.HALF_UP), twelve);
+        assertTrue(twelve.precision() <= 12);
+
+        for (ResponseStatusException e : new ResponseStatusException[] {
+                assertThrows(ResponseStatusException.class, () -> EvaluationOptions.of(null, null, 0, null)),
+                assertThrows(ResponseStatusException.class, () -> EvaluationOptions.of(null, null, 5, "sideways")),
+                assertThrows(ResponseStatusException.class, () -> EvaluationOptions.of(null, null, 5, "unnecessary"))}) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        }
+    }
+
+    @Test
+    void TestTrailingInputIsABadRequest() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> service(5_000_000, 10_000).submit("1 2", EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    @Test
+    void TestUnknownEngineIsABadRequest() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> EvaluationOptions.of("turbo", null));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        assertEquals("Unknown engine: turbo", e.getReason());
+    }
+
+    @Test
+    void TestCompiledOnceHotWhicheverEngineReachedTheThreshold() {
+        ExpressionMetrics metrics = new ExpressionMetrics(registry);
+        ExpressionCache cache = new ExpressionCache(true, 1000);
+        ExpressionService service = new ExpressionService(cache, metrics,
+                new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000), ResultStore.disabled(),
+                true, 16, 1e-12, 5_000_000, 10_000, 1000);
+
+        for (int i = 0; i < 16; i++) {
+            service.evaluate("sin(3) + 2", EvaluationOptions.of("flat", null));
+        }
+        assertNull(cache.get("sin(3) + 2").compiled());
+        service.evaluate("sin(3) + 2");
+        assertNotNull(cache.get("sin(3) + 2").compiled());
+    }
+
+    @Test
+    void TestStoredResultsServedAfterRestart(@TempDir Path dir) {
+        String file = dir.resolve("results.bin").toString();
+        ResultStore store = new ResultStore(true, file, 1 << 20, 1000);
+        EvalResult computed = service(5_000_000, 10_000, store).evaluate("pi * 2000!");
+        assertEquals(EvalResult.ENGINE_APFLOAT, computed.engine());
+        store.close();
+
+        ResultStore reopened = new ResultStore(true, file, 1 << 20, 1000);
+        EvalResult stored = service(5_000_000, 10_000, reopened).evaluate("2000! * pi");
+        assertEquals(EvalResult.ENGINE_STORED, stored.engine());
+        assertEquals(computed.number(), stored.number());
+        reopened.close();
+    }
+}
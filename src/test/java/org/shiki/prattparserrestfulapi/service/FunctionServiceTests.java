@@ -0,0 +1,159 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FunctionServiceTests {
+
+    private final ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+    private final EvaluationExecutor executor = new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 10, 10, 2, 50_000);
+    private final ExpressionService expressionService = new ExpressionService(new ExpressionCache(true, 1000), metrics,
+            executor, ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+    private final FunctionService functionService = functionService(1_000_000);
+
+    private FunctionService functionService(int maxEvaluations) {
+        return new FunctionService(new ExpressionCache(true, 1000), expressionService, executor, 100000, maxEvaluations, 10_000);
+    }
+
+    // The exception a future failed with
+    private static ResponseStatusException failure(CompletableFuture<?> future) {
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        return assertInstanceOf(ResponseStatusException.class, e.getCause());
+    }
+
+    @Test
+    void TestSampleSquare() {
+        SampleResult r = functionService.sample("f(x) = x ^ 2 + 1", -2, 2, 1001, "a").join();
+
+        assertEquals("f", r.name());
+        assertEquals(1001, r.x().length);
+        assertEquals(5.0, r.y()[0]);
+        assertEquals(1.0, r.y()[500], 1e-12);
+        assertEquals(0, r.failed().length);
+    }
+
+    @Test
+    void TestFailedPointsAreMarked() {
+        SampleResult r = functionService.sample("y = log(x)", -1, 1, 3, "a").join();
+
+        assertArrayEquals(new int[]{0, 1}, r.failed());
+        assertEquals(2, r.errors().length);
+        assertNotNull(r.errors()[0]);
+        assertEquals(0.0, r.y()[2]);
+
+        // Too big for a double is a failure with its reason, not a silent NaN
+        SampleResult big = functionService.sample("f(x) = 10 ^ x", 0, 400, 2, "a").join();
+        assertArrayEquals(new int[]{1}, big.failed());
+        assertEquals("Value out of range for a double", big.errors()[0]);
+        assertEquals(1.0, big.y()[0]);
+    }
+
+    @Test
+    void TestSamplingIsPricedPerPoint() {
+        // One point of x! is cheap for small x; a hundred thousand up to 100000! are not
+        assertEquals(1, functionService.sample("f(x) = x!", 5, 5, 1, "a").join().y().length);
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> functionService.sample("f(x) = x!", 0, 100000, 100000, "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+        assertTrue(e.getReason().startsWith("Expression too expensive"), e.getReason());
+    }
+
+    @Test
+    void TestIntegrateInDoubles() {
+        IntegralResult r = functionService.integrate("f(x) = sin(x)", 0, Math.PI, 1e-10, null, "a").join();
+
+        assertEquals(2.0, r.value().doubleValue(), 1e-9);
+        assertTrue(r.converged());
+        assertEquals("double", r.precision());
+    }
+
+    @Test
+    void TestIntegrateInApfloat() {
+        IntegralResult r = functionService.integrate("f(x) = 1 / (1 + x * x)", 0, 1, 1e-16, "apfloat", "a").join();
+
+        // pi / 4
+        Apfloat expected = ApfloatMath.pi(40).divide(new Apfloat(4));
+        assertTrue(ApfloatMath.abs(r.value().subtract(expected)).compareTo(new Apfloat("1e-15")) < 0, r.value().toString());
+    }
+
+    @Test
+    void TestIntegralThatDoesNotConverge() {
+        ResponseStatusException e = failure(functionService(100).integrate("f(x) = sin(1 / x)", 0.001, 1, 1e-12, null, "a"));
+
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+    }
+
+    @Test
+    void TestRootMethodsAgree() {
+        for (String method : new String[]{"brent", "bisection"}) {
+            RootResult r = functionService.findRoot("f(x) = x ^ 2 - 2", 0, 2, 1e-12, method, null, "a").join();
+
+            assertEquals(Math.sqrt(2), r.root().doubleValue(), 1e-11, method);
+            assertEquals(method, r.method());
+        }
+        RootResult brent = functionService.findRoot("f(x) = x ^ 2 - 2", 0, 2, 1e-12, null, null, "a").join();
+        RootResult bisection = functionService.findRoot("f(x) = x ^ 2 - 2", 0, 2, 1e-12, "bisection", null, "a").join();
+        assertTrue(brent.iterations() < bisection.iterations());
+    }
+
+    @Test
+    void TestRootInApfloat() {
+        RootResult r = functionService.findRoot("f(x) = cos(x) - x", 0, 1, 1e-30, "brent", "apfloat", "a").join();
+
+        // Dottie number
+        Apfloat expected = new Apfloat("0.7390851332151606416553120876738734040134", 40);
+        assertTrue(ApfloatMath.abs(r.root().subtract(expected)).compareTo(new Apfloat("1e-29")) < 0, r.root().toString());
+    }
+
+    @Test
+    void TestRootErrors() {
+        ResponseStatusException sameSign = failure(functionService.findRoot("f(x) = x ^ 2 + 1", -1, 1, null, null, null, "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, sameSign.getStatusCode());
+
+        ResponseStatusException method = assertThrows(ResponseStatusException.class,
+                () -> functionService.findRoot("f(x) = x", -1, 1, null, "newton", null, "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, method.getStatusCode());
+
+        ResponseStatusException undefined = failure(functionService.findRoot("f(x) = log(x)", -1, 2, null, "bisection", null, "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, undefined.getStatusCode());
+        assertEquals("f cannot be evaluated at x = -1.0", undefined.getReason());
+    }
+
+    @Test
+    void TestExpensiveFunctionIsRefusedUpFront() {
+        // Priced with x anywhere in the range, so up to 3000000!
+        ResponseStatusException integral = assertThrows(ResponseStatusException.class,
+                () -> functionService.integrate("f(x) = x!", 0, 3000000, null, null, "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, integral.getStatusCode());
+        assertTrue(integral.getReason().startsWith("Expression too expensive"), integral.getReason());
+
+        ResponseStatusException root = assertThrows(ResponseStatusException.class,
+                () -> functionService.findRoot("f(x) = x! - 5", 0, 3000000, null, null, "apfloat", "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, root.getStatusCode());
+    }
+
+    @Test
+    void TestDigitsScaleWithTheSizeOfTheAnswer() {
+        assertEquals(16, FunctionService.digitsFor(1e-3, 0));
+        assertEquals(38, FunctionService.digitsFor(1e-3, 30));
+
+        // 5e29, exact to 1e-3 only with more than 33 digits
+        IntegralResult integral = functionService.integrate("f(x) = 10 ^ 30 * x", 0, 1, 1e-3, "apfloat", "a").join();
+        Apfloat half = new Apfloat("5e29", 50);
+        assertTrue(ApfloatMath.abs(integral.value().subtract(half)).compareTo(new Apfloat("1e-3")) < 0,
+                integral.value().toString());
+
+        RootResult root = functionService.findRoot("f(x) = x - 123456789012345678901", 0, 1e21, 1e-3, null, "apfloat", "a").join();
+        Apfloat expected = new Apfloat("123456789012345678901", 50);
+        assertTrue(ApfloatMath.abs(root.root().subtract(expected)).compareTo(new Apfloat("1e-3")) < 0, root.root().toString());
+    }
+}
@@ -0,0 +1,173 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobServiceTests {
+
+    // Runs for seconds, checking its deadline as it goes
+    private static final String SLOW = "300000!";
+
+    private static JobService jobs(int threads, int queue, long ttlMinutes) {
+        return jobs(threads, queue, ttlMinutes, Long.MAX_VALUE);
+    }
+
+    private static JobService jobs(int threads, int queue, long ttlMinutes, long maxCost) {
+        return jobs(threads, queue, 100, ttlMinutes, maxCost);
+    }
+
+    // Four evaluations or jobs in flight per client
+    private static JobService jobs(int threads, int queue, long maxJobs, long ttlMinutes, long maxCost) {
+        ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+        ExpressionCache cache = new ExpressionCache(true, 1000);
+        EvaluationExecutor executor = new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000);
+        ExpressionService expressionService = new ExpressionService(cache, metrics, executor,
+                ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+        return new JobService(expressionService, cache, executor, threads, queue, maxJobs, ttlMinutes, 60_000, maxCost, 10_000);
+    }
+
+    private static JobStatus awaitFinal(JobService jobs, String id) {
+        return jobs.await(id, 10_000).join();
+    }
+
+    private static void awaitRunning(JobService jobs, String id) throws InterruptedException {
+        while (jobs.get(id).state() == JobService.State.QUEUED) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void TestSubmitAndAwait() {
+        JobService jobs = jobs(1, 10, 10);
+        JobStatus submitted = jobs.submit("2 ^ 10", EvaluationOptions.defaults(), "a");
+
+        JobStatus done = awaitFinal(jobs, submitted.id());
+
+        assertEquals(JobService.State.SUCCEEDED, done.state());
+        assertEquals("1.024e3", done.result().number().toString());
+        assertNotNull(done.started());
+        assertNotNull(done.finished());
+    }
+
+    @Test
+    void TestRefusedUpFront() {
+        JobService jobs = jobs(1, 10, 10);
+
+        ResponseStatusException syntax = assertThrows(ResponseStatusException.class,
+                () -> jobs.submit("1 + )", EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, syntax.getStatusCode());
+
+        ResponseStatusException budget = assertThrows(ResponseStatusException.class,
+                () -> jobs(1, 10, 10, 1000).submit("3000!", EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, budget.getStatusCode());
+
+        ResponseStatusException unknown = assertThrows(ResponseStatusException.class, () -> jobs.get("nope"));
+        assertEquals(HttpStatus.NOT_FOUND, unknown.getStatusCode());
+    }
+
+    @Test
+    void TestCancelRunningAndQueued() throws InterruptedException {
+        JobService jobs = jobs(1, 10, 10);
+        String running = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        String queued = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        awaitRunning(jobs, running);
+
+        JobStatus cancelledQueued = jobs.cancel(queued);
+        assertEquals(JobService.State.CANCELLED, cancelledQueued.state());
+        assertEquals("Cancelled before it started", cancelledQueued.error());
+
+        jobs.cancel(running);
+        JobStatus cancelledRunning = awaitFinal(jobs, running);
+        assertEquals(JobService.State.CANCELLED, cancelledRunning.state());
+        assertEquals("Evaluation cancelled", cancelledRunning.error());
+    }
+
+    @Test
+    void TestFullQueueIsRefused() throws InterruptedException {
+        JobService jobs = jobs(1, 1, 10);
+        String running = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        awaitRunning(jobs, running);
+        String queued = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> jobs.submit(SLOW, EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+
+        jobs.cancel(queued);
+        jobs.cancel(running);
+    }
+
+    @Test
+    void TestFinishedJobsExpire() throws InterruptedException {
+        JobService jobs = jobs(1, 10, 0);
+        String id = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        awaitRunning(jobs, id);
+
+        // Unfinished jobs do not expire, even with no TTL
+        assertEquals(JobService.State.RUNNING, jobs.get(id).state());
+
+        jobs.cancel(id);
+        long giveUp = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                jobs.get(id);
+            } catch (ResponseStatusException e) {
+                assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+                break;
+            }
+            assertTrue(System.currentTimeMillis() < giveUp, "finished job did not expire");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void TestJobsCountAgainstTheClientLimit() throws InterruptedException {
+        JobService jobs = jobs(1, 10, 10);
+        String[] held = new String[4];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        }
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> jobs.submit("1 + 1", EvaluationOptions.defaults(), "a"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+        // Other clients still get in
+        String other = jobs.submit("1 + 1", EvaluationOptions.defaults(), "b").id();
+
+        // A finished job gives its slot back
+        jobs.cancel(held[3]);
+        String next = jobs.submit("1 + 1", EvaluationOptions.defaults(), "a").id();
+        for (int i = 0; i < 3; i++) {
+            jobs.cancel(held[i]);
+        }
+        assertEquals(JobService.State.SUCCEEDED, awaitFinal(jobs, other).state());
+        assertEquals(JobService.State.SUCCEEDED, awaitFinal(jobs, next).state());
+    }
+
+    @Test
+    void TestFinishedJobsCannotPushOutActiveOnes() throws InterruptedException {
+        JobService jobs = jobs(2, 10, 2, 10, Long.MAX_VALUE);
+        String running = jobs.submit(SLOW, EvaluationOptions.defaults(), "a").id();
+        awaitRunning(jobs, running);
+
+        // Many more finished jobs than the store holds, each polled over and over.
+        // Those may be dropped, the running one may not
+        for (int i = 0; i < 20; i++) {
+            String id = jobs.submit(i + " + 1", EvaluationOptions.defaults(), "b").id();
+            for (int poll = 0; poll < 5; poll++) {
+                try {
+                    awaitFinal(jobs, id);
+                } catch (ResponseStatusException e) {
+                    assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+                }
+            }
+        }
+
+        assertEquals(JobService.State.RUNNING, jobs.get(running).state());
+        jobs.cancel(running);
+    }
+}
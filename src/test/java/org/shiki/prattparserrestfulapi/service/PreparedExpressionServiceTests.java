@@ -0,0 +1,86 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedExpressionServiceTests {
+
+    private final ExpressionCache cache = new ExpressionCache(true, 1000);
+    private final ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+    private final EvaluationExecutor executor = new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 4, 2, 50_000);
+    private final ExpressionService expressionService = new ExpressionService(cache, metrics, executor, ResultStore.disabled(),
+            true, 16, 1e-12, 5_000_000, 10_000, 1000);
+    private final PreparedExpressionService preparedService = new PreparedExpressionService(cache, expressionService,
+            executor, 2, 60, 100);
+
+    @Test
+    void TestPrepareListsVariables() {
+        PreparedHandle handle = preparedService.prepare("y * x ^ 2 + pi");
+
+        assertEquals(List.of("x", "y"), handle.variables());
+    }
+
+    @Test
+    void TestEvaluateWithBindings() {
+        PreparedHandle handle = preparedService.prepare("x ^ 2 + y");
+
+        assertEquals("7", preparedService.evaluate(handle.id(), Map.of("x", "2", "y", "3"), "a").join().number().toString());
+        List<BatchItem> items = preparedService.evaluateAll(handle.id(),
+                List.of(Map.of("x", "1", "y", "1"), Map.of("x", "3"), Map.of("x", "10", "y", "0")), "a").join();
+        assertEquals("2", items.get(0).result().number().toString());
+        assertEquals("Missing value for variable y", items.get(1).error());
+        assertEquals("1e2", items.get(2).result().number().toString());
+    }
+
+    @Test
+    void TestPricedWithBoundValues() {
+        PreparedHandle handle = preparedService.prepare("x!");
+
+        assertEquals("6", preparedService.evaluate(handle.id(), Map.of("x", "3"), "a").join().number().toString());
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> preparedService.evaluate(handle.id(), Map.of("x", "3000000"), "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+
+        List<BatchItem> items = preparedService.evaluateAll(handle.id(),
+                List.of(Map.of("x", "4"), Map.of("x", "3000000")), "a").join();
+        assertEquals("2.4e1", items.get(0).result().number().toString());
+        assertTrue(items.get(1).error().startsWith("Expression too expensive"));
+    }
+
+    @Test
+    void TestBatchSharesOneTimeLimit() {
+        ExpressionService slow = new ExpressionService(cache, metrics, executor, ResultStore.disabled(),
+                true, 16, 1e-12, 5_000_000, 200, 1000);
+        PreparedExpressionService service = new PreparedExpressionService(cache, slow, executor, 2, 60, 100);
+        PreparedHandle handle = service.prepare("x!");
+
+        // Each set alone runs past the limit; ten of them must not hold the lane for ten limits
+        long start = System.nanoTime();
+        List<BatchItem> items = service.evaluateAll(handle.id(), Collections.nCopies(10, Map.of("x", "200000")), "a").join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(10, items.size());
+        items.forEach(item -> assertTrue(item.error().contains("time limit"), item.error()));
+        assertTrue(elapsedMillis < 1000, elapsedMillis + " ms");
+    }
+
+    @Test
+    void TestRegistryIsBounded() {
+        String first = preparedService.prepare("x + 1").id();
+        preparedService.prepare("x + 2");
+        preparedService.prepare("x + 3");
+
+        assertTrue(preparedService.size() <= 2);
+        preparedService.remove(first);
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> preparedService.describe(first));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+    }
+}
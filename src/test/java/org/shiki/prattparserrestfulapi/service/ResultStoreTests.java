@@ -0,0 +1,136 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shiki.prattparserrestfulapi.parser.Parser;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultStoreTests {
+
+    @TempDir
+    Path dir;
+
+    private ResultStore open(long maxBytes) {
+        return new ResultStore(true, dir.resolve("results.bin").toString(), maxBytes, 0);
+    }
+
+    private static byte[] key(ResultStore store, String input) {
+        return store.keyFor(Parser.parse(input), EvaluationOptions.defaults());
+    }
+
+    @Test
+    void TestEncodingRoundTrips() {
+        for (Apfloat value : new Apfloat[] {
+                new Apfloat(0), new Apfloat(-7), new Apfloat("1.5e-300", 20), ApfloatMath.pi(1000),
+                new Apfloat("-123456789.25", 11), new Apfloat(2).divide(new Apfloat(3, 50)) }) {
+            Apfloat decoded = ResultStore.decode(ResultStore.encode(value));
+            assertEquals(value, decoded);
+            assertEquals(value.precision(), decoded.precision());
+        }
+    }
+
+    @Test
+    void TestSurvivesReopening() {
+        ResultStore store = open(1 << 20);
+        Apfloat pi = ApfloatMath.pi(500);
+        store.put(key(store, "pi * 2"), pi);
+        store.close();
+
+        ResultStore reopened = open(1 << 20);
+        assertEquals(1, reopened.size());
+        // Same expression up to operand order
+        assertEquals(pi, reopened.get(key(reopened, "2 * pi")));
+        assertNull(reopened.get(key(reopened, "pi * 3")));
+        reopened.close();
+    }
+
+    @Test
+    void TestTornRecordIsDropped() throws Exception {
+        ResultStore store = open(1 << 20);
+        store.put(key(store, "1 + 1"), new Apfloat(2));
+        store.put(key(store, "2 + 2"), new Apfloat(4));
+        store.close();
+
+        // Flip a byte of the last value, as if the write had not made it to disk
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("results.bin").toFile(), "rw")) {
+            long offset = 16 + 2 * (8 + 32) + ResultStore.encode(new Apfloat(2)).length;
+            file.seek(offset);
+            file.write(file.read() ^ 0xFF);
+        }
+
+        ResultStore reopened = open(1 << 20);
+        assertEquals(1, reopened.size());
+        assertEquals(new Apfloat(2), reopened.get(key(reopened, "1 + 1")));
+        assertNull(reopened.get(key(reopened, "2 + 2")));
+        // And it carries on appending after the good part
+        reopened.put(key(reopened, "3 + 3"), new Apfloat(6));
+        reopened.close();
+        assertEquals(new Apfloat(6), open(1 << 20).get(key(store, "3 + 3")));
+    }
+
+    @Test
+    void TestCompactionKeepsRecentlyUsed() throws Exception {
+        ResultStore store = open(4096);
+        byte[] first = key(store, "0 + 1");
+        store.put(first, new Apfloat(1));
+        for (int i = 2; i < 200; i++) {
+            store.put(key(store, "0 + " + i), new Apfloat(i));
+            store.awaitCompaction();
+            // Keep using the first one, so it survives every compaction
+            assertEquals(new Apfloat(1), store.get(first));
+        }
+        assertTrue(store.size() < 199);
+        assertEquals(new Apfloat(199), store.get(key(store, "0 + 199")));
+        assertNull(store.get(key(store, "0 + 2")));
+        store.close();
+
+        assertEquals(new Apfloat(1), open(4096).get(first));
+    }
+
+    @Test
+    void TestFailedCompactionDoesNotFailThePut() throws Exception {
+        ResultStore store = open(4096);
+        // Somewhere the new file cannot be written
+        Files.createDirectories(dir.resolve("results.bin.tmp").resolve("blocked"));
+        for (int i = 1; i < 200; i++) {
+            store.put(key(store, "0 + " + i), new Apfloat(i));
+            store.awaitCompaction();
+        }
+        // Full, so later results are dropped, but what it has is still served
+        assertTrue(store.size() < 199);
+        assertEquals(new Apfloat(1), store.get(key(store, "0 + 1")));
+        assertNull(store.get(key(store, "0 + 199")));
+
+        // Compacts on a later put once it can
+        Files.delete(dir.resolve("results.bin.tmp").resolve("blocked"));
+        store.put(key(store, "0 + 199"), new Apfloat(199));
+        store.awaitCompaction();
+        store.put(key(store, "0 + 199"), new Apfloat(199));
+        assertEquals(new Apfloat(199), store.get(key(store, "0 + 199")));
+        store.close();
+    }
+
+    @Test
+    void TestOnlyStoresWhatIsWorthIt() {
+        ResultStore store = new ResultStore(true, dir.resolve("results.bin").toString(), 1 << 20, 1000);
+        EvaluationOptions apfloat = EvaluationOptions.defaults();
+
+        assertNotNull(store.keyFor(Parser.parse("2000!"), apfloat));
+        assertNull(store.keyFor(Parser.parse("1 + 1"), apfloat));
+        assertNull(store.keyFor(Parser.parse("2000! + x"), apfloat));
+        assertNull(store.keyFor(Parser.parse("f(x) = 2000! * x"), apfloat));
+        assertNull(store.keyFor(Parser.parse("2000!"), EvaluationOptions.of("auto", null)));
+        assertFalse(Arrays.equals(store.keyFor(Parser.parse("2000!"), apfloat),
+                store.keyFor(Parser.parse("2000!"), EvaluationOptions.of(null, null, 10, null))));
+        assertNull(ResultStore.disabled().keyFor(Parser.parse("2000!"), apfloat));
+        store.close();
+    }
+}
@@ -0,0 +1,112 @@
+package org.shiki.prattparserrestfulapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.shiki.prattparserrestfulapi.parser.Workspace;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkspaceServiceTests {
+
+    private final ExpressionMetrics metrics = new ExpressionMetrics(new SimpleMeterRegistry());
+    // Two evaluations in flight per client
+    private final EvaluationExecutor executor = new EvaluationExecutor(metrics, 10_000, 2, 10, 1, 2, 2, 2, 50_000);
+    private final ExpressionService expressionService = new ExpressionService(new ExpressionCache(true, 1000), metrics,
+            executor, ResultStore.disabled(), true, 16, 1e-12, 5_000_000, 10_000, 1000);
+    private final WorkspaceService workspaceService = new WorkspaceService(expressionService, executor, 10, 3, 60);
+
+    private Workspace.Entry define(String id, String definition) {
+        WorkspaceResult result = workspaceService.define(id, definition, "a").join();
+        return result.entries().get(result.entries().size() - 1);
+    }
+
+    private Workspace.Entry entry(String id, String name) {
+        return workspaceService.get(id).entries().stream().filter(e -> e.name().equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void TestNamesArePricedByTheirValues() {
+        String id = workspaceService.open().id();
+        define(id, "a = 3000000");
+
+        Workspace.Entry direct = define(id, "b = a!");
+        assertNull(direct.result());
+        assertTrue(direct.error().startsWith("Expression too expensive"), direct.error());
+
+        define(id, "f(x) = x!");
+        // The function is inlined with x bound to a
+        assertTrue(workspaceService.define(id, "b = f(a)", "a").join().entries().get(0).error()
+                .startsWith("Expression too expensive"));
+    }
+
+    @Test
+    void TestTooLargeOnceInlinedIsRefused() {
+        WorkspaceService roomy = new WorkspaceService(expressionService, executor, 10, 100, 60);
+        String id = roomy.open().id();
+        roomy.define(id, "f0(x) = x + 1", "a").join();
+        for (int i = 1; i <= 40; i++) {
+            roomy.define(id, "f" + i + "(x) = f" + (i - 1) + "(f" + (i - 1) + "(x))", "a").join();
+        }
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> roomy.define(id, "a = f40(1)", "a"));
+        assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, e.getStatusCode());
+        assertEquals(41, roomy.get(id).entries().size());
+    }
+
+    @Test
+    void TestFullWorkspaceCanStillRedefine() {
+        String id = workspaceService.open().id();
+        define(id, "a = 1");
+        define(id, "b = a + 1");
+        define(id, "c = 3");
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> workspaceService.define(id, "d = 4", "a"));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        assertEquals(3, workspaceService.get(id).entries().size());
+
+        assertEquals("6", define(id, "b = a + 5").result().number().toString());
+    }
+
+    @Test
+    void TestRefusedChangeIsTakenBack() throws InterruptedException {
+        String id = workspaceService.open().id();
+        define(id, "a = 1");
+        define(id, "b = a + 1");
+
+        // Occupy both of the client's slots, so the next change cannot be scheduled
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            executor.submit("a", 0, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+        }
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> workspaceService.define(id, "a = 10", "a"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+        release.countDown();
+
+        assertEquals("a = 1", entry(id, "a").source());
+        assertEquals("2", entry(id, "b").result().number().toString());
+        // Retrying once the slot is free applies it as usual
+        WorkspaceResult retried = null;
+        while (retried == null) {
+            try {
+                retried = workspaceService.define(id, "a = 10", "a").join();
+            } catch (ResponseStatusException busy) {
+                Thread.sleep(5);
+            }
+        }
+        assertEquals("1.1e1", retried.entries().get(1).result().number().toString());
+    }
+}